@@ -0,0 +1,206 @@
+package org.quickconnectfamily.sync;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+
+import org.quickconnectfamily.dbaccess.DataAccessException;
+import org.quickconnectfamily.dbaccess.DataAccessResult;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteProgram;
+import android.database.sqlite.SQLiteQuery;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Stores the data of a SynchronizedDB in an SQLite file on an Android device.  This is the storage used by the 
+ * SynchronizedDB constructor that takes a Context.
+ * <br/>
+ * Write ahead logging is turned on so queries run by other threads are not blocked by an open transaction.  
+ * Android keeps transactions to the thread that started them.
+ * 
+ * @author Lee S. Barney
+ *
+ */
+public class AndroidSyncStorage implements SyncStorage {
+	private SQLiteDatabase database;
+
+	/**
+	 * Opens, or creates, the SQLite file.
+	 * @param theActivityRef - the activity that the database is associated with.  This is usually your initial Acivity class.
+	 * @param aDbName - the name of the SQLite file.
+	 * @throws DataAccessException if the file can not be opened.
+	 */
+	public AndroidSyncStorage(WeakReference<Context> theActivityRef, String aDbName) throws DataAccessException{
+		Context aContext = theActivityRef.get();
+		if(aContext == null){
+			throw new DataAccessException("Error: the activity for "+aDbName+" is no longer available.");
+		}
+		try{
+			database = aContext.openOrCreateDatabase(aDbName, Context.MODE_PRIVATE, null);
+			database.enableWriteAheadLogging();
+		}
+		catch(SQLiteException e){
+			throw new DataAccessException("Error: unable to open "+aDbName+". "+e.getLocalizedMessage());
+		}
+	}
+
+	/*
+	 * A statement whose text shows it can not return rows is compiled once and executed.  Any other statement is opened as a 
+	 * cursor, which compiles it without running it, and whether it returns rows is learned from the cursor's number of 
+	 * columns.  Only one of those that turns out to return none, such as a PRAGMA that sets a value, is compiled again.
+	 */
+	public DataAccessResult transact(String sql, Object[] parameters) throws DataAccessException {
+		try{
+			if(SQLTables.mayReturnRows(sql)){
+				Cursor resultCursor = openCursor(sql, parameters);
+				try{
+					if(resultCursor.getColumnCount() > 0){
+						StorageResults.RowCollector collector = new StorageResults.RowCollector();
+						CursorRow aRow = new CursorRow(resultCursor);
+						while(resultCursor.moveToNext()){
+							collector.handleRow(aRow);
+						}
+						return collector.getResult();
+					}
+				}
+				finally{
+					resultCursor.close();
+				}
+			}
+			SQLiteStatement aStatement = database.compileStatement(sql);
+			try{
+				if(parameters != null){
+					bind(aStatement, parameters);
+				}
+				aStatement.execute();
+			}
+			finally{
+				aStatement.close();
+			}
+			return StorageResults.success(new String[0], new ArrayList<ArrayList<String>>());
+		}
+		catch(SQLiteException e){
+			return StorageResults.failure(e.getLocalizedMessage());
+		}
+	}
+
+	public void query(String sql, Object[] parameters, QueryRowHandler handler) throws DataAccessException {
+		Cursor resultCursor = null;
+		try{
+			resultCursor = openCursor(sql, parameters);
+			CursorRow aRow = new CursorRow(resultCursor);
+			boolean wantsMore = true;
+			while(wantsMore && resultCursor.moveToNext()){
+				wantsMore = handler.handleRow(aRow);
+			}
+		}
+		catch(SQLiteException e){
+			throw new DataAccessException("Error: unable to run query. "+e.getLocalizedMessage());
+		}
+		finally{
+			if(resultCursor != null){
+				resultCursor.close();
+			}
+		}
+	}
+
+	/*
+	 * rawQuery binds every parameter as a String.  Binding them in the cursor factory instead keeps their SQLite types.
+	 */
+	private Cursor openCursor(String sql, final Object[] parameters){
+		return database.rawQueryWithFactory(new SQLiteDatabase.CursorFactory(){
+			public Cursor newCursor(SQLiteDatabase aDatabase, SQLiteCursorDriver aDriver, String editTable, SQLiteQuery aQuery) {
+				if(parameters != null){
+					bind(aQuery, parameters);
+				}
+				return new SQLiteCursor(aDriver, editTable, aQuery);
+			}
+		}, sql, null, null);
+	}
+
+	public SyncStatement compile(String sql) throws DataAccessException {
+		try{
+			final SQLiteStatement aStatement = database.compileStatement(sql);
+			return new SyncStatement(){
+				public void execute(Object[] parameters) throws DataAccessException {
+					try{
+						aStatement.clearBindings();
+						if(parameters != null){
+							bind(aStatement, parameters);
+						}
+						aStatement.execute();
+					}
+					catch(SQLiteException e){
+						throw new DataAccessException(e.getLocalizedMessage());
+					}
+				}
+
+				public void close() {
+					aStatement.close();
+				}
+			};
+		}
+		catch(SQLiteException e){
+			throw new DataAccessException(e.getLocalizedMessage());
+		}
+	}
+
+	public void startTransaction() throws DataAccessException {
+		try{
+			database.beginTransaction();
+		}
+		catch(SQLiteException e){
+			throw new DataAccessException("Error: unable to start transaction. "+e.getLocalizedMessage());
+		}
+	}
+
+	//Android rolls back the outermost transaction if any nested transaction ends without being marked successful
+	public void endTransaction(boolean commit) throws DataAccessException {
+		try{
+			if(commit){
+				database.setTransactionSuccessful();
+			}
+			database.endTransaction();
+		}
+		catch(SQLiteException e){
+			throw new DataAccessException("Error: unable to end transaction. "+e.getLocalizedMessage());
+		}
+	}
+
+	public void close() {
+		database.close();
+	}
+
+	/*
+	 * Binds each parameter to its 1 based place holder using the SQLite type matching its Java type.
+	 */
+	static void bind(SQLiteProgram aProgram, Object[] parameters){
+		for(int i = 0; i < parameters.length; i++){
+			Object aParameter = parameters[i];
+			int index = i + 1;
+			if(aParameter == null){
+				aProgram.bindNull(index);
+			}
+			else if(aParameter instanceof Double || aParameter instanceof Float){
+				aProgram.bindDouble(index, ((Number)aParameter).doubleValue());
+			}
+			else if(aParameter instanceof Number){
+				aProgram.bindLong(index, ((Number)aParameter).longValue());
+			}
+			else if(aParameter instanceof Boolean){
+				aProgram.bindLong(index, ((Boolean)aParameter).booleanValue() ? 1 : 0);
+			}
+			else if(aParameter instanceof byte[]){
+				aProgram.bindBlob(index, (byte[])aParameter);
+			}
+			else{
+				aProgram.bindString(index, aParameter.toString());
+			}
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package org.quickconnectfamily.sync;
+
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ * Builds the SQLite triggers that record the changes made to a synced table directly in sync_values.  Each row a
+ * trigger stores looks like one stored by setData: the key of a registered statement and a JSON array, built by SQLite's
+ * json_array function, of the column values to bind to it.  No Java code runs for a captured write.
+ *
+ * The triggers do nothing while sync_capture_suppressed has a row.  SyncApplier adds one for the length of the
+ * transaction that applies the service's data so the service's own changes are not sent back to it.
+ *
+ * A change a trigger records must not also be stored by setData.  Each captured change is identified by a key made of the
+ * table and the operation, and setData compares it with the key of the change its statement makes.
+ */
+class ChangeCapture {
+	static final String SUPPRESSED_TABLE = "CREATE TABLE IF NOT EXISTS sync_capture_suppressed(id INTEGER PRIMARY KEY)";
+	static final String SUPPRESS = "INSERT OR REPLACE INTO sync_capture_suppressed VALUES(1)";
+	static final String RESUME = "DELETE FROM sync_capture_suppressed";
+	//the table and name of every trigger that may have been created by createTrigger
+	static final String TRIGGERS = "SELECT tbl_name, name FROM sqlite_master WHERE type = 'trigger' AND name LIKE 'sync_capture_%'";
+	private static final int[] OPERATIONS = {SynchronizedDB.OPERATION_INSERT, SynchronizedDB.OPERATION_UPDATE, SynchronizedDB.OPERATION_DELETE};
+	private static final Pattern CHANGE = Pattern.compile("^\\s*(INSERT|REPLACE|UPDATE|DELETE)\\b(?:\\s+OR\\s+\\w+)?\\s+(?:INTO\\s+|FROM\\s+)?"
+			+"((?:[`\"\\[]?\\w+[`\"\\]]?\\.)?[`\"\\[]?\\w+[`\"\\]]?)", Pattern.CASE_INSENSITIVE);
+
+	/*
+	 * Returns the SQL creating the trigger that records the operation on the table.  Inserted and updated rows record
+	 * the new column values, deleted rows the old ones.
+	 */
+	static String createTrigger(String table, int operation, String sqlKey, String[] columns){
+		String rowName = operation == SynchronizedDB.OPERATION_DELETE ? "OLD." : "NEW.";
+		StringBuilder sql = new StringBuilder("CREATE TRIGGER ");
+		sql.append(quoteName(triggerName(table, operation)));
+		sql.append(" AFTER ").append(operationName(operation)).append(" ON ").append(quoteName(table));
+		sql.append(" WHEN NOT EXISTS (SELECT 1 FROM sync_capture_suppressed) BEGIN INSERT INTO sync_values (sql_key, sql_params) VALUES(");
+		sql.append(quoteLiteral(sqlKey)).append(", json_array(");
+		for(int i = 0; i < columns.length; i++){
+			if(i > 0){
+				sql.append(", ");
+			}
+			sql.append(rowName).append(quoteName(columns[i]));
+		}
+		sql.append(")); END");
+		return sql.toString();
+	}
+
+	static String dropTrigger(String table, int operation){
+		return "DROP TRIGGER IF EXISTS "+quoteName(triggerName(table, operation));
+	}
+
+	static String changeKey(String table, int operation){
+		return SQLTables.normalize(table)+" "+operation;
+	}
+
+	/*
+	 * Returns the change key of a trigger found by the TRIGGERS query, or null if createTrigger did not name it.
+	 */
+	static String triggerChangeKey(String table, String name){
+		for(int anOperation : OPERATIONS){
+			if(name.equalsIgnoreCase(triggerName(table, anOperation))){
+				return changeKey(table, anOperation);
+			}
+		}
+		return null;
+	}
+
+	/*
+	 * Returns the change key of the INSERT, REPLACE, UPDATE, or DELETE a statement makes, or null if it is some other statement.
+	 */
+	static String statementChangeKey(String sql){
+		Matcher aMatcher = CHANGE.matcher(sql);
+		if(!aMatcher.find()){
+			return null;
+		}
+		String verb = aMatcher.group(1).toUpperCase(Locale.US);
+		int operation = verb.equals("UPDATE") ? SynchronizedDB.OPERATION_UPDATE 
+				: verb.equals("DELETE") ? SynchronizedDB.OPERATION_DELETE : SynchronizedDB.OPERATION_INSERT;
+		return changeKey(aMatcher.group(2), operation);
+	}
+
+	private static String triggerName(String table, int operation){
+		return "sync_capture_"+table+"_"+operationName(operation).toLowerCase(Locale.US);
+	}
+
+	private static String operationName(int operation){
+		switch(operation){
+		case SynchronizedDB.OPERATION_INSERT: return "INSERT";
+		case SynchronizedDB.OPERATION_UPDATE: return "UPDATE";
+		case SynchronizedDB.OPERATION_DELETE: return "DELETE";
+		default: throw new IllegalArgumentException("Unknown operation: "+operation);
+		}
+	}
+
+	private static String quoteName(String name){
+		return "\""+name.replace("\"", "\"\"")+"\"";
+	}
+
+	private static String quoteLiteral(String value){
+		return "'"+value.replace("'", "''")+"'";
+	}
+}
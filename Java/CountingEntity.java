@@ -0,0 +1,36 @@
+package org.quickconnectfamily.sync;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+
+/*
+ * Reports the number of bytes written by the entity it wraps each time it is written to the connection.
+ */
+class CountingEntity extends HttpEntityWrapper {
+	private SyncMetrics metrics;
+
+	CountingEntity(HttpEntity wrapped, SyncMetrics metrics){
+		super(wrapped);
+		this.metrics = metrics;
+	}
+
+	public void writeTo(OutputStream outstream) throws IOException {
+		final long[] written = new long[1];
+		wrappedEntity.writeTo(new FilterOutputStream(outstream){
+			public void write(int aByte) throws IOException {
+				out.write(aByte);
+				written[0]++;
+			}
+
+			public void write(byte[] bytes, int offset, int length) throws IOException {
+				out.write(bytes, offset, length);
+				written[0] += length;
+			}
+		});
+		metrics.bytesSent(written[0]);
+	}
+}
@@ -0,0 +1,53 @@
+package org.quickconnectfamily.sync;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/*
+ * Reports the number of bytes read from a response body when the body is closed.
+ */
+class CountingInputStream extends FilterInputStream {
+	private SyncMetrics metrics;
+	private long bytesRead;
+	private boolean reported;
+
+	CountingInputStream(InputStream in, SyncMetrics metrics){
+		super(in);
+		this.metrics = metrics;
+	}
+
+	public int read() throws IOException {
+		int aByte = in.read();
+		if(aByte >= 0){
+			bytesRead++;
+		}
+		return aByte;
+	}
+
+	public int read(byte[] bytes, int offset, int length) throws IOException {
+		int count = in.read(bytes, offset, length);
+		if(count > 0){
+			bytesRead += count;
+		}
+		return count;
+	}
+
+	public long skip(long count) throws IOException {
+		long skipped = in.skip(count);
+		bytesRead += skipped;
+		return skipped;
+	}
+
+	public void close() throws IOException {
+		try{
+			in.close();
+		}
+		finally{
+			if(!reported){
+				reported = true;
+				metrics.bytesReceived(bytesRead);
+			}
+		}
+	}
+}
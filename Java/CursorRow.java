@@ -0,0 +1,56 @@
+package org.quickconnectfamily.sync;
+
+import org.quickconnectfamily.dbaccess.DataAccessException;
+
+import android.database.Cursor;
+
+/*
+ * The QueryRow passed to query handlers by AndroidSyncStorage.  It reads the values of the cursor's current row.
+ */
+class CursorRow implements QueryRow {
+	private Cursor aCursor;
+
+	CursorRow(Cursor aCursor){
+		this.aCursor = aCursor;
+	}
+
+	public int getColumnCount() {
+		return aCursor.getColumnCount();
+	}
+
+	public String getColumnName(int columnIndex) {
+		return aCursor.getColumnName(columnIndex);
+	}
+
+	public int getColumnIndex(String columnName) throws DataAccessException {
+		int columnIndex = aCursor.getColumnIndex(columnName);
+		if(columnIndex < 0){
+			throw new DataAccessException("No such column: "+columnName);
+		}
+		return columnIndex;
+	}
+
+	public boolean isNull(int columnIndex) {
+		return aCursor.isNull(columnIndex);
+	}
+
+	public boolean isBlob(int columnIndex) {
+		return aCursor.getType(columnIndex) == Cursor.FIELD_TYPE_BLOB;
+	}
+
+	public long getLong(int columnIndex) {
+		return aCursor.getLong(columnIndex);
+	}
+
+	public double getDouble(int columnIndex) {
+		return aCursor.getDouble(columnIndex);
+	}
+
+	public String getString(int columnIndex) {
+		return aCursor.getString(columnIndex);
+	}
+
+	public byte[] getBlob(int columnIndex) {
+		return aCursor.getBlob(columnIndex);
+	}
+}
@@ -0,0 +1,54 @@
+package org.quickconnectfamily.sync;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.protocol.HTTP;
+
+/*
+ * Encrypts another entity, which may already be compressed, as it is written to the connection.  See PayloadEncryption.
+ * The encrypted length is not known until the entity has been written so it is always sent chunked.  The request must name
+ * the command of its binding in its URL's query string so the service can check the binding before decrypting the body.
+ */
+class EncryptedRequestEntity extends HttpEntityWrapper {
+	private PayloadEncryption.Binding binding;
+
+	EncryptedRequestEntity(HttpEntity wrapped, PayloadEncryption.Binding binding){
+		super(wrapped);
+		this.binding = binding;
+	}
+
+	public Header getContentEncoding() {
+		Header wrappedEncoding = wrappedEntity.getContentEncoding();
+		return new BasicHeader(HTTP.CONTENT_ENCODING, PayloadEncryption.outerCodings(wrappedEncoding == null ? null : wrappedEncoding.getValue()));
+	}
+
+	public long getContentLength() {
+		return -1;
+	}
+
+	public boolean isChunked() {
+		return true;
+	}
+
+	public InputStream getContent() throws IOException {
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		writeTo(content);
+		return new ByteArrayInputStream(content.toByteArray());
+	}
+
+	public void writeTo(OutputStream outstream) throws IOException {
+		PayloadEncryption.EncryptingOutputStream encrypter = new PayloadEncryption.EncryptingOutputStream(outstream, binding);
+		wrappedEntity.writeTo(encrypter);
+		//finish rather than close so the connection is left open
+		encrypter.finish();
+		outstream.flush();
+	}
+}
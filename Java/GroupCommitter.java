@@ -0,0 +1,103 @@
+package org.quickconnectfamily.sync;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.quickconnectfamily.dbaccess.DataAccessException;
+import org.quickconnectfamily.dbaccess.DataAccessResult;
+
+/*
+ * Queues the writes made by SynchronizedDB.setDataAsync and hands them to the database in groups from a single
+ * background thread.  A group is started by the first queued write and closed when the flush window has passed
+ * or the group is full, whichever comes first.
+ */
+class GroupCommitter implements Runnable {
+	//queued by shutDown after the last write so the committer thread wakes without being interrupted
+	private static final PendingWrite SHUT_DOWN = new PendingWrite(null, null);
+	private LinkedBlockingQueue<PendingWrite> pending = new LinkedBlockingQueue<PendingWrite>();
+	private SynchronizedDB theDB;
+	private long flushWindowMillis;
+	private int maxBatchSize;
+	private Thread committerThread;
+	private volatile boolean running = true;
+
+	GroupCommitter(SynchronizedDB theDB, long flushWindowMillis, int maxBatchSize){
+		this.theDB = theDB;
+		this.flushWindowMillis = flushWindowMillis;
+		this.maxBatchSize = maxBatchSize;
+		committerThread = new Thread(this, "SynchronizedDB group commit");
+		committerThread.setDaemon(true);
+		committerThread.start();
+	}
+
+	synchronized CompletableFuture<DataAccessResult> submit(String sqlKey, Object[] parameters){
+		PendingWrite aWrite = new PendingWrite(sqlKey, parameters == null ? null : parameters.clone());
+		if(!running){
+			aWrite.result.completeExceptionally(new DataAccessException("Error: group commit has been shut down."));
+		}
+		else{
+			pending.add(aWrite);
+		}
+		return aWrite.result;
+	}
+
+	/*
+	 * Stops accepting writes, commits any that are already queued, and waits for the committer thread to finish.
+	 */
+	void shutDown() throws InterruptedException{
+		synchronized(this){
+			if(running){
+				running = false;
+				//no write can be queued after this one
+				pending.add(SHUT_DOWN);
+			}
+		}
+		committerThread.join();
+	}
+
+	public void run() {
+		boolean shuttingDown = false;
+		while(!shuttingDown){
+			ArrayList<PendingWrite> group = new ArrayList<PendingWrite>();
+			try{
+				PendingWrite next = pending.take();
+				long flushTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushWindowMillis);
+				while(true){
+					if(next == SHUT_DOWN){
+						//the group is committed at once rather than at the end of the flush window
+						shuttingDown = true;
+						break;
+					}
+					group.add(next);
+					if(group.size() >= maxBatchSize){
+						break;
+					}
+					long remaining = flushTime - System.nanoTime();
+					next = remaining > 0 ? pending.poll(remaining, TimeUnit.NANOSECONDS) : pending.poll();
+					if(next == null){
+						break;
+					}
+				}
+			}
+			catch(InterruptedException e){
+				//only code outside the SynchronizedDB interrupts this thread.  The writes already taken are still committed.
+			}
+			if(group.size() > 0){
+				theDB.commitGroup(group);
+			}
+		}
+	}
+
+	static class PendingWrite{
+		String sqlKey;
+		Object[] parameters;
+		CompletableFuture<DataAccessResult> result = new CompletableFuture<DataAccessResult>();
+
+		PendingWrite(String sqlKey, Object[] parameters){
+			this.sqlKey = sqlKey;
+			this.parameters = parameters;
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package org.quickconnectfamily.sync;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.protocol.HTTP;
+
+/*
+ * Gzips another entity as it is written to the connection.  The compressed length is not known until the
+ * entity has been written so it is always sent chunked.
+ */
+class GzipRequestEntity extends HttpEntityWrapper {
+	private static final int BUFFER_SIZE = 8192;
+
+	GzipRequestEntity(HttpEntity wrapped){
+		super(wrapped);
+	}
+
+	public Header getContentEncoding() {
+		return new BasicHeader(HTTP.CONTENT_ENCODING, "gzip");
+	}
+
+	public long getContentLength() {
+		return -1;
+	}
+
+	public boolean isChunked() {
+		return true;
+	}
+
+	public InputStream getContent() throws IOException {
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		writeTo(content);
+		return new ByteArrayInputStream(content.toByteArray());
+	}
+
+	public void writeTo(OutputStream outstream) throws IOException {
+		GZIPOutputStream gzip = new GZIPOutputStream(outstream, BUFFER_SIZE);
+		wrappedEntity.writeTo(gzip);
+		//finish rather than close so the connection is left open
+		gzip.finish();
+		outstream.flush();
+	}
+}
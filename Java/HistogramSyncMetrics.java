@@ -0,0 +1,131 @@
+package org.quickconnectfamily.sync;
+
+import java.util.EnumMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A SyncMetrics that keeps its measurements in memory as LatencyHistograms and running totals.  The values may be read 
+ * at any time, for example to report them or to alert on slow syncs, without ever logging the data being synchronized.
+ * 
+ * @author Lee S. Barney
+ *
+ */
+public class HistogramSyncMetrics implements SyncMetrics {
+	private EnumMap<SyncPhase,LatencyHistogram> phaseHistograms = new EnumMap<SyncPhase,LatencyHistogram>(SyncPhase.class);
+	private LatencyHistogram syncHistogram = new LatencyHistogram();
+	private LatencyHistogram setDataHistogram = new LatencyHistogram();
+	private LatencyHistogram exclusiveLockHistogram = new LatencyHistogram();
+	private LatencyHistogram sharedLockHistogram = new LatencyHistogram();
+	private AtomicLong failedSyncs = new AtomicLong();
+	private AtomicLong bytesSent = new AtomicLong();
+	private AtomicLong bytesReceived = new AtomicLong();
+	private AtomicLong rowsUploaded = new AtomicLong();
+	private AtomicLong rowsApplied = new AtomicLong();
+
+	public HistogramSyncMetrics(){
+		//every phase has a histogram before any thread can record one so the map is never changed afterward
+		for(SyncPhase aPhase : SyncPhase.values()){
+			phaseHistograms.put(aPhase, new LatencyHistogram());
+		}
+	}
+
+	public void phaseCompleted(SyncPhase phase, long nanos) {
+		phaseHistograms.get(phase).record(nanos);
+	}
+
+	public void syncCompleted(long nanos, boolean succeeded) {
+		syncHistogram.record(nanos);
+		if(!succeeded){
+			failedSyncs.incrementAndGet();
+		}
+	}
+
+	public void bytesSent(long bytes) {
+		bytesSent.addAndGet(bytes);
+	}
+
+	public void bytesReceived(long bytes) {
+		bytesReceived.addAndGet(bytes);
+	}
+
+	public void rowsUploaded(int rows) {
+		rowsUploaded.addAndGet(rows);
+	}
+
+	public void rowsApplied(int rows) {
+		rowsApplied.addAndGet(rows);
+	}
+
+	public void lockWaited(long nanos, boolean exclusive) {
+		(exclusive ? exclusiveLockHistogram : sharedLockHistogram).record(nanos);
+	}
+
+	public void setDataCompleted(long nanos) {
+		setDataHistogram.record(nanos);
+	}
+
+	/**
+	 * @param phase - a phase of a sync.
+	 * @return the durations of the phase.
+	 */
+	public LatencyHistogram getPhaseHistogram(SyncPhase phase){
+		return phaseHistograms.get(phase);
+	}
+
+	/**
+	 * @return the durations of whole syncs, including those that failed.
+	 */
+	public LatencyHistogram getSyncHistogram(){
+		return syncHistogram;
+	}
+
+	/**
+	 * @return the durations of setData calls.
+	 */
+	public LatencyHistogram getSetDataHistogram(){
+		return setDataHistogram;
+	}
+
+	/**
+	 * @param exclusive - true for the waits for the lock held while setting data, false for the waits for the lock shared by getData calls.
+	 * @return the times spent waiting for the lock.
+	 */
+	public LatencyHistogram getLockWaitHistogram(boolean exclusive){
+		return exclusive ? exclusiveLockHistogram : sharedLockHistogram;
+	}
+
+	/**
+	 * @return the number of syncs that threw an exception.
+	 */
+	public long getFailedSyncCount(){
+		return failedSyncs.get();
+	}
+
+	/**
+	 * @return the number of request body bytes sent after any compression.
+	 */
+	public long getBytesSent(){
+		return bytesSent.get();
+	}
+
+	/**
+	 * @return the number of response body bytes received before any decompression.
+	 */
+	public long getBytesReceived(){
+		return bytesReceived.get();
+	}
+
+	/**
+	 * @return the number of stored setData values sent to the service.
+	 */
+	public long getRowsUploaded(){
+		return rowsUploaded.get();
+	}
+
+	/**
+	 * @return the number of statements sent by the service that were executed.
+	 */
+	public long getRowsApplied(){
+		return rowsApplied.get();
+	}
+}
@@ -0,0 +1,295 @@
+package org.quickconnectfamily.sync;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.quickconnectfamily.json.JSONException;
+
+/*
+ * Applies a sync response in three overlapping stages.  A scanner thread reads the response and cuts the text of each
+ * item's values out of it without converting them.  Decoder threads convert the values, check that the item's key is
+ * registered, and build the parameter array that will be bound.  The thread that holds the transaction is the only writer.  It
+ * takes the decoded items from a bounded queue, in the order the service sent them, and executes them.  The queue keeps
+ * a slow writer from letting an entire response pile up in memory.
+ *
+ * Decoder threads are shared by every sync of the database and stop when they have been idle for a while, or for good once
+ * the pipeline has been shut down and its last Run has finished.
+ */
+class InboundPipeline {
+	private static final long DECODER_KEEP_ALIVE_SECONDS = 30;
+
+	private ThreadPoolExecutor decoders;
+	private int queueCapacity;
+	private int activeRuns;
+	private boolean shutDown;
+
+	InboundPipeline(int decodeThreads, int queueCapacity){
+		if(decodeThreads < 1){
+			throw new IllegalArgumentException("decodeThreads must be at least 1: "+decodeThreads);
+		}
+		if(queueCapacity < 1){
+			throw new IllegalArgumentException("queueCapacity must be at least 1: "+queueCapacity);
+		}
+		this.queueCapacity = queueCapacity;
+		decoders = new ThreadPoolExecutor(decodeThreads, decodeThreads, DECODER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory(){
+			public Thread newThread(Runnable aRunnable) {
+				Thread decodeThread = new Thread(aRunnable, "SynchronizedDB decode");
+				decodeThread.setDaemon(true);
+				return decodeThread;
+			}
+		});
+		decoders.allowCoreThreadTimeOut(true);
+	}
+
+	/*
+	 * Starts scanning and decoding a response.  The caller owns the reader and closes it after finishing the Run.
+	 */
+	Run start(SyncJSONReader responseReader, Map<String,String> registeredSQLStatements){
+		Run aRun = new Run(responseReader, registeredSQLStatements);
+		synchronized(this){
+			activeRuns++;
+		}
+		aRun.scanner.start();
+		return aRun;
+	}
+
+	/*
+	 * Stops the decoder threads.  A sync already using the pipeline keeps them until its Run finishes, so replacing the
+	 * pipeline or cleaning up the database does not fail a sync in progress.
+	 */
+	synchronized void shutDown(){
+		shutDown = true;
+		if(activeRuns == 0){
+			decoders.shutdown();
+		}
+	}
+
+	private synchronized void runFinished(){
+		activeRuns--;
+		if(shutDown && activeRuns == 0){
+			decoders.shutdown();
+		}
+	}
+
+	/*
+	 * A decoded item ready to be executed, or the last item of a response holding the sync checkpoint.
+	 */
+	static class DecodedItem {
+		String sqlKey;
+		Object[] parameters;
+		boolean last;
+		String lastSyncTime;
+		String pullToken;
+		long acknowledged = -1;
+	}
+
+	/*
+	 * One response moving through the pipeline.
+	 */
+	class Run {
+		private SyncJSONReader responseReader;
+		private Map<String,String> registeredSQLStatements;
+		private ArrayBlockingQueue<Future<DecodedItem>> decodedItems = new ArrayBlockingQueue<Future<DecodedItem>>(queueCapacity);
+		private Thread scanner;
+		private volatile boolean cancelled;
+
+		private Run(SyncJSONReader responseReader, Map<String,String> registeredSQLStatements){
+			this.responseReader = responseReader;
+			this.registeredSQLStatements = registeredSQLStatements;
+			scanner = new Thread(new Runnable(){
+				public void run() {
+					scan();
+				}
+			}, "SynchronizedDB scan");
+			scanner.setDaemon(true);
+		}
+
+		/*
+		 * Executes every item of the response, then stores its checkpoint.  Called by the thread holding the transaction.
+		 * Returns the id of the last value the service acknowledged storing, or -1 if it did not acknowledge any.
+		 */
+		long applyTo(SyncApplier applier) throws IOException, JSONException, QCSynchronizationException, InterruptedException{
+			while(true){
+				DecodedItem anItem;
+				try{
+					anItem = decodedItems.take().get();
+				}
+				catch(ExecutionException e){
+					throw rethrow(e.getCause());
+				}
+				if(anItem.last){
+					applier.applyCheckpoint(anItem.lastSyncTime, anItem.pullToken);
+					return anItem.acknowledged;
+				}
+				applier.apply(anItem.sqlKey, anItem.parameters);
+			}
+		}
+
+		/*
+		 * Stops the scanner if it is still running and waits for it so the response can be closed safely.  Items still
+		 * being decoded are discarded.  An interrupt does not wake a scanner blocked reading from a socket, so if the 
+		 * response has not been read to its end the caller must abort its connection first.
+		 */
+		void finish() throws InterruptedException{
+			cancelled = true;
+			scanner.interrupt();
+			decodedItems.clear();
+			try{
+				scanner.join();
+			}
+			finally{
+				Future<DecodedItem> anItem = null;
+				while((anItem = decodedItems.poll()) != null){
+					anItem.cancel(false);
+				}
+				runFinished();
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private void scan(){
+			try{
+				responseReader.beginArray();
+				SynchronizedDB.checkSyncResult((HashMap<String,Object>)responseReader.nextValue());
+				DecodedItem checkpoint = new DecodedItem();
+				checkpoint.last = true;
+				responseReader.beginObject();
+				while(responseReader.hasNext()){
+					String aName = responseReader.nextName();
+					if(aName.equals("sync_time")){
+						checkpoint.lastSyncTime = responseReader.nextString();
+					}
+					else if(aName.equals("sync_continuation")){
+						checkpoint.pullToken = (String)responseReader.nextValue();
+					}
+					else if(aName.equals("sync_ack")){
+						checkpoint.acknowledged = SynchronizedDB.acknowledgedId(responseReader.nextValue());
+					}
+					else if(aName.equals("sync_data")){
+						responseReader.beginArray();
+						while(responseReader.hasNext()){
+							String sqlKey = null;
+							String rawParameters = null;
+							responseReader.beginObject();
+							while(responseReader.hasNext()){
+								String aField = responseReader.nextName();
+								if(aField.equals("key")){
+									sqlKey = responseReader.nextString();
+								}
+								else if(aField.equals("syncInfo")){
+									rawParameters = responseReader.nextRawValue();
+								}
+								else{
+									responseReader.skipValue();
+								}
+							}
+							responseReader.endObject();
+							enqueue(decoders.submit(decodeTask(sqlKey, rawParameters)));
+						}
+						responseReader.endArray();
+					}
+					else{
+						responseReader.skipValue();
+					}
+				}
+				responseReader.endObject();
+				enqueue(completed(checkpoint, null));
+			}
+			catch(InterruptedException e){
+				//finish was called
+			}
+			catch(Throwable t){
+				if(!cancelled){
+					try{
+						enqueue(completed(null, t));
+					}
+					catch(InterruptedException e){
+						//finish was called
+					}
+				}
+			}
+		}
+
+		private void enqueue(Future<DecodedItem> anItem) throws InterruptedException{
+			if(cancelled){
+				throw new InterruptedException();
+			}
+			decodedItems.put(anItem);
+		}
+
+		private Callable<DecodedItem> decodeTask(final String sqlKey, final String rawParameters){
+			return new Callable<DecodedItem>(){
+				@SuppressWarnings("unchecked")
+				public DecodedItem call() throws Exception {
+					if(!registeredSQLStatements.containsKey(sqlKey)){
+						throw new QCSynchronizationException("No such key: "+sqlKey);
+					}
+					DecodedItem anItem = new DecodedItem();
+					anItem.sqlKey = sqlKey;
+					if(rawParameters != null){
+						Object parameters = new SyncJSONReader(new StringReader(rawParameters)).nextValue();
+						if(parameters != null){
+							if(!(parameters instanceof List)){
+								throw new JSONException("syncInfo for key "+sqlKey+" is not an array");
+							}
+							anItem.parameters = ((List<Object>)parameters).toArray();
+						}
+					}
+					return anItem;
+				}
+			};
+		}
+	}
+
+	/*
+	 * Returns a future that has already completed with the item, or failed with the throwable if it is not null.
+	 */
+	private static Future<DecodedItem> completed(final DecodedItem anItem, final Throwable failure){
+		FutureTask<DecodedItem> aFuture = new FutureTask<DecodedItem>(new Callable<DecodedItem>(){
+			public DecodedItem call() throws Exception {
+				if(failure instanceof Exception){
+					throw (Exception)failure;
+				}
+				else if(failure != null){
+					throw (Error)failure;
+				}
+				return anItem;
+			}
+		});
+		aFuture.run();
+		return aFuture;
+	}
+
+	private static IOException rethrow(Throwable failure) throws IOException, JSONException, QCSynchronizationException{
+		if(failure instanceof IOException){
+			throw (IOException)failure;
+		}
+		else if(failure instanceof JSONException){
+			throw (JSONException)failure;
+		}
+		else if(failure instanceof QCSynchronizationException){
+			throw (QCSynchronizationException)failure;
+		}
+		else if(failure instanceof RuntimeException){
+			throw (RuntimeException)failure;
+		}
+		else if(failure instanceof Error){
+			throw (Error)failure;
+		}
+		throw new QCSynchronizationException(failure.toString());
+	}
+}
@@ -0,0 +1,105 @@
+package org.quickconnectfamily.sync;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+import org.quickconnectfamily.dbaccess.DataAccessException;
+
+/*
+ * The QueryRow passed to query handlers by JDBCSyncStorage.  It reads the values of the result set's current row.  
+ * JDBC numbers columns from 1 so each index is shifted.  QueryRow methods do not throw SQLExceptions so they are 
+ * reported as IllegalStateExceptions, which JDBCSyncStorage turns back into DataAccessExceptions.
+ */
+class JDBCRow implements QueryRow {
+	private ResultSet results;
+	private ResultSetMetaData metaData;
+
+	JDBCRow(ResultSet results) throws SQLException{
+		this.results = results;
+		this.metaData = results.getMetaData();
+	}
+
+	public int getColumnCount() {
+		try{
+			return metaData.getColumnCount();
+		}
+		catch(SQLException e){
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public String getColumnName(int columnIndex) {
+		try{
+			return metaData.getColumnLabel(columnIndex + 1);
+		}
+		catch(SQLException e){
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public int getColumnIndex(String columnName) throws DataAccessException {
+		int columnCount = getColumnCount();
+		for(int i = 0; i < columnCount; i++){
+			if(getColumnName(i).equalsIgnoreCase(columnName)){
+				return i;
+			}
+		}
+		throw new DataAccessException("No such column: "+columnName);
+	}
+
+	public boolean isNull(int columnIndex) {
+		try{
+			return results.getObject(columnIndex + 1) == null;
+		}
+		catch(SQLException e){
+			throw new IllegalStateException(e);
+		}
+	}
+
+	//SQLite columns may hold a value of any type so the type of the value is checked rather than the declared type of the column
+	public boolean isBlob(int columnIndex) {
+		try{
+			return results.getObject(columnIndex + 1) instanceof byte[];
+		}
+		catch(SQLException e){
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public long getLong(int columnIndex) {
+		try{
+			return results.getLong(columnIndex + 1);
+		}
+		catch(SQLException e){
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public double getDouble(int columnIndex) {
+		try{
+			return results.getDouble(columnIndex + 1);
+		}
+		catch(SQLException e){
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public String getString(int columnIndex) {
+		try{
+			return results.getString(columnIndex + 1);
+		}
+		catch(SQLException e){
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public byte[] getBlob(int columnIndex) {
+		try{
+			return results.getBytes(columnIndex + 1);
+		}
+		catch(SQLException e){
+			throw new IllegalStateException(e);
+		}
+	}
+}
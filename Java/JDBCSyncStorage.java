@@ -0,0 +1,443 @@
+package org.quickconnectfamily.sync;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.quickconnectfamily.dbaccess.DataAccessException;
+import org.quickconnectfamily.dbaccess.DataAccessResult;
+
+/**
+ * Stores the data of a SynchronizedDB in an SQLite file using a JDBC driver, such as the Xerial sqlite-jdbc driver, 
+ * so a SynchronizedDB can be used outside of Android.  The driver must be on the class path.
+ * <br/>
+ * Every connection is opened in write ahead logging mode.  Statements that change data and transactions use a single 
+ * writer connection, one thread at a time.  Queries use a pool of query only reader connections so they run concurrently 
+ * with each other and with an open transaction.  A query run by the thread that has a transaction open uses the writer 
+ * connection so it sees the transaction's changes.  Each connection keeps its most recently used prepared statements so statements 
+ * that are executed repeatedly are only compiled once.
+ * <br/>
+ * Since each connection is opened separately the URL must name a file.  An in memory database would give each connection 
+ * a different, empty database.
+ * 
+ * @author Lee S. Barney
+ *
+ */
+public class JDBCSyncStorage implements SyncStorage {
+	//the number of milliseconds a connection waits for another to release the database before failing
+	private static final int BUSY_TIMEOUT_MILLIS = 5000;
+	//the result code of a statement that tried to change data on a query only connection
+	private static final int SQLITE_READONLY = 8;
+
+	private PooledConnection writer;
+	//held from the start to the end of a transaction and while any statement that changes data executes
+	private ReentrantLock writerLock = new ReentrantLock();
+	private int transactionDepth;
+	private boolean rollbackOnly;
+	private LinkedBlockingQueue<PooledConnection> readers = new LinkedBlockingQueue<PooledConnection>();
+	private ArrayList<PooledConnection> allReaders = new ArrayList<PooledConnection>();
+
+	/**
+	 * Opens the SQLite file and the connections used to access it.
+	 * @param jdbcURL - the JDBC URL of the SQLite file.  Example: jdbc:sqlite:/var/data/app.db
+	 * @param maxReadConnections - the number of connections used for queries.  Zero runs queries on the writer connection 
+	 * so they wait for any open transaction.
+	 * @param statementCacheSize - the largest number of prepared statements each connection keeps.  Zero turns caching off.
+	 * @throws DataAccessException if the file can not be opened.
+	 */
+	public JDBCSyncStorage(String jdbcURL, int maxReadConnections, int statementCacheSize) throws DataAccessException{
+		try{
+			writer = new PooledConnection(jdbcURL, statementCacheSize, false);
+			for(int i = 0; i < maxReadConnections; i++){
+				PooledConnection aReader = new PooledConnection(jdbcURL, statementCacheSize, true);
+				allReaders.add(aReader);
+				readers.add(aReader);
+			}
+		}
+		catch(SQLException e){
+			close();
+			throw new DataAccessException("Error: unable to open "+jdbcURL+". "+e.getLocalizedMessage());
+		}
+	}
+
+	/*
+	 * Outside of a transaction a statement whose text begins as a query is run on a reader, and every other statement goes 
+	 * straight to the writer.  Whether a statement returns rows is learned from the statement itself, never from its text.  
+	 * A query that turns out to change data, such as a WITH clause in front of an INSERT, fails on the reader before changing 
+	 * anything and is then run on the writer.
+	 */
+	public DataAccessResult transact(String sql, Object[] parameters) throws DataAccessException {
+		if(!writerLock.isHeldByCurrentThread() && !allReaders.isEmpty() && SQLTables.isQuery(sql)){
+			DataAccessResult aResult = transactOnReader(sql, parameters);
+			if(aResult != null){
+				return aResult;
+			}
+		}
+		writerLock.lock();
+		try{
+			return execute(writer, sql, parameters);
+		}
+		catch(SQLException e){
+			return StorageResults.failure(e.getLocalizedMessage());
+		}
+		finally{
+			writerLock.unlock();
+		}
+	}
+
+	/*
+	 * Returns the rows of a statement that only reads, or null if the statement must be run on the writer.
+	 */
+	private DataAccessResult transactOnReader(String sql, Object[] parameters) throws DataAccessException{
+		PooledConnection aReader = takeReader();
+		try{
+			PreparedStatement aStatement = aReader.prepare(sql);
+			boolean succeeded = false;
+			try{
+				bind(aStatement, parameters);
+				DataAccessResult aResult = aStatement.execute() ? collect(aStatement.getResultSet()) : null;
+				succeeded = true;
+				return aResult;
+			}
+			finally{
+				aReader.release(sql, aStatement, succeeded);
+			}
+		}
+		catch(SQLException e){
+			if((e.getErrorCode() & 0xff) == SQLITE_READONLY){
+				return null;
+			}
+			return StorageResults.failure(e.getLocalizedMessage());
+		}
+		finally{
+			readers.add(aReader);
+		}
+	}
+
+	/*
+	 * Runs the statement on the connection and collects its rows if it returns any.
+	 */
+	private static DataAccessResult execute(PooledConnection aConnection, String sql, Object[] parameters) throws SQLException{
+		PreparedStatement aStatement = aConnection.prepare(sql);
+		boolean succeeded = false;
+		try{
+			bind(aStatement, parameters);
+			DataAccessResult aResult = aStatement.execute() ? collect(aStatement.getResultSet()) 
+					: StorageResults.success(new String[0], new ArrayList<ArrayList<String>>());
+			succeeded = true;
+			return aResult;
+		}
+		finally{
+			aConnection.release(sql, aStatement, succeeded);
+		}
+	}
+
+	private static DataAccessResult collect(ResultSet results) throws SQLException{
+		try{
+			StorageResults.RowCollector collector = new StorageResults.RowCollector();
+			JDBCRow aRow = new JDBCRow(results);
+			while(results.next()){
+				collector.handleRow(aRow);
+			}
+			return collector.getResult();
+		}
+		catch(IllegalStateException e){
+			//the row's getters report SQLExceptions this way since QueryRow methods do not throw them
+			if(e.getCause() instanceof SQLException){
+				throw (SQLException)e.getCause();
+			}
+			throw e;
+		}
+		finally{
+			results.close();
+		}
+	}
+
+	public void query(String sql, Object[] parameters, QueryRowHandler handler) throws DataAccessException {
+		boolean usesWriter = writerLock.isHeldByCurrentThread() || allReaders.isEmpty();
+		PooledConnection aConnection = null;
+		if(usesWriter){
+			writerLock.lock();
+			aConnection = writer;
+		}
+		else{
+			aConnection = takeReader();
+		}
+		try{
+			PreparedStatement aStatement = aConnection.prepare(sql);
+			boolean succeeded = false;
+			try{
+				bind(aStatement, parameters);
+				ResultSet results = aStatement.executeQuery();
+				try{
+					JDBCRow aRow = new JDBCRow(results);
+					boolean wantsMore = true;
+					while(wantsMore && results.next()){
+						wantsMore = handler.handleRow(aRow);
+					}
+				}
+				finally{
+					results.close();
+				}
+				succeeded = true;
+			}
+			finally{
+				aConnection.release(sql, aStatement, succeeded);
+			}
+		}
+		catch(SQLException e){
+			throw new DataAccessException("Error: unable to run query. "+e.getLocalizedMessage());
+		}
+		catch(IllegalStateException e){
+			//the row's getters report SQLExceptions this way since QueryRow methods do not throw them
+			if(e.getCause() instanceof SQLException){
+				throw new DataAccessException("Error: unable to read query results. "+e.getCause().getLocalizedMessage());
+			}
+			throw e;
+		}
+		finally{
+			if(usesWriter){
+				writerLock.unlock();
+			}
+			else{
+				readers.add(aConnection);
+			}
+		}
+	}
+
+	private PooledConnection takeReader() throws DataAccessException{
+		try{
+			return readers.take();
+		}
+		catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new DataAccessException("Error: interrupted while waiting for a connection.");
+		}
+	}
+
+	/*
+	 * The statement is taken from the writer's cache each time it executes so it is never closed while another caller uses it.
+	 */
+	public SyncStatement compile(final String sql) throws DataAccessException {
+		writerLock.lock();
+		try{
+			writer.release(sql, writer.prepare(sql), true);
+		}
+		catch(SQLException e){
+			throw new DataAccessException(e.getLocalizedMessage());
+		}
+		finally{
+			writerLock.unlock();
+		}
+		return new SyncStatement(){
+			public void execute(Object[] parameters) throws DataAccessException {
+				writerLock.lock();
+				try{
+					PreparedStatement aStatement = writer.prepare(sql);
+					boolean succeeded = false;
+					try{
+						bind(aStatement, parameters);
+						aStatement.executeUpdate();
+						succeeded = true;
+					}
+					finally{
+						writer.release(sql, aStatement, succeeded);
+					}
+				}
+				catch(SQLException e){
+					throw new DataAccessException(e.getLocalizedMessage());
+				}
+				finally{
+					writerLock.unlock();
+				}
+			}
+
+			public void close() {
+			}
+		};
+	}
+
+	public void startTransaction() throws DataAccessException {
+		writerLock.lock();
+		if(transactionDepth == 0){
+			try{
+				writer.connection.setAutoCommit(false);
+			}
+			catch(SQLException e){
+				writerLock.unlock();
+				throw new DataAccessException("Error: unable to start transaction. "+e.getLocalizedMessage());
+			}
+			rollbackOnly = false;
+		}
+		transactionDepth++;
+	}
+
+	public void endTransaction(boolean commit) throws DataAccessException {
+		if(!writerLock.isHeldByCurrentThread() || transactionDepth == 0){
+			throw new DataAccessException("Error: endTransaction called without a matching startTransaction.");
+		}
+		try{
+			transactionDepth--;
+			if(!commit){
+				rollbackOnly = true;
+			}
+			if(transactionDepth == 0){
+				try{
+					if(rollbackOnly){
+						writer.connection.rollback();
+					}
+					else{
+						writer.connection.commit();
+					}
+				}
+				finally{
+					writer.connection.setAutoCommit(true);
+				}
+			}
+		}
+		catch(SQLException e){
+			throw new DataAccessException("Error: unable to end transaction. "+e.getLocalizedMessage());
+		}
+		finally{
+			writerLock.unlock();
+		}
+	}
+
+	public void close() {
+		if(writer != null){
+			writer.close();
+		}
+		for(PooledConnection aReader : allReaders){
+			aReader.close();
+		}
+	}
+
+	/*
+	 * Binds each parameter to its 1 based place holder using the SQLite type matching its Java type.
+	 */
+	static void bind(PreparedStatement aStatement, Object[] parameters) throws SQLException{
+		aStatement.clearParameters();
+		if(parameters == null){
+			return;
+		}
+		for(int i = 0; i < parameters.length; i++){
+			Object aParameter = parameters[i];
+			int index = i + 1;
+			if(aParameter == null){
+				aStatement.setObject(index, null);
+			}
+			else if(aParameter instanceof Double || aParameter instanceof Float){
+				aStatement.setDouble(index, ((Number)aParameter).doubleValue());
+			}
+			else if(aParameter instanceof Number){
+				aStatement.setLong(index, ((Number)aParameter).longValue());
+			}
+			else if(aParameter instanceof Boolean){
+				aStatement.setLong(index, ((Boolean)aParameter).booleanValue() ? 1 : 0);
+			}
+			else if(aParameter instanceof byte[]){
+				aStatement.setBytes(index, (byte[])aParameter);
+			}
+			else{
+				aStatement.setString(index, aParameter.toString());
+			}
+		}
+	}
+
+	/*
+	 * A connection and its prepared statement cache.  Only one thread uses a connection at a time.  A query only connection 
+	 * fails any statement that would change data.
+	 */
+	private static class PooledConnection{
+		Connection connection;
+		private int statementCacheSize;
+		private LinkedHashMap<String,PreparedStatement> statements;
+
+		PooledConnection(String jdbcURL, int statementCacheSize, boolean queryOnly) throws SQLException{
+			connection = DriverManager.getConnection(jdbcURL);
+			this.statementCacheSize = statementCacheSize;
+			statements = new LinkedHashMap<String,PreparedStatement>(16, 0.75f, true){
+				private static final long serialVersionUID = 1L;
+
+				protected boolean removeEldestEntry(Map.Entry<String,PreparedStatement> eldest) {
+					if(size() > PooledConnection.this.statementCacheSize){
+						closeQuietly(eldest.getValue());
+						return true;
+					}
+					return false;
+				}
+			};
+			Statement configuration = connection.createStatement();
+			try{
+				//readers see the last commit while the writer writes, and commits only wait for the log to be written
+				configuration.execute("PRAGMA journal_mode=WAL");
+				configuration.execute("PRAGMA synchronous=NORMAL");
+				configuration.execute("PRAGMA busy_timeout="+BUSY_TIMEOUT_MILLIS);
+				if(queryOnly){
+					configuration.execute("PRAGMA query_only=1");
+				}
+			}
+			finally{
+				configuration.close();
+			}
+		}
+
+		/*
+		 * Returns the cached statement for the SQL, removing it from the cache until it is released, or prepares a new one.
+		 */
+		PreparedStatement prepare(String sql) throws SQLException{
+			PreparedStatement aStatement = statements.remove(sql);
+			if(aStatement == null){
+				aStatement = connection.prepareStatement(sql);
+			}
+			return aStatement;
+		}
+
+		/*
+		 * Returns a statement to the cache, or closes it if caching is off.  The driver can not execute a statement again 
+		 * after it has failed, so a statement that was not reusable is always closed.
+		 */
+		void release(String sql, PreparedStatement aStatement, boolean reusable){
+			if(!reusable || statementCacheSize <= 0){
+				closeQuietly(aStatement);
+				return;
+			}
+			PreparedStatement previous = statements.put(sql, aStatement);
+			if(previous != null && previous != aStatement){
+				closeQuietly(previous);
+			}
+		}
+
+		void close(){
+			Iterator<PreparedStatement> statementIt = statements.values().iterator();
+			while(statementIt.hasNext()){
+				closeQuietly(statementIt.next());
+			}
+			statements.clear();
+			try{
+				connection.close();
+			}
+			catch(SQLException e){
+				//the connection is being discarded so there is nothing more to do
+			}
+		}
+
+		private static void closeQuietly(PreparedStatement aStatement){
+			try{
+				aStatement.close();
+			}
+			catch(SQLException e){
+				//the statement is being discarded so there is nothing more to do
+			}
+		}
+	}
+}
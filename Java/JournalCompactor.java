@@ -0,0 +1,91 @@
+package org.quickconnectfamily.sync;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.quickconnectfamily.json.JSONException;
+import org.quickconnectfamily.json.JSONUtilities;
+
+/*
+ * Finds the rows of the sync_values table that later rows make redundant.  Only rows whose key was registered with
+ * a StatementIdentity are considered.  For each record, in rowid order:
+ *   an update is superseded by a later update made with the same key,
+ *   a delete supersedes every earlier update of the record, and
+ *   a delete of a record inserted earlier in the journal cancels out both the insert and the delete, unless the insert 
+ *   has been sent.  The service may have stored a sent insert without the client learning of it, so its delete must be sent.
+ */
+class JournalCompactor {
+	private SyncJournal journal;
+	private Map<String,StatementIdentity> statementIdentities;
+
+	JournalCompactor(SyncJournal journal, Map<String,StatementIdentity> statementIdentities){
+		this.journal = journal;
+		this.statementIdentities = statementIdentities;
+	}
+
+	/*
+	 * Returns the rowids, up to and including upToRowid, of the rows that do not need to be sent.  The rows up to and 
+	 * including sentRowid have been sent before.
+	 */
+	ArrayList<Long> findSuperseded(final long sentRowid, long upToRowid) throws IOException{
+		final ArrayList<Long> superseded = new ArrayList<Long>();
+		final HashMap<String,RecordState> records = new HashMap<String,RecordState>();
+		journal.readRange(0, upToRowid, new SyncJournal.RowHandler(){
+			public void handleRow(QueryRow aRow) throws IOException {
+				StatementIdentity anIdentity = statementIdentities.get(aRow.getString(1));
+				if(anIdentity == null || aRow.isNull(2)){
+					return;
+				}
+				String recordKey = anIdentity.recordKey(parameters(aRow));
+				Long rowid = Long.valueOf(aRow.getLong(3));
+				RecordState aRecord = records.get(recordKey);
+				if(aRecord == null){
+					aRecord = new RecordState();
+					records.put(recordKey, aRecord);
+				}
+				if(anIdentity.operation == SynchronizedDB.OPERATION_UPDATE){
+					Long previous = aRecord.lastUpdates.put(aRow.getString(1), rowid);
+					if(previous != null){
+						superseded.add(previous);
+					}
+				}
+				else if(anIdentity.operation == SynchronizedDB.OPERATION_INSERT){
+					aRecord.insertRowid = rowid.longValue() > sentRowid ? rowid : null;
+					aRecord.lastUpdates.clear();
+				}
+				else if(anIdentity.operation == SynchronizedDB.OPERATION_DELETE){
+					superseded.addAll(aRecord.lastUpdates.values());
+					if(aRecord.insertRowid != null){
+						superseded.add(aRecord.insertRowid);
+						superseded.add(rowid);
+					}
+					records.remove(recordKey);
+				}
+			}
+		});
+		return superseded;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<Object> parameters(QueryRow aRow) throws IOException{
+		if(SyncJournal.isBinary(aRow, 2)){
+			return SyncValueCodec.decode(aRow.getBlob(2));
+		}
+		try {
+			Object parsed = JSONUtilities.parse(aRow.getString(2));
+			return parsed instanceof List ? (List<Object>)parsed : new ArrayList<Object>();
+		} catch (JSONException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private static class RecordState{
+		//the insert of the record if it was inserted since the last sync and has never been sent
+		Long insertRowid;
+		//the rowid of the latest update made with each key since the insert or the start of the journal
+		HashMap<String,Long> lastUpdates = new HashMap<String,Long>();
+	}
+}
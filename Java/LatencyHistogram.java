@@ -0,0 +1,88 @@
+package org.quickconnectfamily.sync;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations that may be recorded by many threads at once.  Durations are counted in buckets whose 
+ * bounds are powers of two nanoseconds so percentiles are accurate to within a factor of two while the histogram 
+ * stays the same small size however many durations are recorded.
+ * 
+ * @author Lee S. Barney
+ *
+ */
+public class LatencyHistogram {
+	private static final int BUCKETS = 64;
+	//bucket i holds the durations of at least 2^(i-1) and less than 2^i nanoseconds.  Bucket 0 holds durations of 0.
+	private AtomicLongArray bucketCounts = new AtomicLongArray(BUCKETS);
+	private AtomicLong count = new AtomicLong();
+	private AtomicLong totalNanos = new AtomicLong();
+	private AtomicLong maxNanos = new AtomicLong();
+
+	/**
+	 * @param nanos - the duration to record in nanoseconds.  Negative durations are recorded as 0.
+	 */
+	public void record(long nanos){
+		if(nanos < 0){
+			nanos = 0;
+		}
+		bucketCounts.incrementAndGet(Math.min(BUCKETS - Long.numberOfLeadingZeros(nanos), BUCKETS - 1));
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+		long currentMax = maxNanos.get();
+		while(nanos > currentMax && !maxNanos.compareAndSet(currentMax, nanos)){
+			currentMax = maxNanos.get();
+		}
+	}
+
+	/**
+	 * @return the number of durations recorded.
+	 */
+	public long getCount(){
+		return count.get();
+	}
+
+	/**
+	 * @return the sum of the durations recorded in nanoseconds.
+	 */
+	public long getTotalNanos(){
+		return totalNanos.get();
+	}
+
+	/**
+	 * @return the longest duration recorded in nanoseconds.
+	 */
+	public long getMaxNanos(){
+		return maxNanos.get();
+	}
+
+	/**
+	 * @return the mean of the durations recorded in nanoseconds or 0 if none have been recorded.
+	 */
+	public double getMeanNanos(){
+		long recorded = count.get();
+		return recorded == 0 ? 0 : (double)totalNanos.get() / recorded;
+	}
+
+	/**
+	 * @param percentile - a number from 0 to 100.  For example 99 for the 99th percentile.
+	 * @return the upper bound of the bucket holding the percentile in nanoseconds, never more than the longest duration 
+	 * recorded, or 0 if no durations have been recorded.
+	 */
+	public long getPercentileNanos(double percentile){
+		long recorded = count.get();
+		if(recorded == 0){
+			return 0;
+		}
+		long rank = (long)Math.ceil(recorded * Math.min(Math.max(percentile, 0), 100) / 100);
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++){
+			seen += bucketCounts.get(i);
+			if(seen >= rank && seen > 0){
+				long upperBound = i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << i) - 1;
+				return Math.min(upperBound, maxNanos.get());
+			}
+		}
+		return maxNanos.get();
+	}
+}
@@ -0,0 +1,35 @@
+package org.quickconnectfamily.sync;
+
+/**
+ * A SyncMetrics that ignores every measurement.  It is used by a SynchronizedDB until setSyncMetrics is called 
+ * and may be extended by implementations that only need some of the measurements.
+ * 
+ * @author Lee S. Barney
+ *
+ */
+public class NoOpSyncMetrics implements SyncMetrics {
+
+	public void phaseCompleted(SyncPhase phase, long nanos) {
+	}
+
+	public void syncCompleted(long nanos, boolean succeeded) {
+	}
+
+	public void bytesSent(long bytes) {
+	}
+
+	public void bytesReceived(long bytes) {
+	}
+
+	public void rowsUploaded(int rows) {
+	}
+
+	public void rowsApplied(int rows) {
+	}
+
+	public void lockWaited(long nanos, boolean exclusive) {
+	}
+
+	public void setDataCompleted(long nanos) {
+	}
+}
@@ -0,0 +1,382 @@
+package org.quickconnectfamily.sync;
+
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/*
+ * Encrypts a sync request or response body with AES-GCM as it is written and decrypts it as it is read, so neither the
+ * whole plaintext nor the whole ciphertext is ever held in memory.  The body is named by the qc-aes-gcm content coding.  It
+ * is applied after any compression, since encrypted data does not compress.
+ *
+ * An encrypted body is the bytes 'Q', 'C', 'E', and the format version followed by an eight byte random nonce prefix, the
+ * sixteen byte exchange nonce, and then a series of frames.  Each frame is a four byte big endian length and that many bytes
+ * of AES-GCM ciphertext and tag holding up to FRAME_SIZE bytes of the body.  A frame's IV is the nonce prefix followed by the
+ * frame's four byte index, whose high bit is set for the last frame.  Frames that are reordered, dropped, or cut off therefore
+ * fail to decrypt, and a body that ends without a last frame is rejected.
+ *
+ * Both directions use the same key, so every frame is also bound to its exchange by its additional authenticated data.  The 
+ * client chooses a random exchange nonce for each request and the service echoes it in the header of its response.  The 
+ * additional data names the direction, the request's command, and the exchange nonce.  A request body therefore does not 
+ * decrypt as a response, a body sent for one command does not decrypt as the body of another, and a recorded response does 
+ * not decrypt as the response to any later request.  The service keeps no record of the nonces it has seen, so a recorded 
+ * request can be sent to it again.  It is answered as before and the values it holds are recognized by their ids.
+ */
+class PayloadEncryption {
+	static final String CONTENT_CODING = "qc-aes-gcm";
+	static final int FORMAT_VERSION = 2;
+	static final int FRAME_SIZE = 65536;
+	private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+	private static final int TAG_BITS = 128;
+	private static final int TAG_LENGTH = TAG_BITS / 8;
+	private static final int PREFIX_LENGTH = 8;
+	private static final int EXCHANGE_NONCE_LENGTH = 16;
+	private static final int LAST_FRAME = 0x80000000;
+	private static final SecureRandom random = new SecureRandom();
+
+	/*
+	 * Returns true if the list of content codings of a body ends with qc-aes-gcm.
+	 */
+	static boolean isEncrypted(String contentCodings){
+		if(contentCodings == null){
+			return false;
+		}
+		String[] codings = contentCodings.split(",");
+		return codings[codings.length - 1].trim().equalsIgnoreCase(CONTENT_CODING);
+	}
+
+	/*
+	 * Returns the list of content codings with the last one, qc-aes-gcm, removed, or null if it was the only one.
+	 */
+	static String innerCodings(String contentCodings){
+		int lastSeparator = contentCodings.lastIndexOf(',');
+		return lastSeparator < 0 ? null : contentCodings.substring(0, lastSeparator).trim();
+	}
+
+	/*
+	 * Returns the list of content codings of a body that has been encrypted after being encoded with the given codings, which may be null.
+	 */
+	static String outerCodings(String contentCodings){
+		return contentCodings == null || contentCodings.trim().length() == 0 ? CONTENT_CODING : contentCodings.trim()+", "+CONTENT_CODING;
+	}
+
+	/*
+	 * What a body is bound to: its direction, the command of the request, and the exchange nonce of the request.
+	 */
+	static class Binding {
+		private SecretKey key;
+		private boolean response;
+		private String command;
+		private byte[] exchangeNonce;
+
+		private Binding(SecretKey key, boolean response, String command, byte[] exchangeNonce){
+			this.key = key;
+			this.response = response;
+			this.command = command;
+			this.exchangeNonce = exchangeNonce;
+		}
+
+		/*
+		 * Returns the binding of a new request with a new random exchange nonce.
+		 */
+		static Binding request(SecretKey key, String command){
+			byte[] exchangeNonce = new byte[EXCHANGE_NONCE_LENGTH];
+			random.nextBytes(exchangeNonce);
+			return new Binding(key, false, command, exchangeNonce);
+		}
+
+		/*
+		 * Returns the binding of the response to this request.
+		 */
+		Binding response(){
+			return new Binding(key, true, command, exchangeNonce);
+		}
+
+		private byte[] additionalData() throws IOException{
+			byte[] name = ((response ? "response " : "request ")+command).getBytes("UTF-8");
+			byte[] additionalData = new byte[name.length + 1 + EXCHANGE_NONCE_LENGTH];
+			System.arraycopy(name, 0, additionalData, 0, name.length);
+			System.arraycopy(exchangeNonce, 0, additionalData, name.length + 1, EXCHANGE_NONCE_LENGTH);
+			return additionalData;
+		}
+	}
+
+	private static byte[] frameIV(byte[] noncePrefix, int frameIndex, boolean last){
+		int indexField = last ? frameIndex | LAST_FRAME : frameIndex;
+		byte[] iv = new byte[PREFIX_LENGTH + 4];
+		System.arraycopy(noncePrefix, 0, iv, 0, PREFIX_LENGTH);
+		iv[PREFIX_LENGTH] = (byte)(indexField >>> 24);
+		iv[PREFIX_LENGTH + 1] = (byte)(indexField >>> 16);
+		iv[PREFIX_LENGTH + 2] = (byte)(indexField >>> 8);
+		iv[PREFIX_LENGTH + 3] = (byte)indexField;
+		return iv;
+	}
+
+	/*
+	 * Encrypts everything written to it a frame at a time.  finish writes the last frame without closing the wrapped stream.
+	 */
+	static class EncryptingOutputStream extends FilterOutputStream {
+		private Binding binding;
+		private byte[] additionalData;
+		private Cipher cipher;
+		private byte[] noncePrefix = new byte[PREFIX_LENGTH];
+		private byte[] frame = new byte[FRAME_SIZE];
+		private byte[] encrypted = new byte[FRAME_SIZE + TAG_LENGTH];
+		private int frameLength;
+		private int frameIndex;
+		private boolean headerWritten;
+		private boolean finished;
+
+		EncryptingOutputStream(OutputStream out, Binding binding) throws IOException{
+			super(out);
+			this.binding = binding;
+			additionalData = binding.additionalData();
+			try{
+				cipher = Cipher.getInstance(TRANSFORMATION);
+			}
+			catch(GeneralSecurityException e){
+				throw new IOException(e);
+			}
+			random.nextBytes(noncePrefix);
+		}
+
+		public void write(int aByte) throws IOException {
+			if(frameLength == FRAME_SIZE){
+				writeFrame(false);
+			}
+			frame[frameLength++] = (byte)aByte;
+		}
+
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			while(length > 0){
+				//a full frame is only written once more data arrives so that the last frame is never empty unless the body is
+				if(frameLength == FRAME_SIZE){
+					writeFrame(false);
+				}
+				int count = Math.min(length, FRAME_SIZE - frameLength);
+				System.arraycopy(bytes, offset, frame, frameLength, count);
+				frameLength += count;
+				offset += count;
+				length -= count;
+			}
+		}
+
+		//a partly filled frame is kept until it is full or the body is finished so flushing does not create small frames
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		void finish() throws IOException{
+			if(!finished){
+				writeFrame(true);
+				finished = true;
+			}
+		}
+
+		public void close() throws IOException {
+			try{
+				finish();
+			}
+			finally{
+				out.close();
+			}
+		}
+
+		private void writeFrame(boolean last) throws IOException{
+			if(!headerWritten){
+				out.write('Q');
+				out.write('C');
+				out.write('E');
+				out.write(FORMAT_VERSION);
+				out.write(noncePrefix);
+				out.write(binding.exchangeNonce);
+				headerWritten = true;
+			}
+			if(frameIndex == Integer.MAX_VALUE){
+				throw new IOException("Sync payload too large to encrypt");
+			}
+			int encryptedLength = 0;
+			try{
+				cipher.init(Cipher.ENCRYPT_MODE, binding.key, new GCMParameterSpec(TAG_BITS, frameIV(noncePrefix, frameIndex, last)));
+				cipher.updateAAD(additionalData);
+				encryptedLength = cipher.doFinal(frame, 0, frameLength, encrypted, 0);
+			}
+			catch(GeneralSecurityException e){
+				throw new IOException(e);
+			}
+			out.write(encryptedLength >>> 24);
+			out.write(encryptedLength >>> 16);
+			out.write(encryptedLength >>> 8);
+			out.write(encryptedLength);
+			out.write(encrypted, 0, encryptedLength);
+			frameIndex++;
+			frameLength = 0;
+		}
+	}
+
+	/*
+	 * Decrypts a body a frame at a time.  Nothing from a frame is returned until the whole frame has been authenticated.
+	 */
+	static class DecryptingInputStream extends InputStream {
+		private InputStream in;
+		private Binding binding;
+		private byte[] additionalData;
+		private Cipher cipher;
+		private byte[] noncePrefix;
+		private byte[] encrypted = new byte[FRAME_SIZE + TAG_LENGTH];
+		private byte[] frame = new byte[FRAME_SIZE];
+		private int framePosition;
+		private int frameLength;
+		private int frameIndex;
+		private boolean lastFrameRead;
+
+		/*
+		 * Decrypts a body that must have been sent with the binding, including its exchange nonce.
+		 */
+		DecryptingInputStream(InputStream in, Binding binding) throws IOException{
+			this.in = in;
+			this.binding = binding;
+			try{
+				cipher = Cipher.getInstance(TRANSFORMATION);
+			}
+			catch(GeneralSecurityException e){
+				throw new IOException(e);
+			}
+		}
+
+		/*
+		 * Decrypts a request for the command using the exchange nonce in its header.  Used by services.
+		 */
+		DecryptingInputStream(InputStream in, SecretKey key, String command) throws IOException{
+			this(in, new Binding(key, false, command, null));
+		}
+
+		/*
+		 * Returns the binding of the body, reading its header if it has not been read.
+		 */
+		Binding getBinding() throws IOException{
+			readHeader();
+			return binding;
+		}
+
+		public int read() throws IOException {
+			if(!fillFrame()){
+				return -1;
+			}
+			return frame[framePosition++] & 0xFF;
+		}
+
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			if(length == 0){
+				return 0;
+			}
+			if(!fillFrame()){
+				return -1;
+			}
+			int count = Math.min(length, frameLength - framePosition);
+			System.arraycopy(frame, framePosition, bytes, offset, count);
+			framePosition += count;
+			return count;
+		}
+
+		public int available() throws IOException {
+			return frameLength - framePosition;
+		}
+
+		public void close() throws IOException {
+			in.close();
+		}
+
+		/*
+		 * Decrypts frames until one has unread data.  Returns false at the end of the body.
+		 */
+		private boolean fillFrame() throws IOException{
+			while(framePosition == frameLength){
+				if(lastFrameRead){
+					return false;
+				}
+				readHeader();
+				byte[] lengthBytes = new byte[4];
+				readFully(lengthBytes, 4);
+				int encryptedLength = ((lengthBytes[0] & 0xFF) << 24) | ((lengthBytes[1] & 0xFF) << 16) | ((lengthBytes[2] & 0xFF) << 8) | (lengthBytes[3] & 0xFF);
+				if(encryptedLength < TAG_LENGTH || encryptedLength > encrypted.length){
+					throw new IOException("Invalid encrypted sync payload frame length "+encryptedLength);
+				}
+				readFully(encrypted, encryptedLength);
+				frameLength = decryptFrame(encryptedLength);
+				framePosition = 0;
+				frameIndex++;
+			}
+			return true;
+		}
+
+		private void readHeader() throws IOException{
+			if(noncePrefix != null){
+				return;
+			}
+			byte[] header = new byte[4 + PREFIX_LENGTH + EXCHANGE_NONCE_LENGTH];
+			readFully(header, header.length);
+			if(header[0] != 'Q' || header[1] != 'C' || header[2] != 'E'){
+				throw new IOException("Not an encrypted sync payload");
+			}
+			if(header[3] != FORMAT_VERSION){
+				throw new IOException("Unsupported sync payload encryption version "+header[3]);
+			}
+			byte[] exchangeNonce = new byte[EXCHANGE_NONCE_LENGTH];
+			System.arraycopy(header, 4 + PREFIX_LENGTH, exchangeNonce, 0, EXCHANGE_NONCE_LENGTH);
+			if(binding.exchangeNonce == null){
+				binding = new Binding(binding.key, binding.response, binding.command, exchangeNonce);
+			}
+			else if(!MessageDigest.isEqual(binding.exchangeNonce, exchangeNonce)){
+				throw new IOException("The sync payload was not sent in answer to this request");
+			}
+			additionalData = binding.additionalData();
+			byte[] prefix = new byte[PREFIX_LENGTH];
+			System.arraycopy(header, 4, prefix, 0, PREFIX_LENGTH);
+			noncePrefix = prefix;
+		}
+
+		/*
+		 * The IV of a middle frame is tried first so only the last frame is ever decrypted twice.
+		 */
+		private int decryptFrame(int encryptedLength) throws IOException{
+			try{
+				cipher.init(Cipher.DECRYPT_MODE, binding.key, new GCMParameterSpec(TAG_BITS, frameIV(noncePrefix, frameIndex, false)));
+				cipher.updateAAD(additionalData);
+				return cipher.doFinal(encrypted, 0, encryptedLength, frame, 0);
+			}
+			catch(GeneralSecurityException notMiddleFrame){
+				try{
+					cipher.init(Cipher.DECRYPT_MODE, binding.key, new GCMParameterSpec(TAG_BITS, frameIV(noncePrefix, frameIndex, true)));
+					cipher.updateAAD(additionalData);
+					int length = cipher.doFinal(encrypted, 0, encryptedLength, frame, 0);
+					lastFrameRead = true;
+					return length;
+				}
+				catch(GeneralSecurityException e){
+					throw new IOException("Unable to decrypt the sync payload.  It was changed, sent for a different request, or encrypted with a different key.", e);
+				}
+			}
+		}
+
+		private void readFully(byte[] buffer, int length) throws IOException{
+			int read = 0;
+			while(read < length){
+				int count = in.read(buffer, read, length - read);
+				if(count < 0){
+					throw new EOFException("Encrypted sync payload ended early");
+				}
+				read += count;
+			}
+		}
+	}
+}
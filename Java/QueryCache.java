@@ -0,0 +1,109 @@
+package org.quickconnectfamily.sync;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.quickconnectfamily.dbaccess.DataAccessResult;
+
+/*
+ * Holds the results of getData calls keyed by statement key and parameters, evicting the least recently used result
+ * once maxEntries are held.  Each result remembers the tables its statement reads so a write to any of them removes it.
+ * A result whose tables are unknown is removed by every write.
+ */
+class QueryCache {
+	private LinkedHashMap<CacheKey,CachedResult> entries;
+	private AtomicLong hits = new AtomicLong();
+	private AtomicLong misses = new AtomicLong();
+
+	QueryCache(final int maxEntries){
+		entries = new LinkedHashMap<CacheKey,CachedResult>(16, 0.75f, true){
+			protected boolean removeEldestEntry(Map.Entry<CacheKey,CachedResult> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	synchronized DataAccessResult get(String sqlKey, Object[] parameters){
+		CachedResult cached = entries.get(new CacheKey(sqlKey, parameters));
+		if(cached == null){
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return cached.result;
+	}
+
+	/*
+	 * tables is null if the tables the statement reads are unknown.
+	 */
+	synchronized void put(String sqlKey, Object[] parameters, Set<String> tables, DataAccessResult aResult){
+		entries.put(new CacheKey(sqlKey, parameters == null ? null : parameters.clone()), new CachedResult(tables, aResult));
+	}
+
+	/*
+	 * Removes the results that read any of the tables.  A null set of tables removes every result.
+	 */
+	synchronized void invalidate(Set<String> writtenTables){
+		if(writtenTables == null){
+			entries.clear();
+			return;
+		}
+		Iterator<CachedResult> resultIt = entries.values().iterator();
+		while(resultIt.hasNext()){
+			Set<String> readTables = resultIt.next().tables;
+			if(readTables == null || !Collections.disjoint(readTables, writtenTables)){
+				resultIt.remove();
+			}
+		}
+	}
+
+	long getHits(){
+		return hits.get();
+	}
+
+	long getMisses(){
+		return misses.get();
+	}
+
+	private static class CachedResult{
+		Set<String> tables;
+		DataAccessResult result;
+
+		CachedResult(Set<String> tables, DataAccessResult result){
+			this.tables = tables;
+			this.result = result;
+		}
+	}
+
+	/*
+	 * Parameters are compared by value, including the contents of byte arrays.
+	 */
+	private static class CacheKey{
+		private String sqlKey;
+		private Object[] parameters;
+		private int hash;
+
+		CacheKey(String sqlKey, Object[] parameters){
+			this.sqlKey = sqlKey;
+			this.parameters = parameters;
+			hash = sqlKey.hashCode() * 31 + Arrays.deepHashCode(parameters);
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(Object anObject) {
+			if(!(anObject instanceof CacheKey)){
+				return false;
+			}
+			CacheKey aKey = (CacheKey)anObject;
+			return sqlKey.equals(aKey.sqlKey) && Arrays.deepEquals(parameters, aKey.parameters);
+		}
+	}
+}
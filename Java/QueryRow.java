@@ -0,0 +1,59 @@
+package org.quickconnectfamily.sync;
+
+import org.quickconnectfamily.dbaccess.DataAccessException;
+
+/**
+ * A row of the result of a query run by the SynchronizedDB queryData or mapRows method.  Values are read in their 
+ * SQLite type so numbers and blobs are never converted to Strings.  Columns are numbered from 0.  A QueryRow is only 
+ * valid until the handler or mapper it was passed to returns.
+ * 
+ * @author Lee S. Barney
+ *
+ */
+public interface QueryRow {
+	/**
+	 * @return the number of columns in the result.
+	 */
+	public int getColumnCount();
+	/**
+	 * @param columnIndex - the 0 based index of the column.
+	 * @return the name of the column.
+	 */
+	public String getColumnName(int columnIndex);
+	/**
+	 * @param columnName - the name of the column.
+	 * @return the 0 based index of the column.
+	 * @throws DataAccessException if the result has no column with the name.
+	 */
+	public int getColumnIndex(String columnName) throws DataAccessException;
+	/**
+	 * @param columnIndex - the 0 based index of the column.
+	 * @return true if the value is NULL.
+	 */
+	public boolean isNull(int columnIndex);
+	/**
+	 * @param columnIndex - the 0 based index of the column.
+	 * @return true if the value is a BLOB.
+	 */
+	public boolean isBlob(int columnIndex);
+	/**
+	 * @param columnIndex - the 0 based index of the column.
+	 * @return the value as a long.  NULL is returned as 0.
+	 */
+	public long getLong(int columnIndex);
+	/**
+	 * @param columnIndex - the 0 based index of the column.
+	 * @return the value as a double.  NULL is returned as 0.
+	 */
+	public double getDouble(int columnIndex);
+	/**
+	 * @param columnIndex - the 0 based index of the column.
+	 * @return the value as a String or null if the value is NULL.
+	 */
+	public String getString(int columnIndex);
+	/**
+	 * @param columnIndex - the 0 based index of the column.
+	 * @return the value as a byte array or null if the value is NULL.
+	 */
+	public byte[] getBlob(int columnIndex);
+}
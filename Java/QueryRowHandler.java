@@ -0,0 +1,19 @@
+package org.quickconnectfamily.sync;
+
+import org.quickconnectfamily.dbaccess.DataAccessException;
+
+/**
+ * Receives the rows of a query run by the SynchronizedDB queryData method one at a time, in the order SQLite 
+ * produces them.  Rows are read from the database as they are handled so only the current row is held in memory.
+ * 
+ * @author Lee S. Barney
+ *
+ */
+public interface QueryRowHandler {
+	/**
+	 * @param aRow - the current row.  It must not be kept after this method returns.
+	 * @return true to be passed the next row, false to stop the query.
+	 * @throws DataAccessException - thrown to stop the query.  It is rethrown by queryData.
+	 */
+	public boolean handleRow(QueryRow aRow) throws DataAccessException;
+}
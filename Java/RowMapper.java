@@ -0,0 +1,18 @@
+package org.quickconnectfamily.sync;
+
+import org.quickconnectfamily.dbaccess.DataAccessException;
+
+/**
+ * Converts each row of a query run by the SynchronizedDB mapRows method to an object of the application's own type.
+ * 
+ * @author Lee S. Barney
+ *
+ */
+public interface RowMapper<T> {
+	/**
+	 * @param aRow - the current row.  It must not be kept after this method returns.
+	 * @return the object representing the row.
+	 * @throws DataAccessException - thrown to stop the query.  It is rethrown by mapRows.
+	 */
+	public T mapRow(QueryRow aRow) throws DataAccessException;
+}
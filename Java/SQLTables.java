@@ -0,0 +1,66 @@
+package org.quickconnectfamily.sync;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ * Finds the tables a statement refers to: the table an INSERT, REPLACE, UPDATE, or DELETE writes and the tables
+ * listed in its FROM and JOIN clauses.  Tables changed by triggers or hidden in views are not found so statements
+ * using them should have their tables declared with SynchronizedDB.setStatementTables.
+ */
+class SQLTables {
+	private static final String NAME = "((?:[`\"\\[]?\\w+[`\"\\]]?\\.)?[`\"\\[]?\\w+[`\"\\]]?)";
+	private static final Pattern WRITTEN = Pattern.compile("\\b(?:INTO|UPDATE(?:\\s+OR\\s+\\w+)?)\\s+"+NAME, Pattern.CASE_INSENSITIVE);
+	//a FROM list ends at the next clause or at the end of the subquery it is in
+	private static final Pattern FROM_LIST = Pattern.compile("\\bFROM\\s+(?!\\()(.+?)(?=\\bWHERE\\b|\\bGROUP\\b|\\bORDER\\b|\\bLIMIT\\b|\\bHAVING\\b|\\bUNION\\b|\\bEXCEPT\\b|\\bINTERSECT\\b|\\)|;|$)",
+			Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+	private static final Pattern LIST_ITEM = Pattern.compile("(?:^|,|\\bJOIN\\b)\\s*"+NAME, Pattern.CASE_INSENSITIVE);
+	//white space and comments may come before a statement's first keyword
+	private static final String START = "^(?:\\s+|--[^\\n]*(?:\\n|$)|/\\*.*?\\*/)*";
+	private static final Pattern QUERY = Pattern.compile(START+"(?:SELECT|WITH|VALUES)\\b", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+	private static final Pattern ROWS = Pattern.compile(START+"(?:PRAGMA|EXPLAIN)\\b|\\bRETURNING\\b", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+	/*
+	 * Returns the lower case names of the tables the statement refers to or null if none were found.
+	 */
+	static HashSet<String> referencedTables(String sql){
+		HashSet<String> tables = new HashSet<String>();
+		Matcher writtenMatcher = WRITTEN.matcher(sql);
+		while(writtenMatcher.find()){
+			tables.add(normalize(writtenMatcher.group(1)));
+		}
+		Matcher fromMatcher = FROM_LIST.matcher(sql);
+		while(fromMatcher.find()){
+			Matcher itemMatcher = LIST_ITEM.matcher(fromMatcher.group(1));
+			while(itemMatcher.find()){
+				tables.add(normalize(itemMatcher.group(1)));
+			}
+		}
+		return tables.isEmpty() ? null : tables;
+	}
+
+	/*
+	 * Returns true if the statement only reads data.
+	 */
+	static boolean isQuery(String sql){
+		return QUERY.matcher(sql).find();
+	}
+
+	/*
+	 * Returns true if the statement may return rows: a query, a PRAGMA or EXPLAIN, or a statement with a RETURNING clause.
+	 * A statement for which it returns false never returns rows, apart from one whose only RETURNING is inside a string.
+	 */
+	static boolean mayReturnRows(String sql){
+		return isQuery(sql) || ROWS.matcher(sql).find();
+	}
+
+	static String normalize(String tableName){
+		String name = tableName.replaceAll("[`\"\\[\\]]", "").toLowerCase(Locale.US);
+		if(name.startsWith("main.")){
+			name = name.substring(5);
+		}
+		return name;
+	}
+}
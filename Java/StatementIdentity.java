@@ -0,0 +1,43 @@
+package org.quickconnectfamily.sync;
+
+import java.util.List;
+
+/*
+ * Describes which record of which table a registered statement changes so superseded sync values can be compacted.
+ */
+class StatementIdentity {
+	String table;
+	int operation;
+	int[] identityParameters;
+
+	StatementIdentity(String table, int operation, int[] identityParameters){
+		this.table = table;
+		this.operation = operation;
+		this.identityParameters = identityParameters;
+	}
+
+	/*
+	 * Builds a key that is the same for every statement that changes the same record of the same table.
+	 * Integral numbers are compared by value regardless of how they were stored.
+	 */
+	String recordKey(List<Object> parameters){
+		StringBuilder aKey = new StringBuilder(table);
+		for(int anIndex : identityParameters){
+			Object aValue = anIndex < parameters.size() ? parameters.get(anIndex) : null;
+			aKey.append('\u0000');
+			if(aValue == null){
+				aKey.append('n');
+			}
+			else if(aValue instanceof Double || aValue instanceof Float){
+				aKey.append('d').append(((Number)aValue).doubleValue());
+			}
+			else if(aValue instanceof Number){
+				aKey.append('i').append(((Number)aValue).longValue());
+			}
+			else{
+				aKey.append('s').append(aValue);
+			}
+		}
+		return aKey.toString();
+	}
+}
@@ -0,0 +1,57 @@
+package org.quickconnectfamily.sync;
+
+import java.util.ArrayList;
+
+import org.quickconnectfamily.dbaccess.DataAccessResult;
+
+/*
+ * Builds the DataAccessResults returned by the transact method of each SyncStorage the same way the QCDBAccess
+ * library does, so callers can not tell which storage produced them.
+ */
+class StorageResults {
+	static final String SUCCESS = "not an error";
+
+	static DataAccessResult success(String[] fieldNames, ArrayList<ArrayList<String>> rows){
+		DataAccessResult aResult = new DataAccessResult();
+		aResult.setFieldNames(fieldNames);
+		aResult.setResults(rows);
+		aResult.setErrorDescription(SUCCESS);
+		return aResult;
+	}
+
+	static DataAccessResult failure(String errorDescription){
+		DataAccessResult aResult = new DataAccessResult();
+		aResult.setFieldNames(new String[0]);
+		aResult.setResults(new ArrayList<ArrayList<String>>());
+		aResult.setErrorDescription(errorDescription == null ? "unknown error" : errorDescription);
+		return aResult;
+	}
+
+	/*
+	 * Collects the field names and rows of a statement's results as Strings.
+	 */
+	static class RowCollector implements QueryRowHandler{
+		private ArrayList<ArrayList<String>> rows = new ArrayList<ArrayList<String>>();
+		private String[] fieldNames = new String[0];
+
+		public boolean handleRow(QueryRow aRow) {
+			int columnCount = aRow.getColumnCount();
+			if(rows.isEmpty()){
+				fieldNames = new String[columnCount];
+				for(int i = 0; i < columnCount; i++){
+					fieldNames[i] = aRow.getColumnName(i);
+				}
+			}
+			ArrayList<String> aResultRow = new ArrayList<String>(columnCount);
+			for(int i = 0; i < columnCount; i++){
+				aResultRow.add(aRow.getString(i));
+			}
+			rows.add(aResultRow);
+			return true;
+		}
+
+		DataAccessResult getResult(){
+			return success(fieldNames, rows);
+		}
+	}
+}
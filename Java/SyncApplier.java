@@ -0,0 +1,131 @@
+package org.quickconnectfamily.sync;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.quickconnectfamily.dbaccess.DataAccessException;
+import org.quickconnectfamily.dbaccess.DataAccessResult;
+
+/*
+ * Executes the statements sent by the HTTP service within a single transaction.  Each registered
+ * statement is compiled the first time its key is seen and then re-bound for every later row with the same key.
+ * Rows are executed in the order the service sent them since later rows may depend on earlier ones.
+ */
+class SyncApplier {
+	private SyncStorage storage;
+	private Map<String,String> registeredSQLStatements;
+	private HashMap<String,SyncStatement> compiledStatements = new HashMap<String,SyncStatement>();
+	private HashSet<String> appliedKeys = new HashSet<String>();
+	private int rowsApplied;
+	private boolean committed;
+
+	SyncApplier(SyncStorage storage, Map<String,String> registeredSQLStatements){
+		this.storage = storage;
+		this.registeredSQLStatements = registeredSQLStatements;
+	}
+
+	/*
+	 * Starts the transaction.  Change capture triggers do nothing until commit is called so the service's data is not
+	 * stored to be sent back to it.
+	 */
+	void begin() throws DataAccessException{
+		storage.startTransaction();
+		try{
+			checkResult(storage.transact(ChangeCapture.SUPPRESS, null));
+		}
+		catch(DataAccessException e){
+			storage.endTransaction(false);
+			throw e;
+		}
+	}
+
+	/*
+	 * Binds the parameters to the statement registered for the key and executes it.
+	 */
+	void apply(String sqlKey, List<Object> parameters) throws QCSynchronizationException{
+		apply(sqlKey, parameters == null ? null : parameters.toArray());
+	}
+
+	/*
+	 * Executes the statement registered for the key with parameters that have already been converted for binding.
+	 */
+	void apply(String sqlKey, Object[] parameters) throws QCSynchronizationException{
+		SyncStatement aStatement = compiledStatements.get(sqlKey);
+		try{
+			if(aStatement == null){
+				String sql = registeredSQLStatements.get(sqlKey);
+				if(sql == null){
+					throw new QCSynchronizationException("No such key: "+sqlKey);
+				}
+				aStatement = storage.compile(sql);
+				compiledStatements.put(sqlKey, aStatement);
+			}
+			aStatement.execute(parameters);
+			appliedKeys.add(sqlKey);
+			rowsApplied++;
+		}
+		catch(DataAccessException e){
+			throw new QCSynchronizationException(e.getLocalizedMessage()+" "+e.getCause());
+		}
+	}
+
+	/*
+	 * Stores the sync time and the continuation token of the next page to pull, or null if there are no more pages.  The id 
+	 * of the last value sent is kept.
+	 */
+	void applyCheckpoint(String lastSyncTime, String pullToken) throws QCSynchronizationException{
+		try{
+			DataAccessResult aResult = storage.transact("INSERT OR REPLACE INTO sync_info VALUES(0,?,?,(SELECT sent_id FROM sync_info))", new Object[]{lastSyncTime, pullToken});
+			if(!aResult.getErrorDescription().equals("not an error")){
+				throw new QCSynchronizationException(aResult.getErrorDescription());
+			}
+		}
+		catch(DataAccessException e){
+			throw new QCSynchronizationException(e.getLocalizedMessage()+" "+e.getCause());
+		}
+	}
+
+	int getRowsApplied(){
+		return rowsApplied;
+	}
+
+	/*
+	 * Returns the keys of the statements that have been executed.
+	 */
+	HashSet<String> getAppliedKeys(){
+		return appliedKeys;
+	}
+
+	/*
+	 * Turns change capture back on and marks the transaction as successful.  The changes are written when end is called.
+	 */
+	void commit() throws DataAccessException{
+		checkResult(storage.transact(ChangeCapture.RESUME, null));
+		committed = true;
+	}
+
+	private static void checkResult(DataAccessResult aResult) throws DataAccessException{
+		if(!aResult.getErrorDescription().equals("not an error")){
+			throw new DataAccessException(aResult.getErrorDescription());
+		}
+	}
+
+	/*
+	 * Ends the transaction, rolling it back unless commit was called, and releases the compiled statements.
+	 */
+	void end() throws DataAccessException{
+		try{
+			storage.endTransaction(committed);
+		}
+		finally{
+			Iterator<SyncStatement> statementIt = compiledStatements.values().iterator();
+			while(statementIt.hasNext()){
+				statementIt.next().close();
+			}
+			compiledStatements.clear();
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package org.quickconnectfamily.sync;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+/*
+ * An HTTP entity that writes a sync request in the binary sync format straight from the sync_values table.
+ * The request is the bytes 'Q', 'C', 'S', and the format version followed by the database id, the last sync time, the continuation token
+ * of the next page to pull, which is empty if there is none, and the largest number of rows the page may hold as a varint,
+ * which is zero if there is no limit.  Then, for each row,
+ * a varint 1, the row's id as a varint, the insertion time, the key, and the sql_params.  A varint 0 ends the request.  Strings are a varint length
+ * followed by UTF-8 bytes.  The sql_params start with a kind byte: PARAMS_NULL, PARAMS_BINARY for rows stored in the
+ * SyncValueCodec format, which are forwarded exactly as stored, or PARAMS_JSON for rows stored as JSON text.  Both
+ * non-null kinds are followed by a varint length and the stored bytes.
+ */
+class SyncBinaryRequestEntity extends AbstractHttpEntity {
+	static final String CONTENT_TYPE = "application/x-qc-sync";
+	static final int WIRE_VERSION = 4;
+	static final int PARAMS_NULL = 0;
+	static final int PARAMS_BINARY = 1;
+	static final int PARAMS_JSON = 2;
+
+	private SyncJournal journal;
+	private String databaseId;
+	private String lastSync;
+	private String pullToken;
+	private int pullPageSize;
+	private long afterRowid;
+	private long upToRowid;
+	private int rowsWritten;
+
+	SyncBinaryRequestEntity(SyncJournal journal, String databaseId, String lastSync, String pullToken, int pullPageSize, long afterRowid, long upToRowid){
+		this.journal = journal;
+		this.databaseId = databaseId;
+		this.lastSync = lastSync;
+		this.pullToken = pullToken;
+		this.pullPageSize = pullPageSize;
+		this.afterRowid = afterRowid;
+		this.upToRowid = upToRowid;
+		setContentType(CONTENT_TYPE);
+		setChunked(true);
+	}
+
+	//the rows being sent are not removed until the response has been applied so they can be read again
+	public boolean isRepeatable() {
+		return true;
+	}
+
+	/*
+	 * Returns the number of rows written the last time the entity was written.
+	 */
+	int getRowsWritten(){
+		return rowsWritten;
+	}
+
+	public long getContentLength() {
+		return -1;
+	}
+
+	public boolean isStreaming() {
+		return false;
+	}
+
+	public InputStream getContent() throws IOException {
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		writeTo(content);
+		return new ByteArrayInputStream(content.toByteArray());
+	}
+
+	public void writeTo(final OutputStream outstream) throws IOException {
+		final ByteArrayOutputStream rowBuffer = new ByteArrayOutputStream(256);
+		rowBuffer.write('Q');
+		rowBuffer.write('C');
+		rowBuffer.write('S');
+		rowBuffer.write(WIRE_VERSION);
+		SyncValueCodec.writeBytes(rowBuffer, SyncValueCodec.utf8(databaseId));
+		SyncValueCodec.writeBytes(rowBuffer, SyncValueCodec.utf8(lastSync));
+		SyncValueCodec.writeBytes(rowBuffer, SyncValueCodec.utf8(pullToken == null ? "" : pullToken));
+		SyncValueCodec.writeVarint(rowBuffer, Math.max(pullPageSize, 0));
+		rowBuffer.writeTo(outstream);
+		rowsWritten = 0;
+		journal.readRange(afterRowid, upToRowid, new SyncJournal.RowHandler(){
+			public void handleRow(QueryRow aRow) throws IOException {
+				rowsWritten++;
+				rowBuffer.reset();
+				SyncValueCodec.writeVarint(rowBuffer, 1);
+				SyncValueCodec.writeVarint(rowBuffer, aRow.getLong(3));
+				SyncValueCodec.writeBytes(rowBuffer, SyncValueCodec.utf8(aRow.getString(0)));
+				SyncValueCodec.writeBytes(rowBuffer, SyncValueCodec.utf8(aRow.getString(1)));
+				if(aRow.isNull(2)){
+					rowBuffer.write(PARAMS_NULL);
+				}
+				else if(SyncJournal.isBinary(aRow, 2)){
+					rowBuffer.write(PARAMS_BINARY);
+					SyncValueCodec.writeBytes(rowBuffer, aRow.getBlob(2));
+				}
+				else{
+					rowBuffer.write(PARAMS_JSON);
+					SyncValueCodec.writeBytes(rowBuffer, SyncValueCodec.utf8(aRow.getString(2)));
+				}
+				rowBuffer.writeTo(outstream);
+			}
+		});
+		outstream.write(0);
+		outstream.flush();
+	}
+}
@@ -0,0 +1,259 @@
+package org.quickconnectfamily.sync;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.http.client.ClientProtocolException;
+import org.quickconnectfamily.dbaccess.DataAccessException;
+import org.quickconnectfamily.json.JSONException;
+
+import android.content.Context;
+
+/**
+ * The SyncCoordinator class keeps several databases in sync with the same remote HTTP service using a single HTTP
+ * client, connection pool, and login.  Each database is created by the coordinator's addDatabase methods and is used
+ * like any other SynchronizedDB.
+ * <br/>
+ * The syncAll method syncs every database, running up to maxParallelSyncs of them at the same time over the shared
+ * connection pool.  Each database sends its own stored data and applies the service's response to it in its own
+ * transaction, so a failure syncing one database does not stop the others.  Databases may also still be synced one at a
+ * time using their own sync methods.
+ * <br/>
+ * If the databases are not going to be used any longer use the SyncCoordinator cleanUp method to free the resources.
+ *
+ * @author Lee S. Barney
+ *
+ */
+public class SyncCoordinator {
+	private SyncSession session;
+	private CopyOnWriteArrayList<SynchronizedDB> databases = new CopyOnWriteArrayList<SynchronizedDB>();
+	private ExecutorService syncExecutor;
+	private SyncScheduler syncScheduler;
+
+	/**
+	 * Creates a SyncCoordinator for a remote HTTP service.  The service is not contacted until the first sync.
+	 * @param aRemoteURL - the URL of the service that will respond to synchronization requests including the port number if not port 80.
+	 * For security reasons it is suggested that your URL be an HTTPS URL but this is not required.
+	 * @param port - the port number of the remote HTTP service.
+	 * @param aRemoteUname - a security credential used in the remote service
+	 * @param aRemotePword - a security credential used in the remote service
+	 * @param maxParallelSyncs - the largest number of databases synced at the same time by syncAll.  It is also the size
+	 * of the shared connection pool.
+	 * @throws URISyntaxException
+	 */
+	public SyncCoordinator(URL aRemoteURL, int port, String aRemoteUname, String aRemotePword, int maxParallelSyncs) throws URISyntaxException{
+		if(maxParallelSyncs < 1){
+			throw new IllegalArgumentException("maxParallelSyncs must be at least 1: "+maxParallelSyncs);
+		}
+		session = new SyncSession(aRemoteURL, port, aRemoteUname, aRemotePword, maxParallelSyncs);
+		syncExecutor = Executors.newFixedThreadPool(maxParallelSyncs, new ThreadFactory(){
+			public Thread newThread(Runnable aRunnable) {
+				Thread syncThread = new Thread(aRunnable, "SyncCoordinator sync");
+				syncThread.setDaemon(true);
+				return syncThread;
+			}
+		});
+	}
+
+	/**
+	 * Creates a SynchronizedDB for a database that is kept in sync using the coordinator's HTTP client and login.
+	 * @param aStorage - the storage holding the data to be kept in sync.  See AndroidSyncStorage and JDBCSyncStorage.
+	 * @return the SynchronizedDB used to access the database.
+	 * @throws DataAccessException
+	 * @throws InterruptedException
+	 */
+	public SynchronizedDB addDatabase(SyncStorage aStorage) throws DataAccessException, InterruptedException{
+		SynchronizedDB theDB = new SynchronizedDB(aStorage, session, false);
+		theDB.setCoordinator(this);
+		databases.add(theDB);
+		return theDB;
+	}
+
+	/**
+	 * Creates a SynchronizedDB for an SQLite file on an Android device that is kept in sync using the coordinator's HTTP client and login.
+	 * @param theActivityRef - the activity that the database is associated with.  This is usually your initial Acivity class.
+	 * @param aDbName - the name of the SQLite file to be kept in sync.
+	 * @return the SynchronizedDB used to access the database.
+	 * @throws DataAccessException
+	 * @throws InterruptedException
+	 */
+	public SynchronizedDB addDatabase(WeakReference<Context> theActivityRef, String aDbName) throws DataAccessException, InterruptedException{
+		return addDatabase(new AndroidSyncStorage(theActivityRef, aDbName));
+	}
+
+	/**
+	 * This method syncs every database added to the coordinator and waits for all of them to finish.  If any of the
+	 * syncs fail the exception of the first database that failed is thrown once the others have finished.
+	 * @throws ClientProtocolException
+	 * @throws DataAccessException
+	 * @throws JSONException
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws QCSynchronizationException
+	 */
+	public void syncAll() throws ClientProtocolException, DataAccessException, JSONException, IOException, InterruptedException, QCSynchronizationException{
+		ArrayList<Future<Void>> runningSyncs = new ArrayList<Future<Void>>();
+		for(final SynchronizedDB theDB : databases){
+			runningSyncs.add(syncExecutor.submit(new Callable<Void>(){
+				public Void call() throws Exception {
+					theDB.sync();
+					return null;
+				}
+			}));
+		}
+		Throwable failure = null;
+		try{
+			for(Future<Void> aSync : runningSyncs){
+				try{
+					aSync.get();
+				}
+				catch(ExecutionException e){
+					if(failure == null){
+						failure = e.getCause();
+					}
+				}
+			}
+		}
+		catch(InterruptedException e){
+			//syncs stop cleanly between batches when interrupted
+			for(Future<Void> aSync : runningSyncs){
+				aSync.cancel(true);
+			}
+			throw e;
+		}
+		if(failure != null){
+			rethrow(failure);
+		}
+	}
+
+	/**
+	 * This method does the same work as syncAll on a background thread.  If a syncAll is already in flight no new one is
+	 * started and the in flight future is returned instead.
+	 * @return a future that completes when every database has been synced or completes exceptionally with the exception syncAll threw.
+	 */
+	public synchronized CompletableFuture<Void> syncAllAsync(){
+		if(syncScheduler == null){
+			syncScheduler = new SyncScheduler(syncAllTask(), "SyncCoordinator scheduler", 0, 0, 0, 0);
+		}
+		return syncScheduler.requestSync();
+	}
+
+	/**
+	 * This method starts syncing every database automatically, replacing any previously started schedule.  It works in the same
+	 * way as the SynchronizedDB startSyncScheduler method except that setData calls on any of the databases cause all of them to be synced.
+	 * @param debounceMillis - the number of milliseconds after the last committed write to wait before syncing.
+	 * @param periodMillis - the number of milliseconds between the end of one periodic sync and the start of the next.
+	 * @param initialBackoffMillis - the number of milliseconds to wait before retrying after the first failure.
+	 * @param maxBackoffMillis - the longest time in milliseconds to wait between retries.
+	 */
+	public synchronized void startSyncScheduler(long debounceMillis, long periodMillis, long initialBackoffMillis, long maxBackoffMillis){
+		stopSyncScheduler();
+		syncScheduler = new SyncScheduler(syncAllTask(), "SyncCoordinator scheduler", debounceMillis, periodMillis, initialBackoffMillis, maxBackoffMillis);
+	}
+
+	/**
+	 * This method stops all automatic and background syncAll calls.  A syncAll that is already in flight is allowed to finish.
+	 */
+	public synchronized void stopSyncScheduler(){
+		if(syncScheduler != null){
+			syncScheduler.stop();
+			syncScheduler = null;
+		}
+	}
+
+	/**
+	 * This method cleans up every database added to the coordinator, sends a single logout command to the remote HTTP service,
+	 * and closes down the shared HTTP client.
+	 * @throws IOException
+	 */
+	public void cleanUp() throws IOException{
+		stopSyncScheduler();
+		IOException failure = null;
+		for(SynchronizedDB theDB : databases){
+			try{
+				theDB.cleanUp();
+			}
+			catch(IOException e){
+				if(failure == null){
+					failure = e;
+				}
+			}
+		}
+		syncExecutor.shutdown();
+		try{
+			session.logout(new NoOpSyncMetrics());
+		}
+		catch(IOException e){
+			if(failure == null){
+				failure = e;
+			}
+		}
+		finally{
+			session.shutDown();
+		}
+		if(failure != null){
+			throw failure;
+		}
+	}
+
+	/*
+	 * Called by a database after it commits data.
+	 */
+	synchronized void dataChanged(){
+		if(syncScheduler != null){
+			syncScheduler.dataChanged();
+		}
+	}
+
+	/*
+	 * Called by a database's cleanUp so it is no longer synced.
+	 */
+	void removeDatabase(SynchronizedDB theDB){
+		databases.remove(theDB);
+	}
+
+	private Callable<Void> syncAllTask(){
+		return new Callable<Void>(){
+			public Void call() throws Exception {
+				syncAll();
+				return null;
+			}
+		};
+	}
+
+	private static void rethrow(Throwable failure) throws DataAccessException, JSONException, IOException, InterruptedException, QCSynchronizationException{
+		if(failure instanceof IOException){
+			throw (IOException)failure;
+		}
+		else if(failure instanceof DataAccessException){
+			throw (DataAccessException)failure;
+		}
+		else if(failure instanceof JSONException){
+			throw (JSONException)failure;
+		}
+		else if(failure instanceof InterruptedException){
+			throw (InterruptedException)failure;
+		}
+		else if(failure instanceof QCSynchronizationException){
+			throw (QCSynchronizationException)failure;
+		}
+		else if(failure instanceof RuntimeException){
+			throw (RuntimeException)failure;
+		}
+		else if(failure instanceof Error){
+			throw (Error)failure;
+		}
+		throw new QCSynchronizationException(failure.toString());
+	}
+}
@@ -10,7 +10,12 @@ import org.quickconnectfamily.json.JSONUtilities;
  
 public class SyncData implements Serializable{
 	String lastSyncTime;
+	//the id that tells the values of the database apart from those of other databases synced with the same login
+	String database;
 	ArrayList<SyncItem> syncInfo;
+	//the continuation token of the next page to pull and the largest number of rows a page may hold
+	String continuation;
+	int pageSize;
     
 	@SuppressWarnings("unchecked")
 	public SyncData(String lastSync, ArrayList<ArrayList<String>> syncValues) throws JSONException {
@@ -20,7 +25,7 @@ public class SyncData implements Serializable{
 		while(rowIt.hasNext()){
 			ArrayList<String> aRow = rowIt.next();
 			ArrayList<Object> values = (ArrayList<Object>)JSONUtilities.parse(aRow.get(2));
-			SyncItem anItem = new SyncItem(aRow.get(0),aRow.get(1),values);
+			SyncItem anItem = new SyncItem(aRow.get(0),aRow.get(1),values,Long.parseLong(aRow.get(3)));
 			syncInfo.add(anItem);
 		}
 	}
@@ -7,6 +7,7 @@ public class SyncItem implements Serializable{
 	private String insertionTime;
 	private String key;
 	private ArrayList<Object> values;
+	private long id;
 	
 
 	public SyncItem(String insertionTime, String key, ArrayList<Object> values) {
@@ -14,4 +15,9 @@ public class SyncItem implements Serializable{
 		this.key = key;
 		this.values = values;
 	}
+	
+	public SyncItem(String insertionTime, String key, ArrayList<Object> values, long id) {
+		this(insertionTime, key, values);
+		this.id = id;
+	}
 }
@@ -0,0 +1,349 @@
+package org.quickconnectfamily.sync;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.quickconnectfamily.json.JSONException;
+
+/*
+ * Reads JSON from a Reader a token at a time so the items of a large sync response can be
+ * handled as they arrive instead of after the whole response has been parsed.  Objects are
+ * read into HashMaps, arrays into ArrayLists, integral numbers into Longs and other numbers into Doubles.
+ */
+class SyncJSONReader {
+	private static final int EMPTY_ARRAY = 1;
+	private static final int NONEMPTY_ARRAY = 2;
+	private static final int EMPTY_OBJECT = 3;
+	private static final int DANGLING_NAME = 4;
+	private static final int NONEMPTY_OBJECT = 5;
+
+	private Reader in;
+	private char[] buffer = new char[8192];
+	private int pos;
+	private int limit;
+	private int[] stack = new int[16];
+	private int depth;
+
+	SyncJSONReader(Reader in){
+		this.in = in;
+	}
+
+	void beginArray() throws IOException, JSONException{
+		beforeValue();
+		expect('[');
+		push(EMPTY_ARRAY);
+	}
+
+	void endArray() throws IOException, JSONException{
+		expect(']');
+		depth--;
+	}
+
+	void beginObject() throws IOException, JSONException{
+		beforeValue();
+		expect('{');
+		push(EMPTY_OBJECT);
+	}
+
+	void endObject() throws IOException, JSONException{
+		expect('}');
+		depth--;
+	}
+
+	/*
+	 * Returns true if the current array or object has another element.
+	 */
+	boolean hasNext() throws IOException, JSONException{
+		int next = peekChar();
+		return next != ']' && next != '}' && next != -1;
+	}
+
+	String nextName() throws IOException, JSONException{
+		int state = stack[depth - 1];
+		if(state == NONEMPTY_OBJECT){
+			expect(',');
+		}
+		else if(state != EMPTY_OBJECT){
+			throw new JSONException("Expected a value but found a name");
+		}
+		expect('"');
+		String aName = readString();
+		expect(':');
+		stack[depth - 1] = DANGLING_NAME;
+		return aName;
+	}
+
+	/*
+	 * Reads the next value of any type, including complete arrays and objects.
+	 */
+	Object nextValue() throws IOException, JSONException{
+		int next = peekChar();
+		if(next == '['){
+			beginArray();
+			ArrayList<Object> anArray = new ArrayList<Object>();
+			while(hasNext()){
+				anArray.add(nextValue());
+			}
+			endArray();
+			return anArray;
+		}
+		if(next == '{'){
+			beginObject();
+			HashMap<String,Object> anObject = new HashMap<String,Object>();
+			while(hasNext()){
+				String aName = nextName();
+				anObject.put(aName, nextValue());
+			}
+			endObject();
+			return anObject;
+		}
+		beforeValue();
+		next = peekChar();
+		if(next == '"'){
+			pos++;
+			return readString();
+		}
+		String literal = readLiteral();
+		if(literal.equals("null")){
+			return null;
+		}
+		if(literal.equals("true")){
+			return Boolean.TRUE;
+		}
+		if(literal.equals("false")){
+			return Boolean.FALSE;
+		}
+		try{
+			if(literal.indexOf('.') < 0 && literal.indexOf('e') < 0 && literal.indexOf('E') < 0){
+				try{
+					return Long.valueOf(literal);
+				}
+				catch(NumberFormatException tooLarge){
+					//fall through and read it as a double
+				}
+			}
+			return Double.valueOf(literal);
+		}
+		catch(NumberFormatException e){
+			throw new JSONException("Unexpected JSON value: "+literal);
+		}
+	}
+
+	/*
+	 * Reads a string value.  A null value is returned as null and numbers and booleans as their text.
+	 */
+	String nextString() throws IOException, JSONException{
+		Object aValue = nextValue();
+		return aValue == null ? null : aValue.toString();
+	}
+
+	void skipValue() throws IOException, JSONException{
+		nextValue();
+	}
+
+	/*
+	 * Returns the text of the next value, including complete arrays and objects, without converting it.  The text can be
+	 * read later, on any thread, by a SyncJSONReader of its own.  Only the nesting and strings of the value are tracked so
+	 * no objects are created for its contents.
+	 */
+	String nextRawValue() throws IOException, JSONException{
+		beforeValue();
+		peekChar();
+		StringBuilder raw = new StringBuilder();
+		int nesting = 0;
+		boolean inString = false;
+		boolean escaped = false;
+		while(true){
+			if(pos == limit && !fill()){
+				if(nesting == 0 && !inString && raw.length() > 0){
+					return raw.toString();
+				}
+				throw new JSONException("Unexpected end of JSON data");
+			}
+			int start = pos;
+			while(pos < limit){
+				char aChar = buffer[pos];
+				if(inString){
+					pos++;
+					if(escaped){
+						escaped = false;
+					}
+					else if(aChar == '\\'){
+						escaped = true;
+					}
+					else if(aChar == '"'){
+						inString = false;
+						if(nesting == 0){
+							return raw.append(buffer, start, pos - start).toString();
+						}
+					}
+				}
+				else if(aChar == '"'){
+					inString = true;
+					pos++;
+				}
+				else if(aChar == '[' || aChar == '{'){
+					nesting++;
+					pos++;
+				}
+				else if(aChar == ']' || aChar == '}'){
+					if(nesting == 0){
+						//the end of the enclosing array or object ends a literal
+						return raw.append(buffer, start, pos - start).toString();
+					}
+					nesting--;
+					pos++;
+					if(nesting == 0){
+						return raw.append(buffer, start, pos - start).toString();
+					}
+				}
+				else if(nesting == 0 && (aChar == ',' || aChar == ':' || aChar == ' ' || aChar == '\n' || aChar == '\r' || aChar == '\t')){
+					return raw.append(buffer, start, pos - start).toString();
+				}
+				else{
+					pos++;
+				}
+			}
+			raw.append(buffer, start, pos - start);
+		}
+	}
+
+	private void beforeValue() throws IOException, JSONException{
+		if(depth == 0){
+			return;
+		}
+		int state = stack[depth - 1];
+		if(state == EMPTY_ARRAY){
+			stack[depth - 1] = NONEMPTY_ARRAY;
+		}
+		else if(state == NONEMPTY_ARRAY){
+			expect(',');
+		}
+		else if(state == DANGLING_NAME){
+			stack[depth - 1] = NONEMPTY_OBJECT;
+		}
+		else{
+			throw new JSONException("Expected a name but found a value");
+		}
+	}
+
+	private void push(int state){
+		if(depth == stack.length){
+			int[] larger = new int[depth * 2];
+			System.arraycopy(stack, 0, larger, 0, depth);
+			stack = larger;
+		}
+		stack[depth++] = state;
+	}
+
+	private void expect(char expected) throws IOException, JSONException{
+		int next = peekChar();
+		if(next != expected){
+			throw new JSONException("Expected '"+expected+"' but found "+(next == -1 ? "the end of the data" : "'"+(char)next+"'"));
+		}
+		pos++;
+	}
+
+	/*
+	 * Skips white space and returns the next character without consuming it.  Returns -1 at the end of the data.
+	 */
+	private int peekChar() throws IOException{
+		while(true){
+			if(pos == limit && !fill()){
+				return -1;
+			}
+			char next = buffer[pos];
+			if(next != ' ' && next != '\n' && next != '\r' && next != '\t'){
+				return next;
+			}
+			pos++;
+		}
+	}
+
+	private boolean fill() throws IOException{
+		pos = 0;
+		limit = in.read(buffer, 0, buffer.length);
+		if(limit < 0){
+			limit = 0;
+			return false;
+		}
+		return true;
+	}
+
+	/*
+	 * Reads the rest of a string whose opening quote has already been consumed.
+	 */
+	private String readString() throws IOException, JSONException{
+		StringBuilder aBuilder = new StringBuilder();
+		while(true){
+			if(pos == limit && !fill()){
+				throw new JSONException("Unterminated JSON string");
+			}
+			int start = pos;
+			while(pos < limit){
+				char aChar = buffer[pos];
+				if(aChar == '"'){
+					aBuilder.append(buffer, start, pos - start);
+					pos++;
+					return aBuilder.toString();
+				}
+				if(aChar == '\\'){
+					aBuilder.append(buffer, start, pos - start);
+					pos++;
+					aBuilder.append(readEscape());
+					start = pos;
+					continue;
+				}
+				pos++;
+			}
+			aBuilder.append(buffer, start, pos - start);
+		}
+	}
+
+	private char readEscape() throws IOException, JSONException{
+		char escaped = readChar();
+		switch(escaped){
+			case 'n': return '\n';
+			case 'r': return '\r';
+			case 't': return '\t';
+			case 'b': return '\b';
+			case 'f': return '\f';
+			case 'u':
+				int code = 0;
+				for(int i = 0; i < 4; i++){
+					int digit = Character.digit(readChar(), 16);
+					if(digit < 0){
+						throw new JSONException("Invalid JSON unicode escape");
+					}
+					code = (code << 4) + digit;
+				}
+				return (char)code;
+			default: return escaped;
+		}
+	}
+
+	private char readChar() throws IOException, JSONException{
+		if(pos == limit && !fill()){
+			throw new JSONException("Unexpected end of JSON data");
+		}
+		return buffer[pos++];
+	}
+
+	private String readLiteral() throws IOException{
+		StringBuilder aBuilder = new StringBuilder();
+		while(true){
+			if(pos == limit && !fill()){
+				return aBuilder.toString();
+			}
+			char aChar = buffer[pos];
+			if(aChar == ',' || aChar == ']' || aChar == '}' || aChar == ':'
+					|| aChar == ' ' || aChar == '\n' || aChar == '\r' || aChar == '\t'){
+				return aBuilder.toString();
+			}
+			aBuilder.append(aChar);
+			pos++;
+		}
+	}
+}
@@ -0,0 +1,218 @@
+package org.quickconnectfamily.sync;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Writes JSON to a Writer a token at a time so large sync requests never have to
+ * exist as a single String.  Commas and colons are added as needed.
+ */
+class SyncJSONWriter {
+	private Writer out;
+	//one entry for each open array or object.  True once a member has been written to it.
+	private boolean[] hasMembers = new boolean[16];
+	private int depth;
+	private boolean nameWritten;
+
+	SyncJSONWriter(Writer out){
+		this.out = out;
+	}
+
+	SyncJSONWriter beginArray() throws IOException{
+		beforeValue();
+		out.write('[');
+		push();
+		return this;
+	}
+
+	SyncJSONWriter endArray() throws IOException{
+		depth--;
+		out.write(']');
+		return this;
+	}
+
+	SyncJSONWriter beginObject() throws IOException{
+		beforeValue();
+		out.write('{');
+		push();
+		return this;
+	}
+
+	SyncJSONWriter endObject() throws IOException{
+		depth--;
+		out.write('}');
+		return this;
+	}
+
+	SyncJSONWriter name(String aName) throws IOException{
+		if(hasMembers[depth - 1]){
+			out.write(',');
+		}
+		hasMembers[depth - 1] = true;
+		writeString(aName);
+		out.write(':');
+		nameWritten = true;
+		return this;
+	}
+
+	SyncJSONWriter value(String aString) throws IOException{
+		if(aString == null){
+			return nullValue();
+		}
+		beforeValue();
+		writeString(aString);
+		return this;
+	}
+
+	SyncJSONWriter value(long aNumber) throws IOException{
+		beforeValue();
+		out.write(Long.toString(aNumber));
+		return this;
+	}
+
+	SyncJSONWriter value(double aNumber) throws IOException{
+		if(Double.isNaN(aNumber) || Double.isInfinite(aNumber)){
+			return nullValue();
+		}
+		beforeValue();
+		out.write(Double.toString(aNumber));
+		return this;
+	}
+
+	SyncJSONWriter value(boolean aBoolean) throws IOException{
+		beforeValue();
+		out.write(aBoolean ? "true" : "false");
+		return this;
+	}
+
+	SyncJSONWriter nullValue() throws IOException{
+		beforeValue();
+		out.write("null");
+		return this;
+	}
+
+	/*
+	 * Writes text that is already JSON, such as the stored sql_params of a sync_values row, without re-encoding it.
+	 */
+	SyncJSONWriter rawValue(String someJSON) throws IOException{
+		if(someJSON == null){
+			return nullValue();
+		}
+		beforeValue();
+		out.write(someJSON);
+		return this;
+	}
+
+	/*
+	 * Writes Strings, Numbers, Booleans, Maps, Lists, and arrays.  Anything else is written as its toString value.
+	 */
+	@SuppressWarnings("unchecked")
+	SyncJSONWriter value(Object aValue) throws IOException{
+		if(aValue == null){
+			return nullValue();
+		}
+		if(aValue instanceof String){
+			return value((String)aValue);
+		}
+		if(aValue instanceof Double || aValue instanceof Float){
+			return value(((Number)aValue).doubleValue());
+		}
+		if(aValue instanceof Number){
+			return value(((Number)aValue).longValue());
+		}
+		if(aValue instanceof Boolean){
+			return value(((Boolean)aValue).booleanValue());
+		}
+		if(aValue instanceof Map){
+			beginObject();
+			Iterator<Map.Entry<Object,Object>> entryIt = ((Map<Object,Object>)aValue).entrySet().iterator();
+			while(entryIt.hasNext()){
+				Map.Entry<Object,Object> anEntry = entryIt.next();
+				name(String.valueOf(anEntry.getKey()));
+				value(anEntry.getValue());
+			}
+			return endObject();
+		}
+		if(aValue instanceof List){
+			beginArray();
+			for(Object anElement : (List<Object>)aValue){
+				value(anElement);
+			}
+			return endArray();
+		}
+		if(aValue.getClass().isArray()){
+			beginArray();
+			int length = Array.getLength(aValue);
+			for(int i = 0; i < length; i++){
+				value(Array.get(aValue, i));
+			}
+			return endArray();
+		}
+		return value(aValue.toString());
+	}
+
+	void flush() throws IOException{
+		out.flush();
+	}
+
+	private void push(){
+		if(depth == hasMembers.length){
+			boolean[] larger = new boolean[depth * 2];
+			System.arraycopy(hasMembers, 0, larger, 0, depth);
+			hasMembers = larger;
+		}
+		hasMembers[depth++] = false;
+	}
+
+	private void beforeValue() throws IOException{
+		if(nameWritten){
+			nameWritten = false;
+			return;
+		}
+		if(depth > 0){
+			if(hasMembers[depth - 1]){
+				out.write(',');
+			}
+			hasMembers[depth - 1] = true;
+		}
+	}
+
+	private void writeString(String aString) throws IOException{
+		out.write('"');
+		int length = aString.length();
+		int unwritten = 0;
+		for(int i = 0; i < length; i++){
+			char aChar = aString.charAt(i);
+			String replacement = null;
+			if(aChar == '"'){
+				replacement = "\\\"";
+			}
+			else if(aChar == '\\'){
+				replacement = "\\\\";
+			}
+			else if(aChar == '\n'){
+				replacement = "\\n";
+			}
+			else if(aChar == '\r'){
+				replacement = "\\r";
+			}
+			else if(aChar == '\t'){
+				replacement = "\\t";
+			}
+			else if(aChar < 0x20 || aChar == '\u2028' || aChar == '\u2029'){
+				replacement = String.format("\\u%04x", (int)aChar);
+			}
+			if(replacement != null){
+				out.write(aString, unwritten, i - unwritten);
+				out.write(replacement);
+				unwritten = i + 1;
+			}
+		}
+		out.write(aString, unwritten, length - unwritten);
+		out.write('"');
+	}
+}
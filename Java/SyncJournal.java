@@ -0,0 +1,204 @@
+package org.quickconnectfamily.sync;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.quickconnectfamily.dbaccess.DataAccessException;
+import org.quickconnectfamily.dbaccess.DataAccessResult;
+
+/*
+ * Reads and removes the values stored in the sync_values table by setData.  Rows are addressed by rowid
+ * so a sync can send and then remove exactly the rows it read, leaving any rows stored while it ran for the next sync.
+ */
+class SyncJournal {
+	static final int PAGE_ROWS = 500;
+	private static final String RANGE = " WHERE rowid > ? AND rowid <= ? ORDER BY rowid";
+
+	private SyncStorage storage;
+
+	SyncJournal(SyncStorage storage){
+		this.storage = storage;
+	}
+
+	/*
+	 * Returns the rowid of the most recently stored row or zero if there are none.
+	 */
+	long highWaterRowid() throws DataAccessException{
+		final long[] highWater = {0};
+		storage.query("SELECT ifnull(max(rowid),0) FROM sync_values", null, new QueryRowHandler(){
+			public boolean handleRow(QueryRow aRow) {
+				highWater[0] = aRow.getLong(0);
+				return false;
+			}
+		});
+		return highWater[0];
+	}
+
+	/*
+	 * Returns the rowid of the last row in the batch of rows that follow afterRowid.  The batch ends when adding another
+	 * row would exceed either limit or when upToRowid is reached.  A limit of zero or less is no limit.  A single row
+	 * larger than maxBytes is a batch by itself.  Returns upToRowid if there are no rows in the range.
+	 */
+	long findBatchEnd(long afterRowid, long upToRowid, final int maxRows, final long maxBytes) throws DataAccessException{
+		if(maxRows <= 0 && maxBytes <= 0){
+			return upToRowid;
+		}
+		int pageRows = maxRows > 0 ? maxRows : PAGE_ROWS;
+		//the end of the batch so far, the number of rows and bytes in it, and whether it is complete
+		final long[] batchEnd = {afterRowid};
+		final long[] batchSize = {0, 0};
+		final boolean[] batchFull = {false};
+		while(true){
+			final int[] pageCount = {0};
+			storage.query("SELECT rowid, ifnull(length(timeStamp),0) + ifnull(length(sql_key),0) + ifnull(length(sql_params),0) FROM sync_values"
+					+RANGE+" LIMIT "+pageRows, new Object[]{Long.valueOf(batchEnd[0]), Long.valueOf(upToRowid)}, new QueryRowHandler(){
+				public boolean handleRow(QueryRow aRow) {
+					pageCount[0]++;
+					long rowBytes = aRow.getLong(1);
+					if(maxBytes > 0 && batchSize[0] > 0 && batchSize[1] + rowBytes > maxBytes){
+						batchFull[0] = true;
+						return false;
+					}
+					batchEnd[0] = aRow.getLong(0);
+					batchSize[0]++;
+					batchSize[1] += rowBytes;
+					batchFull[0] = batchSize[0] == maxRows;
+					return !batchFull[0];
+				}
+			});
+			if(batchFull[0]){
+				return batchEnd[0];
+			}
+			if(pageCount[0] < pageRows){
+				return batchSize[0] == 0 ? upToRowid : batchEnd[0];
+			}
+		}
+	}
+
+	/*
+	 * Returns the rows following afterRowid up to and including upToRowid in rowid order with every field as a String.  
+	 * At most maxRows are included unless maxRows is zero.  The fields are timeStamp, sql_key, sql_params, and rowid 
+	 * in that order.  Binary sql_params are converted to JSON.
+	 */
+	ArrayList<ArrayList<String>> readRange(long afterRowid, long upToRowid, int maxRows) throws DataAccessException{
+		final ArrayList<ArrayList<String>> rows = new ArrayList<ArrayList<String>>();
+		storage.query(rangeSQL(maxRows), new Object[]{Long.valueOf(afterRowid), Long.valueOf(upToRowid)}, new QueryRowHandler(){
+			public boolean handleRow(QueryRow rangeRow) throws DataAccessException {
+				ArrayList<String> aRow = new ArrayList<String>(4);
+				aRow.add(rangeRow.getString(0));
+				aRow.add(rangeRow.getString(1));
+				if(isBinary(rangeRow, 2)){
+					try{
+						aRow.add(SyncValueCodec.toJSON(rangeRow.getBlob(2)));
+					}
+					catch(IOException e){
+						throw new DataAccessException("Error: unable to read sync values. "+e.getLocalizedMessage());
+					}
+				}
+				else{
+					aRow.add(rangeRow.getString(2));
+				}
+				aRow.add(rangeRow.getString(3));
+				rows.add(aRow);
+				return true;
+			}
+		});
+		return rows;
+	}
+
+	/*
+	 * Removes the rows with the given rowids.  Should be called while no other thread can remove rows.
+	 */
+	void removeRows(List<Long> rowids) throws DataAccessException{
+		storage.startTransaction();
+		boolean removed = false;
+		try{
+			for(int start = 0; start < rowids.size(); start += PAGE_ROWS){
+				List<Long> chunk = rowids.subList(start, Math.min(start + PAGE_ROWS, rowids.size()));
+				StringBuilder sql = new StringBuilder("DELETE FROM sync_values WHERE rowid IN (");
+				for(int i = 0; i < chunk.size(); i++){
+					sql.append(i == 0 ? "?" : ",?");
+				}
+				sql.append(')');
+				execute(sql.toString(), chunk.toArray());
+			}
+			removed = true;
+		}
+		finally{
+			storage.endTransaction(removed);
+		}
+	}
+
+	/*
+	 * Passes each row following afterRowid up to and including upToRowid to the handler in rowid order, reading
+	 * PAGE_ROWS rows at a time so only one page is ever held by the query.
+	 */
+	void readRange(long afterRowid, long upToRowid, final RowHandler handler) throws IOException{
+		final long[] pageStart = {afterRowid};
+		final int[] pageCount = {PAGE_ROWS};
+		//the handler's IOException is held while the query is closed and then thrown
+		final IOException[] handlerException = {null};
+		while(pageStart[0] < upToRowid && pageCount[0] == PAGE_ROWS){
+			pageCount[0] = 0;
+			try {
+				storage.query(rangeSQL(PAGE_ROWS), new Object[]{Long.valueOf(pageStart[0]), Long.valueOf(upToRowid)}, new QueryRowHandler(){
+					public boolean handleRow(QueryRow aRow) {
+						try{
+							handler.handleRow(aRow);
+						}
+						catch(IOException e){
+							handlerException[0] = e;
+							return false;
+						}
+						pageStart[0] = aRow.getLong(3);
+						pageCount[0]++;
+						return true;
+					}
+				});
+			} catch (DataAccessException e) {
+				throw new IOException(e);
+			}
+			if(handlerException[0] != null){
+				throw handlerException[0];
+			}
+		}
+	}
+
+	/*
+	 * Returns true if the field holds sql_params stored in the SyncValueCodec format rather than as JSON text.
+	 */
+	static boolean isBinary(QueryRow aRow, int index){
+		return aRow.isBlob(index);
+	}
+
+	/*
+	 * Removes every row up to and including upToRowid.  Should be called within the transaction that applies
+	 * the service's response to those rows.
+	 */
+	void remove(long upToRowid) throws DataAccessException{
+		execute("DELETE FROM sync_values WHERE rowid <= ?", new Object[]{Long.valueOf(upToRowid)});
+	}
+
+	/*
+	 * Receives the rows read by readRange.  The row's columns are timeStamp, sql_key, sql_params, and rowid in that order.
+	 */
+	interface RowHandler{
+		void handleRow(QueryRow aRow) throws IOException;
+	}
+
+	private static String rangeSQL(int maxRows){
+		String sql = "SELECT timeStamp, sql_key, sql_params, rowid FROM sync_values"+RANGE;
+		if(maxRows > 0){
+			sql += " LIMIT "+maxRows;
+		}
+		return sql;
+	}
+
+	private void execute(String sql, Object[] parameters) throws DataAccessException{
+		DataAccessResult aResult = storage.transact(sql, parameters);
+		if(!aResult.getErrorDescription().equals("not an error")){
+			throw new DataAccessException("Error: unable to remove sync values. "+aResult.getErrorDescription());
+		}
+	}
+}
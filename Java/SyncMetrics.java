@@ -0,0 +1,55 @@
+package org.quickconnectfamily.sync;
+
+/**
+ * Receives measurements of the work done by a SynchronizedDB.  Pass an implementation to the SynchronizedDB 
+ * setSyncMetrics method.  Methods are called on the thread doing the work, often while it holds a database lock, 
+ * so they should return quickly.  Extend NoOpSyncMetrics to receive only some of the measurements.
+ * 
+ * @author Lee S. Barney
+ *
+ */
+public interface SyncMetrics {
+	/**
+	 * Called when a phase of a sync has finished.
+	 * @param phase - the phase that finished.
+	 * @param nanos - the time the phase took in nanoseconds.
+	 */
+	public void phaseCompleted(SyncPhase phase, long nanos);
+	/**
+	 * Called after each sync, whether or not it succeeded.
+	 * @param nanos - the time the whole sync took in nanoseconds.
+	 * @param succeeded - false if the sync threw an exception.
+	 */
+	public void syncCompleted(long nanos, boolean succeeded);
+	/**
+	 * Called after the body of a request has been written to the connection.
+	 * @param bytes - the number of bytes written after any compression.
+	 */
+	public void bytesSent(long bytes);
+	/**
+	 * Called after the body of a response has been read.
+	 * @param bytes - the number of bytes read before any decompression.
+	 */
+	public void bytesReceived(long bytes);
+	/**
+	 * Called after a sync request has been accepted by the service.
+	 * @param rows - the number of stored setData values the request held.
+	 */
+	public void rowsUploaded(int rows);
+	/**
+	 * Called after the data of a sync response has been committed.
+	 * @param rows - the number of statements sent by the service that were executed.
+	 */
+	public void rowsApplied(int rows);
+	/**
+	 * Called each time a database lock has been acquired.
+	 * @param nanos - the time spent waiting for the lock in nanoseconds.
+	 * @param exclusive - true for the lock held while setting data, false for the lock shared by getData calls.
+	 */
+	public void lockWaited(long nanos, boolean exclusive);
+	/**
+	 * Called when a setData call returns.
+	 * @param nanos - the time the call took in nanoseconds, including any time waiting for the database lock.
+	 */
+	public void setDataCompleted(long nanos);
+}
@@ -0,0 +1,43 @@
+package org.quickconnectfamily.sync;
+
+/**
+ * The phases of a sync whose durations are reported to a SyncMetrics.  A sync that sends its data in batches or 
+ * receives it in pages reports the phases of each batch separately.
+ * 
+ * @author Lee S. Barney
+ *
+ */
+public enum SyncPhase {
+	/**
+	 * Logging in to the HTTP service.  Only reported when a login request is sent.
+	 */
+	LOGIN,
+	/**
+	 * Reading the stored setData values being sent.  Streamed requests read the values while they are sent so this time is part of NETWORK.
+	 */
+	JOURNAL_READ,
+	/**
+	 * Converting the values being sent to JSON.  Streamed requests encode the values while they are sent so this time is part of NETWORK.
+	 */
+	ENCODE,
+	/**
+	 * Downloading a snapshot of the service's data to a file before a database's first sync.  Installing the snapshot is reported as APPLY.
+	 */
+	SNAPSHOT,
+	/**
+	 * Sending the request and waiting for the service to start its response.
+	 */
+	NETWORK,
+	/**
+	 * Receiving and parsing the body of the response.  Streamed responses are received and parsed while they are applied so this time is part of APPLY.
+	 */
+	DECODE,
+	/**
+	 * Executing the statements sent by the service, including the time the database lock was waited for.
+	 */
+	APPLY,
+	/**
+	 * Removing the values the service acknowledged and committing the transaction they were applied in.
+	 */
+	CLEAR
+}
@@ -0,0 +1,147 @@
+package org.quickconnectfamily.sync;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URLEncoder;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+/*
+ * An HTTP entity that writes a sync request straight from the sync_values table to the connection.
+ * Rows are read a page at a time.  sql_params stored as JSON are copied without being parsed and
+ * binary sql_params are converted straight to JSON.  The JSON is either form encoded as the data field so the service sees the same request as a non-streaming sync, 
+ * or sent as the whole body with a content type of application/json.
+ */
+class SyncRequestEntity extends AbstractHttpEntity {
+	private SyncJournal journal;
+	private String databaseId;
+	private String lastSync;
+	private String pullToken;
+	private int pullPageSize;
+	private long afterRowid;
+	private long upToRowid;
+	private int rowsWritten;
+	private boolean formEncoded;
+
+	SyncRequestEntity(SyncJournal journal, String databaseId, String lastSync, String pullToken, int pullPageSize, long afterRowid, long upToRowid, boolean formEncoded){
+		this.journal = journal;
+		this.databaseId = databaseId;
+		this.lastSync = lastSync;
+		this.pullToken = pullToken;
+		this.pullPageSize = pullPageSize;
+		this.afterRowid = afterRowid;
+		this.upToRowid = upToRowid;
+		this.formEncoded = formEncoded;
+		setContentType(formEncoded ? "application/x-www-form-urlencoded; charset=UTF-8" : "application/json; charset=UTF-8");
+		setChunked(true);
+	}
+
+	//the rows being sent are not removed until the response has been applied so they can be read again
+	public boolean isRepeatable() {
+		return true;
+	}
+
+	/*
+	 * Returns the number of rows written the last time the entity was written.
+	 */
+	int getRowsWritten(){
+		return rowsWritten;
+	}
+
+	public long getContentLength() {
+		return -1;
+	}
+
+	public boolean isStreaming() {
+		return false;
+	}
+
+	public InputStream getContent() throws IOException {
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		writeTo(content);
+		return new ByteArrayInputStream(content.toByteArray());
+	}
+
+	public void writeTo(OutputStream outstream) throws IOException {
+		Writer encoder = null;
+		if(formEncoded){
+			outstream.write("cmd=sync&data=".getBytes("US-ASCII"));
+			encoder = new FormEncodingWriter(outstream);
+		}
+		else{
+			encoder = new OutputStreamWriter(outstream, "UTF-8");
+		}
+		final SyncJSONWriter json = new SyncJSONWriter(encoder);
+		json.beginObject().name("database").value(databaseId).name("lastSyncTime").value(lastSync);
+		if(pullToken != null){
+			json.name("continuation").value(pullToken);
+		}
+		if(pullPageSize > 0){
+			json.name("pageSize").value(pullPageSize);
+		}
+		json.name("syncInfo").beginArray();
+		rowsWritten = 0;
+		journal.readRange(afterRowid, upToRowid, new SyncJournal.RowHandler(){
+			public void handleRow(QueryRow aRow) throws IOException {
+				rowsWritten++;
+				json.beginObject()
+					.name("id").value(aRow.getLong(3))
+					.name("insertionTime").value(aRow.getString(0))
+					.name("key").value(aRow.getString(1))
+					.name("values");
+				if(SyncJournal.isBinary(aRow, 2)){
+					SyncValueCodec.writeJSON(aRow.getBlob(2), json);
+				}
+				else{
+					json.rawValue(aRow.getString(2));
+				}
+				json.endObject();
+			}
+		});
+		json.endArray().endObject();
+		encoder.flush();
+	}
+
+	/*
+	 * URL encodes characters as they are written.  A high surrogate is held back until its pair arrives.
+	 */
+	private static class FormEncodingWriter extends Writer{
+		private static final int ENCODE_SIZE = 4096;
+		private OutputStream out;
+		private StringBuilder pending = new StringBuilder();
+
+		FormEncodingWriter(OutputStream out){
+			this.out = out;
+		}
+
+		public void write(char[] chars, int offset, int length) throws IOException {
+			pending.append(chars, offset, length);
+			if(pending.length() >= ENCODE_SIZE){
+				encodePending(false);
+			}
+		}
+
+		public void flush() throws IOException {
+			encodePending(true);
+			out.flush();
+		}
+
+		public void close() throws IOException {
+			flush();
+		}
+
+		private void encodePending(boolean all) throws IOException{
+			int end = pending.length();
+			if(!all && end > 0 && Character.isHighSurrogate(pending.charAt(end - 1))){
+				end--;
+			}
+			out.write(URLEncoder.encode(pending.substring(0, end), "UTF-8").getBytes("US-ASCII"));
+			pending.delete(0, end);
+		}
+	}
+}
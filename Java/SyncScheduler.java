@@ -0,0 +1,159 @@
+package org.quickconnectfamily.sync;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Runs the syncs of a SynchronizedDB, or of every database of a SyncCoordinator, on a background thread.  Requests made while a sync is in flight share that
+ * sync's future.  Writes are debounced into a single sync, syncs can be run periodically, and automatic syncs back off
+ * exponentially after network or service failures.  A time of zero or less turns the matching behavior off.
+ */
+class SyncScheduler {
+	private Callable<?> syncTask;
+	private ScheduledExecutorService executor;
+	private long debounceMillis;
+	private long initialBackoffMillis;
+	private long maxBackoffMillis;
+
+	//all of the following are guarded by this
+	private CompletableFuture<Void> inFlight;
+	private boolean syncRequestedDuringFlight;
+	private ScheduledFuture<?> debounceTimer;
+	private ScheduledFuture<?> retryTimer;
+	private int consecutiveFailures;
+	private long backoffUntil;
+
+	private Runnable automaticTrigger = new Runnable(){
+		public void run() {
+			automaticSync();
+		}
+	};
+
+	SyncScheduler(Callable<?> syncTask, final String threadName, long debounceMillis, long periodMillis, long initialBackoffMillis, long maxBackoffMillis){
+		this.syncTask = syncTask;
+		this.debounceMillis = debounceMillis;
+		this.initialBackoffMillis = initialBackoffMillis;
+		this.maxBackoffMillis = Math.max(maxBackoffMillis, initialBackoffMillis);
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+			public Thread newThread(Runnable aRunnable) {
+				Thread syncThread = new Thread(aRunnable, threadName);
+				syncThread.setDaemon(true);
+				return syncThread;
+			}
+		});
+		if(periodMillis > 0){
+			executor.scheduleWithFixedDelay(automaticTrigger, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/*
+	 * Starts a sync now unless one is already in flight, in which case the in flight sync's future is returned.
+	 */
+	synchronized CompletableFuture<Void> requestSync(){
+		if(inFlight != null){
+			return inFlight;
+		}
+		final CompletableFuture<Void> thisSync = new CompletableFuture<Void>();
+		try{
+			executor.execute(new Runnable(){
+				public void run() {
+					runSync(thisSync);
+				}
+			});
+			inFlight = thisSync;
+		}
+		catch(RejectedExecutionException e){
+			thisSync.completeExceptionally(new IOException("The sync scheduler has been stopped.", e));
+		}
+		return thisSync;
+	}
+
+	/*
+	 * Called after data has been committed.  Each call restarts the debounce timer so a burst of writes causes one sync.
+	 */
+	synchronized void dataChanged(){
+		if(debounceMillis <= 0 || executor.isShutdown()){
+			return;
+		}
+		if(debounceTimer != null){
+			debounceTimer.cancel(false);
+		}
+		debounceTimer = executor.schedule(automaticTrigger, debounceMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/*
+	 * Stops all automatic syncs.  A sync already in flight is allowed to finish.
+	 */
+	synchronized void stop(){
+		executor.shutdown();
+	}
+
+	/*
+	 * Debounced, periodic, and retry syncs come here.  They wait out any backoff and are folded into a sync that is already in flight.
+	 */
+	private synchronized void automaticSync(){
+		long backoffRemaining = backoffUntil - System.currentTimeMillis();
+		if(backoffRemaining > 0){
+			scheduleRetry(backoffRemaining);
+			return;
+		}
+		if(inFlight != null){
+			syncRequestedDuringFlight = true;
+			return;
+		}
+		requestSync();
+	}
+
+	private void scheduleRetry(long delayMillis){
+		if(executor.isShutdown() || (retryTimer != null && !retryTimer.isDone())){
+			return;
+		}
+		retryTimer = executor.schedule(automaticTrigger, delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private void runSync(CompletableFuture<Void> thisSync){
+		Exception failure = null;
+		try{
+			syncTask.call();
+		}
+		catch(Exception e){
+			failure = e;
+		}
+		boolean syncAgain = false;
+		synchronized(this){
+			inFlight = null;
+			if(failure == null){
+				consecutiveFailures = 0;
+				backoffUntil = 0;
+				syncAgain = syncRequestedDuringFlight;
+			}
+			else if((failure instanceof IOException || failure instanceof QCSynchronizationException) && initialBackoffMillis > 0){
+				consecutiveFailures++;
+				long backoff = initialBackoffMillis;
+				for(int i = 1; i < consecutiveFailures && backoff < maxBackoffMillis; i++){
+					backoff *= 2;
+				}
+				backoff = Math.min(backoff, maxBackoffMillis);
+				backoffUntil = System.currentTimeMillis() + backoff;
+				scheduleRetry(backoff);
+			}
+			syncRequestedDuringFlight = false;
+		}
+		if(failure == null){
+			thisSync.complete(null);
+		}
+		else{
+			thisSync.completeExceptionally(failure);
+		}
+		if(syncAgain){
+			automaticSync();
+		}
+	}
+}
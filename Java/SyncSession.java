@@ -0,0 +1,318 @@
+package org.quickconnectfamily.sync;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+
+import org.apache.http.Header;
+import org.apache.http.HttpConnection;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.protocol.ClientContext;
+import org.apache.http.conn.ConnectionReleaseTrigger;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+import org.quickconnectfamily.json.JSONUtilities;
+
+/*
+ * The HTTP client, cookies, and login of an HTTP sync service.  A session is used by a single SynchronizedDB or shared
+ * by every SynchronizedDB of a SyncCoordinator, in which case its requests may run concurrently.  Each request gets its
+ * own HTTP context whose parent holds the session's cookies, since a context is changed while a request executes.
+ */
+class SyncSession {
+	private static final String ACCEPT_ENCODING = "Accept-Encoding";
+	private static final String RESPONSE_ENCODINGS = "gzip, deflate";
+	//the request encodings sent to the service at login
+	private static final String CLIENT_ENCODINGS = "form,json,binary,gzip";
+
+	private URI remoteURL;
+	private String remoteUname;
+	private String remotePword;
+	private HttpClient httpClient;
+	private HttpContext sessionContext;
+	//guarded by this
+	private boolean loggedIn;
+	//set from the encodings the service lists in its login response
+	private volatile boolean serviceAcceptsCompression;
+
+	/*
+	 * A maxConnections of zero or less keeps the connection manager's default limits.
+	 */
+	SyncSession(URL aRemoteURL, int port, String aRemoteUname, String aRemotePword, int maxConnections) throws URISyntaxException{
+		remoteURL = aRemoteURL.toURI();
+		remoteUname = aRemoteUname;
+		remotePword = aRemotePword;
+
+		SchemeRegistry schemeRegistry = new SchemeRegistry();
+		if(aRemoteURL.toExternalForm().indexOf("http") == 0){
+			schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), port));
+		}
+		else if(aRemoteURL.toExternalForm().indexOf("https") == 0){
+			schemeRegistry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), port));
+		}
+		HttpParams params = new BasicHttpParams();
+		HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+		HttpProtocolParams.setContentCharset(params, "utf-8");
+		if(maxConnections > 0){
+			//every request goes to the same service so the route limit is the pool size
+			ConnManagerParams.setMaxTotalConnections(params, maxConnections);
+			ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(maxConnections));
+		}
+
+		ThreadSafeClientConnManager cm = new ThreadSafeClientConnManager(params, schemeRegistry);
+
+		httpClient = new DefaultHttpClient(cm, params);
+
+		// Create a local instance of cookie store
+	    CookieStore cookieStore = new BasicCookieStore();
+
+	    // Create the HTTP context shared by every request of the session
+	    sessionContext = new BasicHttpContext();
+	    // Bind custom cookie store to the session context
+	    sessionContext.setAttribute(ClientContext.COOKIE_STORE, cookieStore);
+	}
+
+	URI getRemoteURL(){
+		return remoteURL;
+	}
+
+	/*
+	 * Returns the remote URL with the command added to its query string, for requests whose body is not a form.
+	 */
+	URI commandURL(String command){
+		return URI.create(remoteURL.toString()+(remoteURL.getRawQuery() == null ? "?" : "&")+"cmd="+command);
+	}
+
+	boolean acceptsCompression(){
+		return serviceAcceptsCompression;
+	}
+
+	/*
+	 * Called when the service rejects a compressed request.  Requests are form encoded for the rest of the session,
+	 * since it only logs in once.
+	 */
+	void compressionRejected(){
+		serviceAcceptsCompression = false;
+	}
+
+	/*
+	 * Logs in unless the session already has.  Concurrent callers wait for a single login.
+	 */
+	@SuppressWarnings("unchecked")
+	synchronized void login(SyncMetrics metrics) throws IOException{
+		if(!loggedIn){
+			long loginStart = System.nanoTime();
+			try {
+				List <NameValuePair> nameValuePairList = new ArrayList <NameValuePair>();
+				nameValuePairList.add(new BasicNameValuePair("cmd", "login"));
+				nameValuePairList.add(new BasicNameValuePair("uname", this.remoteUname));
+				nameValuePairList.add(new BasicNameValuePair("pword", this.remotePword));
+				//tells the service which request encodings this client can send
+				nameValuePairList.add(new BasicNameValuePair("sync_encodings", CLIENT_ENCODINGS));
+
+				HttpResponse response = executePost(new UrlEncodedFormEntity(nameValuePairList, HTTP.UTF_8), remoteURL, metrics);
+				if(response.getStatusLine().getStatusCode() / 200 == 1){
+					String JSONString = readResponse(response, metrics);
+					ArrayList<Object> resultList = (ArrayList<Object>) JSONUtilities.parse(JSONString);
+					HashMap<String,Object> resultMap = (HashMap<String,Object>)resultList.get(0);
+					String error = (String)resultMap.get("sync_error");
+					if(error != null){
+						throw new IOException(error);
+					}
+					else{
+						serviceAcceptsCompression = listsEncoding(resultMap.get("sync_encodings"), "gzip");
+						loggedIn = true;
+						metrics.phaseCompleted(SyncPhase.LOGIN, System.nanoTime() - loginStart);
+					}
+				}
+				else{
+					throw new IOException("Invalid user name or password");
+				}
+			}
+			catch(Exception e){
+				throw new IOException(e);
+			}
+		}
+	}
+
+	/*
+	 * Sends a logout command to the service.
+	 */
+	void logout(SyncMetrics metrics) throws IOException{
+		try {
+			List <NameValuePair> nameValuePairList = new ArrayList <NameValuePair>();
+			nameValuePairList.add(new BasicNameValuePair("cmd", "logout"));
+
+			HttpResponse response = executePost(new UrlEncodedFormEntity(nameValuePairList, HTTP.UTF_8), remoteURL, metrics);
+			if(response.getStatusLine().getStatusCode() / 200 != 1){
+				throw new IOException("Unable to logout");
+			}
+		}
+		catch(Exception e){
+			throw new IOException(e);
+		}
+	}
+
+	/*
+	 * Shuts down the connection manager to ensure immediate deallocation of all system resources.
+	 */
+	void shutDown(){
+		httpClient.getConnectionManager().shutdown();
+	}
+
+	HttpResponse executePost(HttpEntity requestEntity, URI requestURL, SyncMetrics metrics) throws ClientProtocolException, IOException{
+		return executePost(requestEntity, requestURL, metrics, 0);
+	}
+
+	/*
+	 * Posts the entity, failing with an IOException if the connection goes the socket timeout in milliseconds without
+	 * sending the request or receiving the start of the response.  The body of the response is read with the client's 
+	 * timeout since it is read at the pace of its caller, which may be waiting for the database.  A timeout of zero or 
+	 * less keeps the client's timeout throughout.
+	 */
+	HttpResponse executePost(HttpEntity requestEntity, URI requestURL, SyncMetrics metrics, int socketTimeoutMillis) throws ClientProtocolException, IOException{
+		HttpPost httppost = new HttpPost(requestURL);
+		if(socketTimeoutMillis > 0){
+			HttpConnectionParams.setSoTimeout(httppost.getParams(), socketTimeoutMillis);
+		}
+		httppost.setEntity(new CountingEntity(requestEntity, metrics));
+		httppost.addHeader(ACCEPT_ENCODING, RESPONSE_ENCODINGS);
+		HttpContext requestContext = new BasicHttpContext(sessionContext);
+		HttpResponse response = httpClient.execute(httppost, requestContext);
+		if(socketTimeoutMillis > 0){
+			Object connection = requestContext.getAttribute(ExecutionContext.HTTP_CONNECTION);
+			if(connection instanceof HttpConnection){
+				((HttpConnection)connection).setSocketTimeout(HttpConnectionParams.getSoTimeout(httpClient.getParams()));
+			}
+		}
+		return response;
+	}
+
+	/*
+	 * Returns the body of a response, decompressing it if the service compressed it.
+	 */
+	InputStream openResponse(HttpResponse response, SyncMetrics metrics) throws IOException{
+		return openResponse(response, metrics, null);
+	}
+
+	/*
+	 * Returns the body of a response to a request encrypted with the binding, decrypting and then decompressing it.  A response 
+	 * that is not encrypted, or not bound to the request, is rejected.  A null binding opens the body in the same way as 
+	 * openResponse(HttpResponse, SyncMetrics).
+	 */
+	InputStream openResponse(HttpResponse response, SyncMetrics metrics, PayloadEncryption.Binding requestBinding) throws IOException{
+		HttpEntity responseEntity = response.getEntity();
+		InputStream content = new CountingInputStream(responseEntity.getContent(), metrics);
+		Header contentEncoding = responseEntity.getContentEncoding();
+		String codings = contentEncoding == null ? null : contentEncoding.getValue();
+		if(requestBinding != null){
+			if(!PayloadEncryption.isEncrypted(codings)){
+				content.close();
+				throw new IOException("Error: the service sent an unencrypted response to an encrypted request.");
+			}
+			content = new PayloadEncryption.DecryptingInputStream(content, requestBinding.response());
+			codings = PayloadEncryption.innerCodings(codings);
+		}
+		if(codings != null){
+			String codec = codings.trim().toLowerCase(Locale.US);
+			if(codec.equals("gzip") || codec.equals("x-gzip")){
+				return new GZIPInputStream(content);
+			}
+			else if(codec.equals("deflate")){
+				return new InflaterInputStream(content);
+			}
+		}
+		return content;
+	}
+
+	/*
+	 * Closes the connection of a response without reading the rest of its body.  A thread blocked reading the body, which 
+	 * an interrupt does not wake, then fails with an IOException.  Closing the body instead would read it to its end.
+	 */
+	void abortResponse(HttpResponse response){
+		HttpEntity responseEntity = response.getEntity();
+		if(responseEntity instanceof ConnectionReleaseTrigger){
+			try{
+				((ConnectionReleaseTrigger)responseEntity).abortConnection();
+			}
+			catch(IOException e){
+				//the connection is being discarded so there is nothing more to do
+			}
+		}
+	}
+
+	String readResponse(HttpResponse response, SyncMetrics metrics) throws IOException{
+		return readResponse(response, metrics, null);
+	}
+
+	String readResponse(HttpResponse response, SyncMetrics metrics, PayloadEncryption.Binding requestBinding) throws IOException{
+		Reader responseReader = new InputStreamReader(openResponse(response, metrics, requestBinding), HTTP.UTF_8);
+		try{
+			StringBuilder responseText = new StringBuilder();
+			char[] buffer = new char[4096];
+			int count = 0;
+			while((count = responseReader.read(buffer)) != -1){
+				responseText.append(buffer, 0, count);
+			}
+			return responseText.toString();
+		}
+		finally{
+			responseReader.close();
+		}
+	}
+
+	/*
+	 * The service may list its encodings as a comma separated String or as a JSON array.
+	 */
+	private static boolean listsEncoding(Object encodings, String anEncoding){
+		if(encodings instanceof List){
+			for(Object listed : (List<?>)encodings){
+				if(listed != null && listed.toString().trim().equalsIgnoreCase(anEncoding)){
+					return true;
+				}
+			}
+		}
+		else if(encodings != null){
+			for(String listed : encodings.toString().split(",")){
+				if(listed.trim().equalsIgnoreCase(anEncoding)){
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,170 @@
+package org.quickconnectfamily.sync;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.zip.GZIPInputStream;
+
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.quickconnectfamily.json.JSONException;
+
+/*
+ * Downloads and installs a snapshot of the service's data for a database that has never synced.  A snapshot is sent
+ * in response to cmd=snapshot with a content type of application/x-qc-snapshot.  Its body is always gzip compressed
+ * and is stored in a file exactly as received, so the snapshot is never held in memory.  Once decompressed it is the
+ * bytes 'Q', 'C', 'N', and the format version followed by the sync time the snapshot was taken at.  Then, for each
+ * row, a varint 1, the key, and the row's parameters as in SyncBinaryRequestEntity.  A varint 0 ends the snapshot.
+ * Strings are a varint length followed by UTF-8 bytes.  An encrypted snapshot is encrypted after it is compressed, as
+ * described in PayloadEncryption.
+ */
+class SyncSnapshot {
+	static final String CONTENT_TYPE = "application/x-qc-snapshot";
+	static final int SNAPSHOT_VERSION = 1;
+
+	/*
+	 * Returns true if the response holds a snapshot rather than an error or a response from a service without snapshots.
+	 */
+	static boolean isSnapshot(HttpResponse response){
+		if(response.getStatusLine().getStatusCode() / 200 != 1 || response.getEntity() == null){
+			return false;
+		}
+		Header contentType = response.getEntity().getContentType();
+		return contentType != null && contentType.getValue().trim().startsWith(CONTENT_TYPE);
+	}
+
+	/*
+	 * Copies the compressed snapshot in the response to a new file in the directory.  A snapshot sent in response to a request 
+	 * encrypted with a binding must be encrypted too.  It is stored encrypted.
+	 */
+	static File download(HttpResponse response, File directory, SyncMetrics metrics, PayloadEncryption.Binding requestBinding) throws IOException{
+		HttpEntity responseEntity = response.getEntity();
+		if(requestBinding != null){
+			Header contentEncoding = responseEntity.getContentEncoding();
+			if(contentEncoding == null || !PayloadEncryption.isEncrypted(contentEncoding.getValue())){
+				responseEntity.consumeContent();
+				throw new IOException("Error: the service sent an unencrypted snapshot to an encrypted request.");
+			}
+		}
+		File snapshotFile = File.createTempFile("qcsync", ".snapshot", directory);
+		boolean downloaded = false;
+		InputStream content = new CountingInputStream(responseEntity.getContent(), metrics);
+		try{
+			OutputStream snapshotOut = new FileOutputStream(snapshotFile);
+			try{
+				byte[] buffer = new byte[8192];
+				int count = 0;
+				while((count = content.read(buffer)) != -1){
+					snapshotOut.write(buffer, 0, count);
+				}
+			}
+			finally{
+				snapshotOut.close();
+			}
+			downloaded = true;
+			return snapshotFile;
+		}
+		finally{
+			content.close();
+			if(!downloaded){
+				snapshotFile.delete();
+			}
+		}
+	}
+
+	/*
+	 * Executes every row of the snapshot and stores its sync time using the applier.  The applier's transaction must have begun.  
+	 * The binding of the request for the snapshot is null unless the snapshot was downloaded encrypted.
+	 */
+	static void install(File snapshotFile, SyncApplier applier, PayloadEncryption.Binding requestBinding) throws IOException, JSONException, QCSynchronizationException{
+		InputStream fileIn = new BufferedInputStream(new FileInputStream(snapshotFile), 8192);
+		if(requestBinding != null){
+			fileIn = new PayloadEncryption.DecryptingInputStream(fileIn, requestBinding.response());
+		}
+		InputStream snapshotIn = new GZIPInputStream(fileIn, 8192);
+		try{
+			if(snapshotIn.read() != 'Q' || snapshotIn.read() != 'C' || snapshotIn.read() != 'N'){
+				throw new IOException("Not a sync snapshot");
+			}
+			int version = snapshotIn.read();
+			if(version != SNAPSHOT_VERSION){
+				throw new IOException("Unsupported sync snapshot version "+version);
+			}
+			String syncTime = readString(snapshotIn);
+			while(readVarint(snapshotIn) == 1){
+				String sqlKey = readString(snapshotIn);
+				applier.apply(sqlKey, readParameters(snapshotIn));
+			}
+			applier.applyCheckpoint(syncTime, null);
+		}
+		finally{
+			snapshotIn.close();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static ArrayList<Object> readParameters(InputStream in) throws IOException, JSONException{
+		int kind = readByte(in);
+		if(kind == SyncBinaryRequestEntity.PARAMS_NULL){
+			return null;
+		}
+		byte[] stored = readBytes(in);
+		if(kind == SyncBinaryRequestEntity.PARAMS_BINARY){
+			return SyncValueCodec.decode(stored);
+		}
+		else if(kind == SyncBinaryRequestEntity.PARAMS_JSON){
+			return (ArrayList<Object>)new SyncJSONReader(new StringReader(new String(stored, "UTF-8"))).nextValue();
+		}
+		throw new IOException("Unknown sync snapshot parameter kind "+kind);
+	}
+
+	private static String readString(InputStream in) throws IOException{
+		return new String(readBytes(in), "UTF-8");
+	}
+
+	private static byte[] readBytes(InputStream in) throws IOException{
+		long length = readVarint(in);
+		if(length > Integer.MAX_VALUE){
+			throw new IOException("Sync snapshot value too long");
+		}
+		byte[] bytes = new byte[(int)length];
+		int read = 0;
+		while(read < bytes.length){
+			int count = in.read(bytes, read, bytes.length - read);
+			if(count < 0){
+				throw new EOFException("Truncated sync snapshot");
+			}
+			read += count;
+		}
+		return bytes;
+	}
+
+	private static long readVarint(InputStream in) throws IOException{
+		long value = 0;
+		for(int shift = 0; shift < 64; shift += 7){
+			int aByte = readByte(in);
+			value |= (long)(aByte & 0x7F) << shift;
+			if((aByte & 0x80) == 0){
+				return value;
+			}
+		}
+		throw new IOException("Malformed sync snapshot varint");
+	}
+
+	private static int readByte(InputStream in) throws IOException{
+		int aByte = in.read();
+		if(aByte < 0){
+			throw new EOFException("Truncated sync snapshot");
+		}
+		return aByte;
+	}
+}
@@ -0,0 +1,22 @@
+package org.quickconnectfamily.sync;
+
+import org.quickconnectfamily.dbaccess.DataAccessException;
+
+/**
+ * A statement prepared by a SyncStorage that can be executed many times with different parameters.
+ * 
+ * @author Lee S. Barney
+ *
+ */
+public interface SyncStatement {
+	/**
+	 * Binds the parameters to the statement's ? place holders in their SQLite types and executes it.
+	 * @param parameters - the values to bind, or null if the statement has no place holders.
+	 * @throws DataAccessException if the statement fails.
+	 */
+	public void execute(Object[] parameters) throws DataAccessException;
+	/**
+	 * Releases the statement.
+	 */
+	public void close();
+}
@@ -0,0 +1,59 @@
+package org.quickconnectfamily.sync;
+
+import org.quickconnectfamily.dbaccess.DataAccessException;
+import org.quickconnectfamily.dbaccess.DataAccessResult;
+
+/**
+ * The database a SynchronizedDB keeps in sync.  AndroidSyncStorage stores the data in an SQLite file on an Android 
+ * device and JDBCSyncStorage stores it through any SQLite JDBC driver, so the same sync engine can run on a device, 
+ * on a server, or in a desktop JVM.
+ * <br/>
+ * A SynchronizedDB makes sure only one thread at a time executes statements that change data or has a transaction 
+ * open.  Queries may be run by any number of threads at once, including while a transaction is open.  A query run 
+ * by the thread that has the transaction open must see the transaction's changes.
+ * 
+ * @author Lee S. Barney
+ *
+ */
+public interface SyncStorage {
+	/**
+	 * Executes a statement in the way the QCDBAccess DataAccessObject.transact method does.  SQL errors are reported in the 
+	 * result's error description rather than thrown.
+	 * @param sql - the SQL to execute.
+	 * @param parameters - the values bound to the ? place holders in the SQL, or null.
+	 * @return the field names and rows of a query as Strings, and an error description of "not an error" if the statement succeeded.
+	 * @throws DataAccessException if the database could not be used at all.
+	 */
+	public DataAccessResult transact(String sql, Object[] parameters) throws DataAccessException;
+	/**
+	 * Runs a query and passes each row of the result to the handler as soon as it has been read.
+	 * @param sql - the query to run.
+	 * @param parameters - the values bound to the ? place holders in the SQL, or null.
+	 * @param handler - receives each row in turn.  Returning false stops the query.
+	 * @throws DataAccessException if the query fails or the handler throws it.
+	 */
+	public void query(String sql, Object[] parameters, QueryRowHandler handler) throws DataAccessException;
+	/**
+	 * Prepares a statement that changes data so it can be executed many times with different parameters.
+	 * @param sql - the SQL to prepare.
+	 * @return the prepared statement.  It must be closed when it is no longer needed.
+	 * @throws DataAccessException if the SQL is not valid.
+	 */
+	public SyncStatement compile(String sql) throws DataAccessException;
+	/**
+	 * Starts a transaction.  Transactions may be nested.  Only the outermost pair of calls starts and ends the database transaction.
+	 * @throws DataAccessException
+	 */
+	public void startTransaction() throws DataAccessException;
+	/**
+	 * Ends the most recently started transaction.  The database transaction is committed when the outermost transaction 
+	 * ends unless any of the nested transactions ended without committing.
+	 * @param commit - false to roll the transaction back.
+	 * @throws DataAccessException
+	 */
+	public void endTransaction(boolean commit) throws DataAccessException;
+	/**
+	 * Releases the database.  The storage can not be used afterward.
+	 */
+	public void close();
+}
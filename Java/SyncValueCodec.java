@@ -0,0 +1,196 @@
+package org.quickconnectfamily.sync;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+
+/*
+ * Encodes the parameters of a setData call as a compact typed row for the sync_values table.  A row is a format
+ * byte, a varint count, and then one tagged value per parameter.  Integers are zig-zag varints, doubles are eight
+ * big endian bytes, and Strings and byte arrays are a varint length followed by their UTF-8 or raw bytes.
+ * The format byte can never begin a JSON row so both kinds of rows can be told apart.
+ */
+class SyncValueCodec {
+	static final int FORMAT_VERSION = 1;
+
+	static final int TAG_NULL = 0;
+	static final int TAG_FALSE = 1;
+	static final int TAG_TRUE = 2;
+	static final int TAG_LONG = 3;
+	static final int TAG_DOUBLE = 4;
+	static final int TAG_STRING = 5;
+	static final int TAG_BLOB = 6;
+
+	/*
+	 * Returns the encoded row or null if there are no parameters.
+	 */
+	static byte[] encode(Object[] values){
+		if(values == null){
+			return null;
+		}
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream(16 + values.length * 8);
+		encoded.write(FORMAT_VERSION);
+		writeVarint(encoded, values.length);
+		for(Object aValue : values){
+			if(aValue == null){
+				encoded.write(TAG_NULL);
+			}
+			else if(aValue instanceof Boolean){
+				encoded.write(((Boolean)aValue).booleanValue() ? TAG_TRUE : TAG_FALSE);
+			}
+			else if(aValue instanceof Long || aValue instanceof Integer || aValue instanceof Short || aValue instanceof Byte){
+				encoded.write(TAG_LONG);
+				long aLong = ((Number)aValue).longValue();
+				writeVarint(encoded, (aLong << 1) ^ (aLong >> 63));
+			}
+			else if(aValue instanceof Double || aValue instanceof Float){
+				encoded.write(TAG_DOUBLE);
+				long bits = Double.doubleToLongBits(((Number)aValue).doubleValue());
+				for(int shift = 56; shift >= 0; shift -= 8){
+					encoded.write((int)(bits >>> shift));
+				}
+			}
+			else if(aValue instanceof byte[]){
+				encoded.write(TAG_BLOB);
+				writeBytes(encoded, (byte[])aValue);
+			}
+			else{
+				encoded.write(TAG_STRING);
+				writeBytes(encoded, utf8(aValue.toString()));
+			}
+		}
+		return encoded.toByteArray();
+	}
+
+	static ArrayList<Object> decode(byte[] encoded) throws IOException{
+		Decoder aDecoder = new Decoder(encoded);
+		int count = aDecoder.readCount();
+		ArrayList<Object> values = new ArrayList<Object>(count);
+		for(int i = 0; i < count; i++){
+			values.add(aDecoder.readValue());
+		}
+		return values;
+	}
+
+	/*
+	 * Writes the encoded row as a JSON array without building the intermediate list of values.
+	 */
+	static void writeJSON(byte[] encoded, SyncJSONWriter json) throws IOException{
+		Decoder aDecoder = new Decoder(encoded);
+		int count = aDecoder.readCount();
+		json.beginArray();
+		for(int i = 0; i < count; i++){
+			json.value(aDecoder.readValue());
+		}
+		json.endArray();
+	}
+
+	static String toJSON(byte[] encoded) throws IOException{
+		StringWriter jsonText = new StringWriter(encoded.length * 2);
+		writeJSON(encoded, new SyncJSONWriter(jsonText));
+		return jsonText.toString();
+	}
+
+	static boolean isEncoded(byte[] stored){
+		return stored != null && stored.length > 0 && stored[0] == FORMAT_VERSION;
+	}
+
+	static void writeVarint(ByteArrayOutputStream out, long value){
+		while((value & ~0x7FL) != 0){
+			out.write((int)((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int)value);
+	}
+
+	static void writeBytes(ByteArrayOutputStream out, byte[] bytes){
+		writeVarint(out, bytes.length);
+		out.write(bytes, 0, bytes.length);
+	}
+
+	static byte[] utf8(String aString){
+		try {
+			return aString.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			//UTF-8 is always supported
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static class Decoder{
+		private byte[] encoded;
+		private int pos;
+
+		Decoder(byte[] encoded){
+			this.encoded = encoded;
+		}
+
+		int readCount() throws IOException{
+			if(!isEncoded(encoded)){
+				throw new IOException("Unknown sync value format");
+			}
+			pos = 1;
+			return (int)readVarint();
+		}
+
+		Object readValue() throws IOException{
+			int tag = readByte();
+			switch(tag){
+				case TAG_NULL: return null;
+				case TAG_FALSE: return Boolean.FALSE;
+				case TAG_TRUE: return Boolean.TRUE;
+				case TAG_LONG:
+					long zigZag = readVarint();
+					return Long.valueOf((zigZag >>> 1) ^ -(zigZag & 1));
+				case TAG_DOUBLE:
+					long bits = 0;
+					for(int i = 0; i < 8; i++){
+						bits = (bits << 8) | readByte();
+					}
+					return Double.valueOf(Double.longBitsToDouble(bits));
+				case TAG_STRING:
+					int stringLength = readLength();
+					String aString = new String(encoded, pos, stringLength, "UTF-8");
+					pos += stringLength;
+					return aString;
+				case TAG_BLOB:
+					int blobLength = readLength();
+					byte[] aBlob = new byte[blobLength];
+					System.arraycopy(encoded, pos, aBlob, 0, blobLength);
+					pos += blobLength;
+					return aBlob;
+				default:
+					throw new IOException("Unknown sync value tag "+tag);
+			}
+		}
+
+		private int readLength() throws IOException{
+			long length = readVarint();
+			if(length > encoded.length - pos){
+				throw new IOException("Truncated sync value");
+			}
+			return (int)length;
+		}
+
+		private long readVarint() throws IOException{
+			long value = 0;
+			for(int shift = 0; shift < 64; shift += 7){
+				int aByte = readByte();
+				value |= (long)(aByte & 0x7F) << shift;
+				if((aByte & 0x80) == 0){
+					return value;
+				}
+			}
+			throw new IOException("Malformed sync value varint");
+		}
+
+		private int readByte() throws IOException{
+			if(pos >= encoded.length){
+				throw new IOException("Truncated sync value");
+			}
+			return encoded[pos++] & 0xFF;
+		}
+	}
+}
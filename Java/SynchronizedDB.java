@@ -23,45 +23,38 @@
 
 package org.quickconnectfamily.sync;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.lang.ref.WeakReference;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.Semaphore;
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
-import org.apache.http.HttpVersion;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.CookieStore;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.client.protocol.ClientContext;
-import org.apache.http.conn.scheme.PlainSocketFactory;
-import org.apache.http.conn.scheme.Scheme;
-import org.apache.http.conn.scheme.SchemeRegistry;
-import org.apache.http.conn.ssl.SSLSocketFactory;
-import org.apache.http.impl.client.BasicCookieStore;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.message.BasicNameValuePair;
-import org.apache.http.params.BasicHttpParams;
-import org.apache.http.params.HttpParams;
-import org.apache.http.params.HttpProtocolParams;
-import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.HTTP;
-import org.apache.http.protocol.HttpContext;
-import org.apache.http.util.EntityUtils;
 import org.quickconnectfamily.dbaccess.DataAccessException;
-import org.quickconnectfamily.dbaccess.DataAccessObject;
 import org.quickconnectfamily.dbaccess.DataAccessResult;
 import org.quickconnectfamily.json.JSONException;
 import org.quickconnectfamily.json.JSONUtilities;
@@ -78,6 +71,12 @@ import android.content.Context;
  * a roll back of the changes made will be executed.  
  * <br/>
  * If your database is not going to be used any longer you can use the SynchronizedDB cleanUp method to free the resources.
+ * <br/>
+ * The data may instead be stored in any SyncStorage, such as a JDBCSyncStorage outside of Android, by using the 
+ * constructor that takes a SyncStorage.
+ * <br/>
+ * A SynchronizedDB may be shared by many threads.  getData calls run concurrently with each other and with a sync 
+ * that is waiting on the HTTP service.  setData calls, transactions, and the storing of sync results run one at a time.
  * 
  * 
  * 
@@ -85,19 +84,70 @@ import android.content.Context;
  *
  */
 public class SynchronizedDB{
+	/**
+	 * Identifies a registered statement that inserts a record.  See registerSynchedStatement.
+	 */
+	public static final int OPERATION_INSERT = 1;
+	/**
+	 * Identifies a registered statement that updates a record.  See registerSynchedStatement.
+	 */
+	public static final int OPERATION_UPDATE = 2;
+	/**
+	 * Identifies a registered statement that deletes a record.  See registerSynchedStatement.
+	 */
+	public static final int OPERATION_DELETE = 3;
+	
+	private static final int UNSUPPORTED_MEDIA_TYPE = 415;
+	//ids are never reused so the service can recognize values it has already stored when a batch is sent again
+	private static final String SYNC_VALUES_TABLE = "CREATE TABLE IF NOT EXISTS sync_values(id INTEGER PRIMARY KEY AUTOINCREMENT, timeStamp TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, sql_key TEXT, sql_params TEXT)";
+	//the database's ids start from 1 like those of every other database, so the service tells them apart by the database's id
+	private static final String SYNC_DATABASE_TABLE = "CREATE TABLE IF NOT EXISTS sync_database(id INTEGER PRIMARY KEY NOT NULL, database_id TEXT NOT NULL)";
 
-	private WeakReference<Context> theActivityRef;
-	private HttpClient httpClient;
-	private HashMap<String,String> registeredSQLStatements = new HashMap<String,String>();
-	private String dbName;
-	private URI remoteURL;
-	private String remoteUname;
-	private String remotePword;
+	private SyncStorage storage;
+	private SyncSession session;
+	//sent with every sync request so the service can tell this database's values from those of others using the same login
+	private String databaseId;
+	//false when the session is shared with the other databases of a SyncCoordinator
+	private boolean ownsSession;
+	private volatile SyncCoordinator coordinator;
+	private ConcurrentHashMap<String,String> registeredSQLStatements = new ConcurrentHashMap<String,String>();
+	private ConcurrentHashMap<String,StatementIdentity> statementIdentities = new ConcurrentHashMap<String,StatementIdentity>();
+	//the tables each statement reads or writes.  Statements whose tables are unknown have no entry.
+	private ConcurrentHashMap<String,Set<String>> statementTables = new ConcurrentHashMap<String,Set<String>>();
+	//the change key of each statement that inserts, updates, or deletes the rows of a table
+	private ConcurrentHashMap<String,String> statementChanges = new ConcurrentHashMap<String,String>();
+	//the change keys of the tables and operations whose changes are stored by capture triggers
+	private Set<String> capturedChanges = Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
 	private boolean allTransactionStatementsExecuted;
-	private boolean executingTransaction;
-	private Semaphore semaphore = new Semaphore(1);
-	private HttpContext localContext;
-	private boolean loggedIn;
+	private int transactionDepth;
+	//getData calls share the read lock.  setData, transactions, and the storing of sync results hold the write lock.
+	private ReentrantReadWriteLock databaseLock = new ReentrantReadWriteLock();
+	//only one sync runs at a time.  It holds the write lock only while storing results, never while on the network.
+	private ReentrantLock syncLock = new ReentrantLock();
+	private volatile int uploadBatchRows;
+	private volatile long uploadBatchBytes;
+	//null unless the number of values sent in each request is learned from earlier requests
+	private volatile UploadBatchSizer uploadBatchSizer;
+	private volatile boolean streamingCodec;
+	private volatile boolean binaryJournal;
+	//when true the parameters of setData calls are not stored since triggers record the changes
+	private volatile boolean changeCapture;
+	private volatile boolean binaryUpload;
+	private volatile boolean compressedTransport;
+	private volatile int pullPageSize;
+	private volatile InboundPipeline inboundPipeline;
+	//null unless a database that has never synced is started from a snapshot
+	private volatile File snapshotDirectory;
+	//null unless sync request and response bodies are encrypted
+	private volatile SecretKey payloadKey;
+	private SyncJournal journal;
+	private volatile GroupCommitter groupCommitter;
+	private volatile SyncScheduler syncScheduler;
+	private boolean transactionWroteData;
+	//the keys of the statements executed by setData in the current transaction
+	private HashSet<String> transactionKeys = new HashSet<String>();
+	private volatile QueryCache queryCache;
+	private volatile SyncMetrics metrics = new NoOpSyncMetrics();
 
 	/**
 	 * Creates a SynchronizedDB object used to interact with a local database and a remote HTTP service.  It 
@@ -115,34 +165,67 @@ public class SynchronizedDB{
 	 * @throws InterruptedException
 	 */
 	public SynchronizedDB(WeakReference<Context> theActivityRef, String aDbName, URL aRemoteURL, int port, String aRemoteUname, String aRemotePword, long syncTimeout) throws DataAccessException, URISyntaxException, InterruptedException {
-		dbName = aDbName;
-		remoteURL = aRemoteURL.toURI();
-		remoteUname = aRemoteUname;
-		remotePword = aRemotePword;
-		this.theActivityRef = theActivityRef;
-		
-		SchemeRegistry schemeRegistry = new SchemeRegistry();
-		if(aRemoteURL.toExternalForm().indexOf("http") == 0){
-			schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), port));
-		}
-		else if(aRemoteURL.toExternalForm().indexOf("https") == 0){
-			schemeRegistry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), port));
-		}
-		HttpParams params = new BasicHttpParams();
-		HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
-		HttpProtocolParams.setContentCharset(params, "utf-8");
+		this(new AndroidSyncStorage(theActivityRef, aDbName), aRemoteURL, port, aRemoteUname, aRemotePword, syncTimeout);
+	}
 
-		ThreadSafeClientConnManager cm = new ThreadSafeClientConnManager(params, schemeRegistry);
-		 
-		httpClient = new DefaultHttpClient(cm, params);
+	/**
+	 * Creates a SynchronizedDB object used to keep the data in a SyncStorage in sync with a remote HTTP service.  The 
+	 * SynchronizedDB takes ownership of the storage and closes it in cleanUp.
+	 * @param aStorage - the storage holding the data to be kept in sync.  See AndroidSyncStorage and JDBCSyncStorage.
+	 * @param aRemoteURL - the URL of the service that will respond to synchronization requests including the port number if not port 80.  
+	 * For security reasons it is suggested that your URL be an HTTPS URL but this is not required.
+	 * @param port - the port number of the remote HTTP service.
+	 * @param aRemoteUname - a security credential used in the remote service
+	 * @param aRemotePword - a security credential used in the remote service
+	 * @param syncTimeout - the amount of time in seconds to attempt all sync requests before timing out.
+	 * @throws DataAccessException
+	 * @throws URISyntaxException
+	 * @throws InterruptedException
+	 */
+	public SynchronizedDB(SyncStorage aStorage, URL aRemoteURL, int port, String aRemoteUname, String aRemotePword, long syncTimeout) throws DataAccessException, URISyntaxException, InterruptedException {
+		this(aStorage, new SyncSession(aRemoteURL, port, aRemoteUname, aRemotePword, 0), true);
+	}
 
+	/*
+	 * Creates the sync tables if they don't exist.  SyncCoordinator passes the session it shares with its other databases.
+	 */
+	SynchronizedDB(SyncStorage aStorage, SyncSession aSession, boolean ownsSession) throws DataAccessException, InterruptedException {
+		storage = aStorage;
+		session = aSession;
+		this.ownsSession = ownsSession;
+		journal = new SyncJournal(storage);
+		
 		startTransaction();
 		String errorMessage = null;
 		//insert the required tables if they don't exist
 		try {
-			DataAccessResult aResult = DataAccessObject.transact(theActivityRef, aDbName, "CREATE TABLE IF NOT EXISTS sync_info(int id PRIMARY KEY  NOT NULL, last_sync TIMESTAMP);", null);
+			DataAccessResult aResult = storage.transact("CREATE TABLE IF NOT EXISTS sync_info(int id PRIMARY KEY  NOT NULL, last_sync TIMESTAMP);", null);
 			if(aResult.getErrorDescription().equals("not an error")){
-				aResult = DataAccessObject.transact(theActivityRef, aDbName, "CREATE TABLE IF NOT EXISTS sync_values(timeStamp TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, sql_key TEXT, sql_params TEXT)", null);
+				aResult = upgradeSyncTables();
+				if(aResult.getErrorDescription().equals("not an error")){
+					aResult = storage.transact(SYNC_VALUES_TABLE, null);
+				}
+				if(aResult.getErrorDescription().equals("not an error")){
+					aResult = storage.transact(ChangeCapture.SUPPRESSED_TABLE, null);
+				}
+				if(aResult.getErrorDescription().equals("not an error")){
+					//triggers created by an earlier run are still in the database file
+					aResult = storage.transact(ChangeCapture.TRIGGERS, null);
+					if(aResult.getErrorDescription().equals("not an error")){
+						for(ArrayList<String> aTrigger : aResult.getResults()){
+							String changeKey = ChangeCapture.triggerChangeKey(aTrigger.get(0), aTrigger.get(1));
+							if(changeKey != null){
+								capturedChanges.add(changeKey);
+							}
+						}
+					}
+				}
+				if(aResult.getErrorDescription().equals("not an error")){
+					aResult = storage.transact(UploadBatchSizer.BATCH_SIZES_TABLE, null);
+				}
+				if(aResult.getErrorDescription().equals("not an error")){
+					aResult = readDatabaseId();
+				}
 				if(!aResult.getErrorDescription().equals("not an error")){
 					allTransactionStatementsExecuted = false;
 					errorMessage = aResult.getErrorDescription();
@@ -162,20 +245,67 @@ public class SynchronizedDB{
 		if(allTransactionStatementsExecuted == false){
 			throw new DataAccessException("Error: Transaction failure. "+errorMessage);
 		}
-		
-		/*
-		 * Do login and store context
-		 */
-		// Create a local instance of cookie store
-	    CookieStore cookieStore = new BasicCookieStore();
+	}
 
-	    // Create local HTTP context
-	    localContext = new BasicHttpContext();
-	    // Bind custom cookie store to the local context
-	    localContext.setAttribute(ClientContext.COOKIE_STORE, cookieStore);
-	    
+	
+	void setCoordinator(SyncCoordinator aCoordinator){
+		coordinator = aCoordinator;
 	}
 
+	/*
+	 * Reads the id of the database, creating it the first time the database is opened.  The service stores values by login, 
+	 * database id, and sync_values id, so the values of databases sharing a login are not mistaken for values sent again.
+	 */
+	private DataAccessResult readDatabaseId() throws DataAccessException{
+		DataAccessResult aResult = storage.transact(SYNC_DATABASE_TABLE, null);
+		if(aResult.getErrorDescription().equals("not an error")){
+			aResult = storage.transact("INSERT OR IGNORE INTO sync_database VALUES(0,?)", new Object[]{UUID.randomUUID().toString()});
+		}
+		if(aResult.getErrorDescription().equals("not an error")){
+			aResult = storage.transact("SELECT database_id FROM sync_database", null);
+			if(aResult.getErrorDescription().equals("not an error")){
+				databaseId = aResult.getResults().get(0).get(0);
+			}
+		}
+		return aResult;
+	}
+	
+	/*
+	 * Adds the pull_token column to sync_info tables created before paged pulls, and the sent_id column to those created before 
+	 * the id of the last value sent was kept.  Databases created before sync_values had an id reuse the rowids of removed values.  
+	 * Their stored values are moved to a table whose ids are never reused, keeping their order.
+	 */
+	private DataAccessResult upgradeSyncTables() throws DataAccessException{
+		DataAccessResult aResult = storage.transact("SELECT sql FROM sqlite_master WHERE type = 'table' AND name = 'sync_info'", null);
+		if(aResult.getErrorDescription().equals("not an error") && aResult.getResults().size() > 0){
+			String infoSQL = aResult.getResults().get(0).get(0);
+			if(infoSQL.indexOf("pull_token") < 0){
+				aResult = storage.transact("ALTER TABLE sync_info ADD COLUMN pull_token TEXT", null);
+			}
+			if(aResult.getErrorDescription().equals("not an error") && infoSQL.indexOf("sent_id") < 0){
+				aResult = storage.transact("ALTER TABLE sync_info ADD COLUMN sent_id INTEGER", null);
+			}
+		}
+		if(!aResult.getErrorDescription().equals("not an error")){
+			return aResult;
+		}
+		aResult = storage.transact("SELECT sql FROM sqlite_master WHERE type = 'table' AND name = 'sync_values'", null);
+		if(!aResult.getErrorDescription().equals("not an error") || aResult.getResults().size() == 0 
+				|| aResult.getResults().get(0).get(0).toUpperCase(Locale.US).indexOf("AUTOINCREMENT") >= 0){
+			return aResult;
+		}
+		String[] upgradeStatements = {"ALTER TABLE sync_values RENAME TO sync_values_previous", 
+				SYNC_VALUES_TABLE, 
+				"INSERT INTO sync_values (id, timeStamp, sql_key, sql_params) SELECT rowid, timeStamp, sql_key, sql_params FROM sync_values_previous ORDER BY rowid", 
+				"DROP TABLE sync_values_previous"};
+		for(String sql : upgradeStatements){
+			aResult = storage.transact(sql, null);
+			if(!aResult.getErrorDescription().equals("not an error")){
+				break;
+			}
+		}
+		return aResult;
+	}
 	
 	/**
 	 * This method is used to associate a representative key String with a String containing SQL.  All SQL that is 
@@ -186,14 +316,33 @@ public class SynchronizedDB{
 	 * @throws InterruptedException
 	 */
 	public void registerSynchedStatement(String sqlKey, String SQL) throws InterruptedException{
-		
-		if(!executingTransaction){
-			semaphore.acquire(1);
-		}
 		registeredSQLStatements.put(sqlKey, SQL);
-		if(!executingTransaction){
-			semaphore.release(1);
+		statementIdentities.remove(sqlKey);
+		recordTables(sqlKey, SQL);
+	}
+	
+	/**
+	 * This method registers SQL in the same way as registerSynchedStatement(String, String) and also declares which record 
+	 * of which table the SQL changes.  Before each sync the stored data of statements registered this way is compacted.  
+	 * When the same record is updated several times by the same statement only the last update is sent.  Updates 
+	 * followed by a delete of the record are not sent.  A record that was inserted and then deleted before its insert was 
+	 * ever sent is not sent at all.  Once an insert has been sent the service may have stored it, even if the sync failed, 
+	 * so its delete is always sent.
+	 * @param sqlKey - a representative String describing the SQL.  Usually one word or camel case phrase.
+	 * @param SQL - the SQL to be executed later using the setData method.
+	 * @param table - the name of the table the SQL changes.  Statements registered with the same table name change the same records.
+	 * @param operation - OPERATION_INSERT, OPERATION_UPDATE, or OPERATION_DELETE.
+	 * @param identityParameters - the 0 based indices in the setData parameters of the values that identify the record, 
+	 * usually its primary key.
+	 * @throws InterruptedException
+	 */
+	public void registerSynchedStatement(String sqlKey, String SQL, String table, int operation, int... identityParameters) throws InterruptedException{
+		if(operation != OPERATION_INSERT && operation != OPERATION_UPDATE && operation != OPERATION_DELETE){
+			throw new IllegalArgumentException("Unknown operation: "+operation);
 		}
+		registeredSQLStatements.put(sqlKey, SQL);
+		statementIdentities.put(sqlKey, new StatementIdentity(table, operation, identityParameters.clone()));
+		recordTables(sqlKey, SQL);
 	}
 	
 	/**
@@ -203,17 +352,309 @@ public class SynchronizedDB{
 	 * @throws InterruptedException
 	 */
 	public void registerSyncStatements(HashMap<String,String> keySQLMap) throws InterruptedException{
-		if(!executingTransaction){
-			semaphore .acquire(1);
-		}
 		registeredSQLStatements.putAll(keySQLMap);
-		if(!executingTransaction){
-			semaphore.release(1);
+		for(String sqlKey : keySQLMap.keySet()){
+			statementIdentities.remove(sqlKey);
+			recordTables(sqlKey, keySQLMap.get(sqlKey));
 		}
 	}
+	
+	/**
+	 * This method declares the tables a registered statement reads or writes, replacing the tables found in its SQL.  The tables 
+	 * are only used by the query cache.  Declare them for statements whose SQL uses views or whose writes fire triggers that change 
+	 * other tables.  Registering the statement again replaces the declared tables with those found in its SQL.
+	 * @param sqlKey - the key of a registered statement.
+	 * @param tables - the names of every table the statement reads or writes.
+	 * @throws DataAccessException
+	 */
+	public void setStatementTables(String sqlKey, String... tables) throws DataAccessException{
+		if(!registeredSQLStatements.containsKey(sqlKey)){
+			throw new DataAccessException("No such key: "+sqlKey);
+		}
+		HashSet<String> declaredTables = new HashSet<String>();
+		for(String aTable : tables){
+			declaredTables.add(SQLTables.normalize(aTable));
+		}
+		statementTables.put(sqlKey, declaredTables);
+		QueryCache cache = queryCache;
+		if(cache != null){
+			cache.invalidate(null);
+		}
+	}
+	
+	/**
+	 * This method creates an SQLite trigger that stores every insert, update, or delete of a table's rows for the next sync, 
+	 * replacing any trigger previously created for the same table and operation.  Changes are stored by the same SQL statement 
+	 * that makes them, including changes made without using setData, as if setData had been called with the registered key 
+	 * and the values of the listed columns.  Inserts and updates store the new values of the columns, deletes the old ones.  
+	 * Changes made while sync is storing the data received from the HTTP service are not stored.  The trigger is saved in the 
+	 * database file so it only needs to be created once.  From then on setData does not store the parameters of registered 
+	 * statements that make the same change to the table, so each change is stored once.  The SQLite library must include 
+	 * the JSON functions and the listed columns must not hold BLOB values.
+	 * @param sqlKey - the key of a registered statement.  The HTTP service receives the changes with this key.
+	 * @param table - the name of the table whose changes are stored.
+	 * @param operation - OPERATION_INSERT, OPERATION_UPDATE, or OPERATION_DELETE.
+	 * @param columns - the names of the columns whose values are stored, in the order of the registered statement's ? place holders.
+	 * @throws DataAccessException
+	 * @throws InterruptedException
+	 */
+	public void captureTableChanges(String sqlKey, String table, int operation, String... columns) throws DataAccessException, InterruptedException{
+		if(!registeredSQLStatements.containsKey(sqlKey)){
+			throw new DataAccessException("No such key: "+sqlKey);
+		}
+		changeTriggers(table, ChangeCapture.dropTrigger(table, operation), ChangeCapture.createTrigger(table, operation, sqlKey, columns));
+		capturedChanges.add(ChangeCapture.changeKey(table, operation));
+	}
+	
+	/**
+	 * This method removes the triggers created by captureTableChanges for every operation on a table.  Changes already stored are 
+	 * still sent, and setData stores the parameters of statements changing the table again.
+	 * @param table - the name of the table whose changes are no longer stored.
+	 * @throws DataAccessException
+	 * @throws InterruptedException
+	 */
+	public void stopCapturingTableChanges(String table) throws DataAccessException, InterruptedException{
+		changeTriggers(table, ChangeCapture.dropTrigger(table, OPERATION_INSERT), 
+				ChangeCapture.dropTrigger(table, OPERATION_UPDATE), ChangeCapture.dropTrigger(table, OPERATION_DELETE));
+		capturedChanges.remove(ChangeCapture.changeKey(table, OPERATION_INSERT));
+		capturedChanges.remove(ChangeCapture.changeKey(table, OPERATION_UPDATE));
+		capturedChanges.remove(ChangeCapture.changeKey(table, OPERATION_DELETE));
+	}
+	
+	/**
+	 * This method turns change capture mode on or off.  When on, setData only executes the registered SQL and does not 
+	 * store its parameters.  setData already skips the statements whose changes captureTableChanges triggers record.  Turn 
+	 * this on once those triggers record every change that needs to be synced, including the changes of statements whose 
+	 * table and operation can not be found in their SQL, so no write is converted to JSON and stored by setData.
+	 * @param capture - true if triggers store the changes to be synced, false if setData stores them.
+	 */
+	public void setChangeCapture(boolean capture){
+		changeCapture = capture;
+	}
+	
+	private void changeTriggers(String table, String... triggerStatements) throws DataAccessException, InterruptedException{
+		String errorMessage = null;
+		startTransaction();
+		try{
+			for(String sql : triggerStatements){
+				DataAccessResult aResult = storage.transact(sql, null);
+				if(!aResult.getErrorDescription().equals("not an error")){
+					allTransactionStatementsExecuted = false;
+					errorMessage = aResult.getErrorDescription();
+					break;
+				}
+			}
+		}
+		catch(DataAccessException e){
+			allTransactionStatementsExecuted = false;
+			throw e;
+		}
+		finally{
+			endTransaction();
+		}
+		if(errorMessage != null){
+			throw new DataAccessException("Error: unable to change the capture triggers of "+table+". "+errorMessage);
+		}
+	}
+	
+	/*
+	 * Records the tables found in the SQL.  Cached results may have been read by an earlier statement with the same key so all are removed.
+	 */
+	private void recordTables(String sqlKey, String SQL){
+		String changeKey = ChangeCapture.statementChangeKey(SQL);
+		if(changeKey == null){
+			statementChanges.remove(sqlKey);
+		}
+		else{
+			statementChanges.put(sqlKey, changeKey);
+		}
+		HashSet<String> tables = SQLTables.referencedTables(SQL);
+		if(tables == null){
+			statementTables.remove(sqlKey);
+		}
+		else{
+			statementTables.put(sqlKey, tables);
+		}
+		QueryCache cache = queryCache;
+		if(cache != null){
+			cache.invalidate(null);
+		}
+	}
+	
+	/**
+	 * This method turns on chunked uploading of the data stored by setData calls.  When either limit is set the sync methods 
+	 * page through the stored data and post it to the HTTP service in batches.  The response to each batch is applied 
+	 * and the posted data removed before the next batch is read so only one batch is held in memory at a time.
+	 * @param maxRows - the largest number of setData calls to send in one request.  Zero means there is no row limit.
+	 * @param maxBytes - the approximate largest number of characters of stored data to send in one request.  Zero means there is no size limit.  
+	 * The data for a single setData call larger than this limit is sent by itself.
+	 */
+	public void setUploadBatchSize(int maxRows, long maxBytes){
+		uploadBatchRows = maxRows;
+		uploadBatchBytes = maxBytes;
+	}
+	
+	/**
+	 * This method turns adaptive sizing of upload batches on.  Instead of a fixed number of setData calls, each request 
+	 * sends a number learned from how long the earlier requests to the HTTP service took and whether they failed.  The number 
+	 * doubles after each request that took less than targetMillis until one fails or takes longer, and then grows by minRows 
+	 * after each request that was full and took less than targetMillis, as long as larger requests move more calls per second.  
+	 * A failed request halves the number and a slow one shrinks it to what would have fit in targetMillis.  A request that 
+	 * goes four times targetMillis without sending anything or receiving the start of the response fails, so on a bad network 
+	 * requests get smaller rather than waiting.  The rest of the response, which may be read while waiting for the database, 
+	 * only has the usual timeout and does not change the number.  The learned number is stored in the database for the 
+	 * service's URL and used by later syncs.  Any maxBytes set by setUploadBatchSize still applies.
+	 * @param minRows - the smallest number of setData calls to send in one request, and the amount it grows by.  Zero turns adaptive sizing off.
+	 * @param maxRows - the largest number of setData calls to send in one request.
+	 * @param targetMillis - the longest time in milliseconds a request should take from sending it to the start of the response.
+	 */
+	public void setAdaptiveUploadBatchSize(int minRows, int maxRows, long targetMillis){
+		uploadBatchSizer = minRows > 0 ? new UploadBatchSizer(minRows, maxRows, targetMillis) : null;
+	}
+	
+	/**
+	 * This method turns on streaming of the data sent to and received from the HTTP service.  When on, the sync 
+	 * request is written directly from the stored setData data to the connection and each statement in the response 
+	 * is executed as soon as it has been read, so neither the request nor the response is ever held in memory as a whole.
+	 * @param streaming - true to stream sync requests and responses, false to build and parse them as complete JSON strings.
+	 */
+	public void setStreamingCodec(boolean streaming){
+		streamingCodec = streaming;
+	}
+	
+	/**
+	 * This method turns pipelined processing of the data received from the HTTP service on or off.  When on, the response is 
+	 * read by one background thread while decode threads convert and check the statements it holds, so the thread holding 
+	 * the sync transaction only executes statements.  Statements are still executed in the order the service sent them.  
+	 * Responses are read as they arrive whether or not the streaming codec is on.
+	 * @param decodeThreads - the number of threads converting received statements.  Zero or less turns pipelining off.
+	 * @param queueCapacity - the largest number of received statements waiting to be executed.
+	 */
+	public synchronized void setPipelinedApply(int decodeThreads, int queueCapacity){
+		InboundPipeline previous = inboundPipeline;
+		inboundPipeline = decodeThreads > 0 ? new InboundPipeline(decodeThreads, queueCapacity) : null;
+		if(previous != null){
+			previous.shutDown();
+		}
+	}
+	
+	/**
+	 * This method turns snapshot bootstrapping on or off.  When on, the first sync of a database that has never synced asks the 
+	 * HTTP service for a compressed snapshot of its data instead of pulling every change the service has ever received.  The 
+	 * snapshot is written to a file as it is received and then installed, together with the sync time it was taken at, in a 
+	 * single transaction so an interrupted install leaves the database as it was.  The sync then continues normally, sending any 
+	 * stored data and pulling the changes made since the snapshot.  If the service does not send snapshots the sync pulls every change as before.
+	 * @param workDirectory - the directory the snapshot file is written to and deleted from, for example the application's cache 
+	 * directory.  Null turns bootstrapping off.
+	 */
+	public void setSnapshotBootstrap(File workDirectory){
+		snapshotDirectory = workDirectory;
+	}
+	
+	/**
+	 * This method turns encryption of the data sent to and received from the HTTP service on or off.  When on, the body of 
+	 * every sync request, and of the service's response to it, is encrypted with AES-GCM as it is streamed, a frame of up to 
+	 * 64 KB at a time, so encryption needs no more memory than an unencrypted sync.  Compressed requests and responses are 
+	 * compressed before they are encrypted.  Each encrypted body is bound to its direction, its command, and a random nonce 
+	 * the client chooses for the request and the service echoes, so a recorded body can not be passed off as the response to 
+	 * a later request or as a body sent the other way.  A response that is not encrypted, or has been changed, cut short, 
+	 * reordered, or sent for another request, fails the sync.  The service does not remember nonces, so a recorded request 
+	 * can be sent to it again.  The values it holds are recognized by their ids and stored once.  Only use a key for a service 
+	 * that shares it and understands version 2 of the qc-aes-gcm content coding.  Logging in and out is not encrypted.
+	 * @param aPayloadKey - an AES key of 128, 192, or 256 bits shared with the service.  Null turns encryption off.
+	 */
+	public void setPayloadEncryption(SecretKey aPayloadKey){
+		if(aPayloadKey != null && !aPayloadKey.getAlgorithm().equalsIgnoreCase("AES")){
+			throw new IllegalArgumentException("The payload key must be an AES key, not "+aPayloadKey.getAlgorithm());
+		}
+		payloadKey = aPayloadKey;
+	}
+	
+	/**
+	 * This method sets how the parameters of later setData calls are stored until they are synchronized.  The binary format stores 
+	 * each parameter with a type tag, integers as variable length numbers, and byte arrays as raw bytes.  It is smaller and faster 
+	 * than JSON, particularly for numbers and binary data.  Data already stored in either format is still sent correctly.
+	 * @param binary - true to store parameters in the binary format, false to store them as JSON.
+	 */
+	public void setBinaryJournal(boolean binary){
+		binaryJournal = binary;
+	}
+	
+	/**
+	 * This method sets whether sync requests are sent to the HTTP service in the binary sync format.  Stored data that is already 
+	 * in the binary format is sent exactly as stored, without being decoded and encoded again.  The request is posted with a 
+	 * content type of application/x-qc-sync and the cmd=sync parameter in the URL's query string.  Only turn this on 
+	 * for services that understand the binary format.  Responses are still JSON.
+	 * @param binary - true to send binary sync requests, false to send JSON.
+	 */
+	public void setBinaryUpload(boolean binary){
+		binaryUpload = binary;
+	}
+	
+	/**
+	 * This method turns on the compressed sync transport.  When on, sync requests are no longer form encoded.  The body is 
+	 * posted as application/json, or in the binary sync format if setBinaryUpload is on, with the cmd=sync parameter in the URL's 
+	 * query string, and is gzip compressed.  The compressed transport is only used with services whose login response lists gzip 
+	 * in its sync_encodings field.  Older services, and services that reject a compressed request as an unsupported media type, 
+	 * are sent form encoded requests as before.  Compressed responses are accepted whether or not this is on.
+	 * @param compressed - true to send compressed sync requests to services that accept them.
+	 */
+	public void setCompressedTransport(boolean compressed){
+		compressedTransport = compressed;
+	}
+	
+	/**
+	 * This method turns on paged pulls of the data sent by the HTTP service.  Each sync request asks for at most maxRows rows 
+	 * of sync_data.  A service that has more to send includes a sync_continuation token, next to sync_time, in its response.  
+	 * The rows of each page and the page's sync_time and token are committed together, and the next page is requested with 
+	 * the token until the service stops sending one.  If a sync is stopped between pages the next sync continues from the stored token.  
+	 * Services that do not page their responses ignore the request and send all of their data at once.
+	 * @param maxRows - the largest number of rows of sync_data to receive in one response.  Zero means there is no limit.
+	 */
+	public void setPullPageSize(int maxRows){
+		pullPageSize = maxRows;
+	}
+	
+	/**
+	 * This method turns the query cache on or off.  When on, the results of getData calls for SELECT statements are kept and 
+	 * returned again for later calls with the same key and parameters until setData, or the storing of data received by a sync, 
+	 * writes to a table the statement reads.  The tables a statement reads and writes are found in its SQL or declared using setStatementTables.  
+	 * Statements whose tables can not be found are treated as using every table.  Cached results are shared by every caller 
+	 * and must not be modified.  Turning the cache on or off discards any cached results.
+	 * @param maxEntries - the largest number of results to keep.  The least recently used result is discarded first.  Zero turns the cache off.
+	 */
+	public void setQueryCache(int maxEntries){
+		queryCache = maxEntries > 0 ? new QueryCache(maxEntries) : null;
+	}
+	
+	/**
+	 * This method sets where measurements of syncs, setData calls, and database lock waits are reported.  See SyncMetrics and 
+	 * HistogramSyncMetrics.  Nothing is measured in a way that requires the data being synchronized to be logged.
+	 * @param syncMetrics - receives the measurements.  null stops them being reported.
+	 */
+	public void setSyncMetrics(SyncMetrics syncMetrics){
+		metrics = syncMetrics == null ? new NoOpSyncMetrics() : syncMetrics;
+	}
+	
+	/**
+	 * @return the number of getData calls answered from the query cache since it was turned on.
+	 */
+	public long getQueryCacheHits(){
+		QueryCache cache = queryCache;
+		return cache == null ? 0 : cache.getHits();
+	}
+	
+	/**
+	 * @return the number of cacheable getData calls that were not found in the query cache since it was turned on.
+	 */
+	public long getQueryCacheMisses(){
+		QueryCache cache = queryCache;
+		return cache == null ? 0 : cache.getMisses();
+	}
 
 	/**
-	 * This method is used to retrieve data from the SQLite database on the device.
+	 * This method is used to retrieve data from the SQLite database on the device.  Any number of threads may be 
+	 * retrieving data at the same time.  They only wait while data is being set or sync results are being stored.
 	 * @param sqlKey - the key representing the SQL to be executed.  This may be a standard or prepared SQL statement but 
 	 * must have previously been registered using one of the registerSync* methods.
 	 * @param parameters - an array of objects to be bound to the ? place holders if the registered SQL is to be used as 
@@ -224,22 +665,78 @@ public class SynchronizedDB{
 	 * @throws InterruptedException
 	 */
 	public DataAccessResult getData(String sqlKey, Object[] parameters) throws DataAccessException, InterruptedException{
-		if(!executingTransaction){
-			semaphore.acquire(1);
+		String sql = registeredSQLStatements.get(sqlKey);
+		if(sql == null){
+			throw new DataAccessException("No such key: "+sqlKey);
+		}
+		QueryCache cache = queryCache;
+		lockDatabase(false);
+		try{
+			//data read inside a transaction may still be rolled back so it is never cached
+			boolean cacheable = cache != null && !databaseLock.isWriteLockedByCurrentThread() && SQLTables.isQuery(sql);
+			if(cacheable){
+				DataAccessResult cachedResult = cache.get(sqlKey, parameters);
+				if(cachedResult != null){
+					return cachedResult;
+				}
+			}
+			DataAccessResult aResult = storage.transact(sql, parameters);
+			//the read lock keeps any write from invalidating the result before it is cached
+			if(cacheable && aResult.getErrorDescription().equals("not an error")){
+				cache.put(sqlKey, parameters, statementTables.get(sqlKey), aResult);
+			}
+			return aResult;
+		}
+		finally{
+			databaseLock.readLock().unlock();
 		}
-		DataAccessResult retVal = null;
+	}
+	/**
+	 * This method runs a registered query and passes each row of its result to the handler as soon as it has been read.  
+	 * Unlike getData the result is never held in memory as a whole and values are read in their SQLite types, so large 
+	 * results can be processed, or a query stopped after its first few rows, without creating a String for every value.  
+	 * Like getData it runs concurrently with other queries.  The handler must not set data or start a transaction.
+	 * @param sqlKey - the key representing the SQL to be executed.  It must have previously been registered using one of the registerSync* methods.
+	 * @param parameters - an array of objects to be bound to the ? place holders.  Numbers, Booleans, and byte arrays are 
+	 * bound in their SQLite types rather than as Strings.
+	 * @param handler - receives each row of the result in turn.  Returning false from the handler stops the query.
+	 * @throws DataAccessException
+	 * @throws InterruptedException
+	 */
+	public void queryData(String sqlKey, Object[] parameters, QueryRowHandler handler) throws DataAccessException, InterruptedException{
 		String sql = registeredSQLStatements.get(sqlKey);
 		if(sql == null){
 			throw new DataAccessException("No such key: "+sqlKey);
 		}
-		semaphore.acquire(1);
-		retVal = DataAccessObject.transact(theActivityRef, dbName, sql, parameters);
-		semaphore.release(1);
-		if(!executingTransaction){
-			semaphore.release(1);
+		lockDatabase(false);
+		try{
+			storage.query(sql, parameters, handler);
 		}
-		return retVal;
+		finally{
+			databaseLock.readLock().unlock();
+		}
+	}
+	/**
+	 * This method runs a registered query in the same way as queryData(String, Object[], QueryRowHandler) and returns 
+	 * the objects the mapper creates from its rows.
+	 * @param sqlKey - the key representing the SQL to be executed.  It must have previously been registered using one of the registerSync* methods.
+	 * @param parameters - an array of objects to be bound to the ? place holders.
+	 * @param mapper - creates an object from each row of the result.
+	 * @return the mapped objects in the order of the rows they were created from.
+	 * @throws DataAccessException
+	 * @throws InterruptedException
+	 */
+	public <T> ArrayList<T> mapRows(String sqlKey, Object[] parameters, final RowMapper<T> mapper) throws DataAccessException, InterruptedException{
+		final ArrayList<T> mappedRows = new ArrayList<T>();
+		queryData(sqlKey, parameters, new QueryRowHandler(){
+			public boolean handleRow(QueryRow aRow) throws DataAccessException {
+				mappedRows.add(mapper.mapRow(aRow));
+				return true;
+			}
+		});
+		return mappedRows;
 	}
+	
 	/**
 	 This method is used to insert data into the SQLite database on the device or do any other type of database modification.
 	 * @param sqlKey - the key representing the SQL to be executed.  This may be a standard or prepared SQL statement but 
@@ -253,48 +750,159 @@ public class SynchronizedDB{
 	 * @throws JSONException
 	 */
 	public DataAccessResult setData(String sqlKey, Object[] parameters) throws DataAccessException, InterruptedException, JSONException{
-		DataAccessResult retVal = null;
+		if(!registeredSQLStatements.containsKey(sqlKey)){
+			throw new DataAccessException("No such key: "+sqlKey);
+		}
+		long callStart = System.nanoTime();
+		startTransaction();
+		try{
+			return writeData(sqlKey, parameters);
+		}
+		finally{
+			endTransaction();
+			metrics.setDataCompleted(System.nanoTime() - callStart);
+		}
+	}
+	/**
+	 * This method does the same work as setData without waiting for it.  When group commit has been turned on using the 
+	 * setGroupCommit method the write is queued and committed together with any other queued writes in a single SQLite transaction.  
+	 * When group commit is off the write is done before this method returns.
+	 * @param sqlKey - the key representing the SQL to be executed.  It must have previously been registered using one of the registerSync* methods.
+	 * @param parameters - an array of objects to be bound to the ? place holders if the registered SQL is to be used as 
+	 * a prepared statement.  The array is copied so it may be reused once this method returns.
+	 * @return a future that completes with the same DataAccessResult setData would have returned once the write has been 
+	 * committed, or completes exceptionally if the write failed.
+	 * @throws DataAccessException
+	 * @throws InterruptedException
+	 * @throws JSONException
+	 */
+	public CompletableFuture<DataAccessResult> setDataAsync(String sqlKey, Object[] parameters) throws DataAccessException, InterruptedException, JSONException{
+		if(!registeredSQLStatements.containsKey(sqlKey)){
+			throw new DataAccessException("No such key: "+sqlKey);
+		}
+		GroupCommitter committer = groupCommitter;
+		if(committer == null){
+			CompletableFuture<DataAccessResult> written = new CompletableFuture<DataAccessResult>();
+			written.complete(setData(sqlKey, parameters));
+			return written;
+		}
+		return committer.submit(sqlKey, parameters);
+	}
+	/**
+	 * This method turns group commit on or off for the setDataAsync method.  Writes queued by any number of threads are 
+	 * committed together by a background thread so a burst of writes costs one SQLite commit instead of one per write.  
+	 * Any writes already queued are committed before the settings change.
+	 * @param flushWindowMillis - the number of milliseconds to wait after a write is queued for other writes to join it.
+	 * @param maxBatchSize - the largest number of writes committed together.  Zero or less turns group commit off.
+	 * @throws InterruptedException
+	 */
+	public synchronized void setGroupCommit(long flushWindowMillis, int maxBatchSize) throws InterruptedException{
+		GroupCommitter previous = groupCommitter;
+		groupCommitter = maxBatchSize > 0 ? new GroupCommitter(this, flushWindowMillis, maxBatchSize) : null;
+		if(previous != null){
+			previous.shutDown();
+		}
+	}
+	
+	/*
+	 * Stores the parameters for the next sync and executes the registered SQL.  Must be called between startTransaction 
+	 * and endTransaction.  An SQL error marks the transaction to be rolled back.
+	 */
+	private DataAccessResult writeData(String sqlKey, Object[] parameters) throws DataAccessException, JSONException{
 		String sql = registeredSQLStatements.get(sqlKey);
-
 		if(sql == null){
 			throw new DataAccessException("No such key: "+sqlKey);
 		}
-			
-		startTransaction();
-		if(!executingTransaction){
-			semaphore.acquire(1);
-		}
-		//insert into sync table
-		Object[] preparedStatementParameters = new Object[2];
-		preparedStatementParameters[0] = sqlKey;
-		preparedStatementParameters[1] = JSONUtilities.stringify(parameters);
-		DataAccessResult syncInsertResult = DataAccessObject.transact(theActivityRef, dbName, 
-													"INSERT INTO sync_values (sql_key, sql_params) VALUES(?,?)", preparedStatementParameters);
-		if(!syncInsertResult.getErrorDescription().equals("not an error")){
-			throw new DataAccessException("Error: unable to insert sync values "+parameters+" for key "+sqlKey);
+		String changeKey = statementChanges.get(sqlKey);
+		if(!changeCapture && (changeKey == null || !capturedChanges.contains(changeKey))){
+			//insert into sync table
+			Object[] preparedStatementParameters = new Object[2];
+			preparedStatementParameters[0] = sqlKey;
+			if(binaryJournal){
+				preparedStatementParameters[1] = SyncValueCodec.encode(parameters);
+			}
+			else{
+				preparedStatementParameters[1] = JSONUtilities.stringify(parameters);
+			}
+			DataAccessResult syncInsertResult = storage.transact("INSERT INTO sync_values (sql_key, sql_params) VALUES(?,?)", preparedStatementParameters);
+			if(!syncInsertResult.getErrorDescription().equals("not an error")){
+				allTransactionStatementsExecuted = false;
+				throw new DataAccessException("Error: unable to insert sync values "+parameters+" for key "+sqlKey);
+			}
 		}
 		
+		transactionWroteData = true;
+		transactionKeys.add(sqlKey);
 		//execute the sql statement
-		retVal = DataAccessObject.transact(theActivityRef, dbName, sql, parameters);
-		endTransaction();
-
-		//registeredSQLStatements.put(sqlKey, SQL);
-		if(!executingTransaction){
-			semaphore.release(1);
+		DataAccessResult retVal = storage.transact(sql, parameters);
+		if(!retVal.getErrorDescription().equals("not an error")){
+			allTransactionStatementsExecuted = false;
 		}
 		return retVal;
 	}
+	
+	/*
+	 * Called by the group committer.  Writes the group in a single transaction and completes each write's future once 
+	 * the transaction has committed.  If any write fails the transaction is rolled back and each write is retried in its own 
+	 * transaction so only the writes that actually fail are reported as failed.
+	 */
+	void commitGroup(ArrayList<GroupCommitter.PendingWrite> group){
+		DataAccessResult[] results = new DataAccessResult[group.size()];
+		boolean groupCommitted = false;
+		try{
+			startTransaction();
+			try{
+				for(int i = 0; i < results.length; i++){
+					GroupCommitter.PendingWrite aWrite = group.get(i);
+					results[i] = writeData(aWrite.sqlKey, aWrite.parameters);
+				}
+				groupCommitted = allTransactionStatementsExecuted;
+			}
+			finally{
+				if(!groupCommitted){
+					allTransactionStatementsExecuted = false;
+				}
+				endTransaction();
+			}
+		}
+		catch(Exception e){
+			groupCommitted = false;
+		}
+		for(int i = 0; i < results.length; i++){
+			GroupCommitter.PendingWrite aWrite = group.get(i);
+			if(groupCommitted){
+				aWrite.result.complete(results[i]);
+			}
+			else{
+				try{
+					aWrite.result.complete(setData(aWrite.sqlKey, aWrite.parameters));
+				}
+				catch(Exception e){
+					aWrite.result.completeExceptionally(e);
+				}
+			}
+		}
+	}
 	/**
-	 * This method is called prior to making multiple setData calls.  It starts an SQLite transaction.
+	 * This method is called prior to making multiple setData calls.  It starts an SQLite transaction.  The calling thread 
+	 * is the only one that can set data until it calls endTransaction.  Transactions may be nested, in which case only the 
+	 * outermost pair of calls starts and ends the SQLite transaction.
 	 * @throws InterruptedException
 	 * @throws DataAccessException
 	 */
 	public void startTransaction() throws InterruptedException, DataAccessException{
-		semaphore.acquire(1);
-		executingTransaction = true;
-		DataAccessObject.startTransaction(theActivityRef, dbName);
-		semaphore.release(1);
-		allTransactionStatementsExecuted = true;
+		lockDatabase(true);
+		if(transactionDepth == 0){
+			try{
+				storage.startTransaction();
+			}
+			catch(DataAccessException e){
+				databaseLock.writeLock().unlock();
+				throw e;
+			}
+			allTransactionStatementsExecuted = true;
+		}
+		transactionDepth++;
 	}
 	/**
 	 * This method is called after the startTransaction method and any number of setData calls.  It terminates 
@@ -303,183 +911,602 @@ public class SynchronizedDB{
 	 * @throws DataAccessException
 	 */
 	public void endTransaction() throws InterruptedException, DataAccessException{
-		semaphore.acquire(1);
-		DataAccessObject.endTransaction(theActivityRef, dbName, allTransactionStatementsExecuted);
-		executingTransaction = true;
-		semaphore.release(1);
+		if(!databaseLock.isWriteLockedByCurrentThread()){
+			throw new DataAccessException("Error: endTransaction called without a matching startTransaction.");
+		}
+		try{
+			transactionDepth--;
+			if(transactionDepth == 0){
+				boolean dataCommitted = transactionWroteData && allTransactionStatementsExecuted;
+				transactionWroteData = false;
+				//no query can run until the write lock is released so the cache can not be refilled with data that is about to change
+				invalidateQueries(transactionKeys);
+				transactionKeys.clear();
+				storage.endTransaction(allTransactionStatementsExecuted);
+				SyncScheduler scheduler = syncScheduler;
+				if(dataCommitted && scheduler != null){
+					scheduler.dataChanged();
+				}
+				SyncCoordinator theCoordinator = coordinator;
+				if(dataCommitted && theCoordinator != null){
+					theCoordinator.dataChanged();
+				}
+			}
+		}
+		finally{
+			databaseLock.writeLock().unlock();
+		}
 	}
 	/**
-	 * This method pushes any stored setData parameters to the HTTP service, waits for any data from the service, 
-	 * and then inserts any data received from the service into the appropriate tables in the local SQLite database.
-	 * @throws ClientProtocolException
-	 * @throws DataAccessException
-	 * @throws JSONException
-	 * @throws IOException
-	 * @throws InterruptedException
-	 * @throws QCSynchronizationException
+	 * This method does the same work as sync on a background thread.  If a sync is already in flight no new sync is 
+	 * started and the in flight sync's future is returned instead.
+	 * @return a future that completes when the sync has finished or completes exceptionally with the exception the sync threw.
 	 */
-	public void sync() throws ClientProtocolException, DataAccessException, JSONException, IOException, InterruptedException, QCSynchronizationException{
-		sync(null,HTTP.UTF_8);
+	public synchronized CompletableFuture<Void> syncAsync(){
+		if(syncScheduler == null){
+			syncScheduler = new SyncScheduler(syncTask(), "SynchronizedDB sync", 0, 0, 0, 0);
+		}
+		return syncScheduler.requestSync();
 	}
 	/**
-	 * This method pushes any stored setData parameters to the HTTP service, waits for any data from the service, 
-	 * and then inserts any data received from the service into the appropriate tables in the local SQLite database.
-	 * @param anEncryptionCipher - a Cipher used to encrypt the data sent to the HTTP service and decrypt the response.
-	 * @throws DataAccessException
-	 * @throws JSONException
-	 * @throws ClientProtocolException
-	 * @throws IOException
-	 * @throws InterruptedException
-	 * @throws QCSynchronizationException
-	 *
-	 // this method has been commented out until support for Ciphers can be fully implemented.
-	public void sync(Cipher anEncryptionCipher) throws DataAccessException, JSONException, ClientProtocolException, IOException, InterruptedException, QCSynchronizationException{
-		try{
-			sync(anEncryptionCipher, HTTP.UTF_8);
-		}
-		catch (UnsupportedEncodingException e) {
-			//UTF-8 is supported so do nothing
+	 * This method starts syncing automatically on a background thread, replacing any previously started schedule.  
+	 * Any number of setData calls committed within the debounce time of each other cause a single sync.  A sync that would 
+	 * start while another is in flight is folded into a single follow up sync.  After a sync fails with an IOException or a 
+	 * QCSynchronizationException automatic syncs wait an exponentially increasing time, starting at initialBackoffMillis and 
+	 * doubling up to maxBackoffMillis, before trying again.  Any time of zero turns the matching behavior off.
+	 * @param debounceMillis - the number of milliseconds after the last committed write to wait before syncing.
+	 * @param periodMillis - the number of milliseconds between the end of one periodic sync and the start of the next.
+	 * @param initialBackoffMillis - the number of milliseconds to wait before retrying after the first failure.
+	 * @param maxBackoffMillis - the longest time in milliseconds to wait between retries.
+	 */
+	public synchronized void startSyncScheduler(long debounceMillis, long periodMillis, long initialBackoffMillis, long maxBackoffMillis){
+		stopSyncScheduler();
+		syncScheduler = new SyncScheduler(syncTask(), "SynchronizedDB sync", debounceMillis, periodMillis, initialBackoffMillis, maxBackoffMillis);
+	}
+	
+	private Callable<Void> syncTask(){
+		return new Callable<Void>(){
+			public Void call() throws Exception {
+				sync();
+				return null;
+			}
+		};
+	}
+	/**
+	 * This method stops all automatic and background syncs.  A sync that is already in flight is allowed to finish.
+	 */
+	public synchronized void stopSyncScheduler(){
+		if(syncScheduler != null){
+			syncScheduler.stop();
+			syncScheduler = null;
 		}
-	}*/
+	}
 	/**
 	 * This method pushes any stored setData parameters to the HTTP service, waits for any data from the service, 
 	 * and then inserts any data received from the service into the appropriate tables in the local SQLite database.
-	 * @param anEncryptionCipher - a Cipher used to encrypt the data sent to the HTTP service and decrypt the response.
-	 * @param encoding - the encoding type of the data sent to and received from the HTTP service.  Example: UTF-8.    
-	 * This parameter must be one of the public static values found in the org.apache.http.protocol.HTTP class.
+	 * <br/>
+	 * Each stored value is sent with an id that is never reused by the database.  Every request also holds the database 
+	 * member, an id created for the database when it is first opened, since the ids of different databases sharing a login 
+	 * overlap.  A service recognizes a value it has already stored by its login, database, and id.  A service may respond with a sync_ack field, next to 
+	 * sync_time, holding the id of the last value it has stored.  Only acknowledged values are removed, and any that were 
+	 * sent but not acknowledged are sent again in the next request.  If a sync is interrupted, for example by a dropped 
+	 * connection, the next sync resumes after the last acknowledged value.  A service that does not send sync_ack is treated 
+	 * as having stored every value it was sent.
+	 * @throws ClientProtocolException
 	 * @throws DataAccessException
 	 * @throws JSONException
-	 * @throws ClientProtocolException
 	 * @throws IOException
 	 * @throws InterruptedException
 	 * @throws QCSynchronizationException
 	 */
-	//this method has been made private until support for Ciphers can be fully implemented.
+	public void sync() throws ClientProtocolException, DataAccessException, JSONException, IOException, InterruptedException, QCSynchronizationException{
+		sync(payloadKey);
+	}
+	
+	/*
+	 * Syncs with the request and response bodies encrypted using the payload key, or not encrypted if it is null.
+	 */
 	@SuppressWarnings("unchecked")
-	private void sync(Cipher anEncryptionCipher, String encoding) throws DataAccessException, JSONException, ClientProtocolException, IOException, InterruptedException, QCSynchronizationException{
-		//if not logged in login
-		if(!loggedIn){
-			try {
-				HttpPost httppost = new HttpPost(remoteURL);
-
-				List <NameValuePair> nameValuePairList = new ArrayList <NameValuePair>();
-				nameValuePairList.add(new BasicNameValuePair("cmd", "login"));
-				nameValuePairList.add(new BasicNameValuePair("uname", this.remoteUname));
-				nameValuePairList.add(new BasicNameValuePair("pword", this.remotePword));
-
-				httppost.setEntity(new UrlEncodedFormEntity(nameValuePairList, HTTP.UTF_8));
-
-
-
-				System.out.println("executing login request " + httppost.getRequestLine());
-				HttpResponse response = httpClient.execute(httppost, localContext);
-				if(response.getStatusLine().getStatusCode() / 200 == 1){
-					HttpEntity responseEntity = response.getEntity();
-					String JSONString = EntityUtils.toString(responseEntity, HTTP.UTF_8);
-					ArrayList<Object> resultList = (ArrayList<Object>) JSONUtilities.parse(JSONString);
-					HashMap<String,String> resultMap = (HashMap<String,String>)resultList.get(0);
-					String error = resultMap.get("sync_error");
-					if(error != null){
-						throw new IOException(error);
+	private void sync(SecretKey payloadKey) throws DataAccessException, JSONException, ClientProtocolException, IOException, InterruptedException, QCSynchronizationException{
+		if(databaseLock.isWriteLockedByCurrentThread()){
+			throw new QCSynchronizationException("Error: sync can not be called between startTransaction and endTransaction.");
+		}
+		syncLock.lockInterruptibly();
+		long syncStart = System.nanoTime();
+		boolean succeeded = false;
+		try{
+			//if not logged in login
+			session.login(metrics);
+			File workDirectory = snapshotDirectory;
+			if(workDirectory != null && !hasSynced()){
+				bootstrap(workDirectory, payloadKey);
+			}
+			UploadBatchSizer sizer = uploadBatchSizer;
+			if(sizer != null){
+				sizer.load(storage, session.getRemoteURL().toString());
+			}
+			//only the values stored before the sync started are sent.  Values stored while it runs are left for the next sync.
+			long highWaterRowid = journal.highWaterRowid();
+			compactJournal(highWaterRowid);
+			long lastRowid = 0;
+			do{
+				long batchEnd = journal.findBatchEnd(lastRowid, highWaterRowid, sizer == null ? uploadBatchRows : sizer.getBatchRows(), uploadBatchBytes);
+				if(batchEnd > lastRowid){
+					markSent(batchEnd);
+				}
+				HttpResponse response = null;
+				//each request has its own exchange nonce so its response can not be replayed as the response to another
+				PayloadEncryption.Binding requestBinding = payloadKey == null ? null : PayloadEncryption.Binding.request(payloadKey, "sync");
+				try{
+					response = postSyncBatch(lastRowid, batchEnd, requestBinding, sizer);
+				}
+				catch(IOException e){
+					saveBatchSize(sizer);
+					throw e;
+				}
+				ArrayList<Object> resultList = null;
+				InboundPipeline pipeline = inboundPipeline;
+				Reader pipelinedReader = null;
+				InboundPipeline.Run pipelineRun = null;
+				if(pipeline != null){
+					//decoding starts while this thread waits for the database lock
+					pipelinedReader = new InputStreamReader(session.openResponse(response, metrics, requestBinding), HTTP.UTF_8);
+					pipelineRun = pipeline.start(new SyncJSONReader(pipelinedReader), registeredSQLStatements);
+				}
+				else if(!streamingCodec){
+					long decodeStart = System.nanoTime();
+					resultList = (ArrayList<Object>)JSONUtilities.parse(session.readResponse(response, metrics, requestBinding));
+					metrics.phaseCompleted(SyncPhase.DECODE, System.nanoTime() - decodeStart);
+				}
+				
+				//the values the service acknowledges are removed in the same transaction that applies the response to them
+				long acknowledged = -1;
+				SyncApplier applier = new SyncApplier(storage, registeredSQLStatements);
+				boolean applied = false;
+				long applyStart = System.nanoTime();
+				long clearStart = 0;
+				try{
+					lockDatabase(true);
+					try{
+						applier.begin();
+						try{
+							if(pipelineRun != null){
+								acknowledged = pipelineRun.applyTo(applier);
+							}
+							else if(resultList == null){
+								Reader responseReader = new InputStreamReader(session.openResponse(response, metrics, requestBinding), HTTP.UTF_8);
+								try{
+									acknowledged = applySyncResponse(new SyncJSONReader(responseReader), applier);
+								}
+								finally{
+									responseReader.close();
+								}
+							}
+							else{
+								acknowledged = applySyncResult(resultList, applier);
+							}
+							//a service that does not acknowledge ids has stored every value it was sent
+							if(acknowledged < 0 || acknowledged > batchEnd){
+								acknowledged = batchEnd;
+							}
+							clearStart = System.nanoTime();
+							metrics.phaseCompleted(SyncPhase.APPLY, clearStart - applyStart);
+							journal.remove(acknowledged);
+							if(sizer != null){
+								sizer.save(storage);
+							}
+							applier.commit();
+							applied = true;
+						}
+						finally{
+							applier.end();
+							invalidateQueries(applier.getAppliedKeys());
+						}
+					}
+					finally{
+						databaseLock.writeLock().unlock();
 					}
-					else{
-						loggedIn = true;
-						System.out.println("successful login");
+				}
+				finally{
+					if(pipelineRun != null){
+						try{
+							if(!applied){
+								//the scanner may be blocked reading a response the service is still sending
+								session.abortResponse(response);
+							}
+							pipelineRun.finish();
+						}
+						finally{
+							pipelinedReader.close();
+						}
 					}
 				}
-				else{
-					throw new IOException("Invalid user name or password");
+				if(applied){
+					metrics.phaseCompleted(SyncPhase.CLEAR, System.nanoTime() - clearStart);
+					metrics.rowsApplied(applier.getRowsApplied());
+				}
+				if(acknowledged <= lastRowid && batchEnd > lastRowid){
+					throw new QCSynchronizationException("Error: the service did not acknowledge any of the values sent after id "+lastRowid+".");
 				}
+				//unacknowledged values are sent again at the start of the next batch
+				lastRowid = acknowledged;
+				//a sync may be stopped cleanly between batches and pages
+				if(Thread.interrupted()){
+					throw new InterruptedException();
+				}
+			}while(lastRowid < highWaterRowid || readSyncInfo()[1] != null);
+			succeeded = true;
+		}
+		finally{
+			syncLock.unlock();
+			metrics.syncCompleted(System.nanoTime() - syncStart, succeeded);
+		}
+	}
+	
+	/*
+	 * Stores the smaller batch size learned from a failed request so it is used after a restart.  The request's failure 
+	 * is reported rather than any failure to store the size.
+	 */
+	private void saveBatchSize(UploadBatchSizer sizer){
+		if(sizer == null){
+			return;
+		}
+		try{
+			lockDatabase(true);
+			try{
+				sizer.save(storage);
 			}
-			catch(Exception e){
-				throw new IOException(e);
+			finally{
+				databaseLock.writeLock().unlock();
 			}
 		}
-		System.out.println("login success.  about to query.");
-		//get the data from the sync_values table
-		startTransaction();
-		System.out.println("after transaction start");
-		DataAccessResult syncValuesResult = DataAccessObject.transact(theActivityRef, dbName, "SELECT * FROM sync_values", null);
-		ArrayList<ArrayList<String>> syncValues = syncValuesResult.getResults();
-		//get the data from the sync_info table
-		DataAccessResult lastSyncResult = DataAccessObject.transact(theActivityRef, dbName, "SELECT last_sync FROM sync_info", null);
-		
-		//release the semaphore here since the rest is just data prep and send
-		
-		
-		String lastSync = "1970-01-01 00:00:00";
-		if(lastSyncResult.getResults().size() > 0){
-			lastSync = lastSyncResult.getResults().get(0).get(0);
+		catch(DataAccessException e){
+			//the size is stored after the next request that succeeds
 		}
-		//create a sync object from the data
-		SyncData theDataToSync = new SyncData(lastSync, syncValues);
-		//JSON the sync object using encryption if ciper is not null
-
-		String JSONString = null;
-		if(anEncryptionCipher == null){
-			JSONString = JSONUtilities.stringify(theDataToSync);
+		catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/*
+	 * Acquires the shared or exclusive database lock, reporting the time spent waiting for it.
+	 */
+	private void lockDatabase(boolean exclusive) throws InterruptedException{
+		long waitStart = System.nanoTime();
+		if(exclusive){
+			databaseLock.writeLock().lockInterruptibly();
 		}
 		else{
-			//Not supported in QCJSON at this time.
-			//JSONString = JSONUtilities.stringify(theDataToSync, anEncryptionCipher);
-			JSONString = JSONUtilities.stringify(theDataToSync);
+			databaseLock.readLock().lockInterruptibly();
 		}
-		//escape the resultant string
-
-		//post the JSON
-		try {
-			HttpPost httppost = new HttpPost(remoteURL);
-
-			List <NameValuePair> nameValuePairList = new ArrayList <NameValuePair>();
-			nameValuePairList.add(new BasicNameValuePair("cmd", "sync"));
-			nameValuePairList.add(new BasicNameValuePair("data", JSONString));
-
-			httppost.setEntity(new UrlEncodedFormEntity(nameValuePairList, HTTP.UTF_8));
-
-
-
-			System.out.println("executing request " + httppost.getRequestLine());
-			HttpResponse response = httpClient.execute(httppost, localContext);
-			if(response.getStatusLine().getStatusCode() / 200 == 1){
-				HttpEntity responseEntity = response.getEntity();
-	 
-				String result = EntityUtils.toString(responseEntity, HTTP.UTF_8);
-				System.out.println("JSON: "+result);
-				ArrayList<Object> resultList = (ArrayList<Object>)JSONUtilities.parse(result);
-				HashMap<String,String>syncResultMap = (HashMap<String,String>)resultList.get(0);
-				if(syncResultMap.get("sync_error") != null && !((Object)syncResultMap.get("sync_response")).equals("data_success")){
-					throw new QCSynchronizationException((String)syncResultMap.get("sync_error"));
-				}
-				HashMap<String,Object>dataMap = (HashMap<String,Object>)resultList.get(1);
-				//HashMap<String,String> timeStampMap = (HashMap<String,String>)resultList.get(1);
-				String lastSyncTime = (String)dataMap.get("sync_time");
-				ArrayList<HashMap<String,Object>> dataList = (ArrayList<HashMap<String,Object>>)dataMap.get("sync_data");
-				//update the time stamp for lastSyncTime
-				Object[] preparedStatementParameters = new Object[1];
-				preparedStatementParameters[0] = lastSyncTime;
+		metrics.lockWaited(System.nanoTime() - waitStart, exclusive);
+	}
+	
+	/*
+	 * Removes the cached results that read a table written by any of the statements with the given keys.
+	 */
+	private void invalidateQueries(Set<String> writtenKeys){
+		QueryCache cache = queryCache;
+		if(cache == null || writtenKeys.isEmpty()){
+			return;
+		}
+		HashSet<String> writtenTables = new HashSet<String>();
+		for(String sqlKey : writtenKeys){
+			Set<String> tables = statementTables.get(sqlKey);
+			if(tables == null){
+				cache.invalidate(null);
+				return;
+			}
+			writtenTables.addAll(tables);
+		}
+		cache.invalidate(writtenTables);
+	}
+	
+	/*
+	 * Removes the stored values that later values for the same records make unnecessary to send.  Values that have been 
+	 * sent before may have been stored by the service, so their inserts are not cancelled out by later deletes.
+	 */
+	private void compactJournal(long upToRowid) throws IOException, DataAccessException, InterruptedException{
+		if(statementIdentities.isEmpty()){
+			return;
+		}
+		ArrayList<Long> superseded = new JournalCompactor(journal, statementIdentities).findSuperseded(readSentId(), upToRowid);
+		if(superseded.size() > 0){
+			lockDatabase(true);
+			try{
+				journal.removeRows(superseded);
+			}
+			finally{
+				databaseLock.writeLock().unlock();
+			}
+		}
+	}
+	
+	/*
+	 * Records that the stored values up to and including upToRowid are about to be sent.  It is stored before the request 
+	 * so a request the service stores but whose response is lost is still known to have been sent.
+	 */
+	private void markSent(long upToRowid) throws DataAccessException, InterruptedException{
+		lockDatabase(true);
+		try{
+			DataAccessResult aResult = storage.transact("INSERT OR REPLACE INTO sync_info VALUES(0,(SELECT last_sync FROM sync_info),(SELECT pull_token FROM sync_info),"
+					+"max(?,ifnull((SELECT sent_id FROM sync_info),0)))", new Object[]{Long.valueOf(upToRowid)});
+			if(!aResult.getErrorDescription().equals("not an error")){
+				throw new DataAccessException(aResult.getErrorDescription());
+			}
+		}
+		finally{
+			databaseLock.writeLock().unlock();
+		}
+	}
+	
+	/*
+	 * Returns the id of the last stored value that has been sent, or 0 if none has.
+	 */
+	private long readSentId() throws DataAccessException{
+		DataAccessResult sentResult = storage.transact("SELECT sent_id FROM sync_info WHERE sent_id IS NOT NULL", null);
+		if(!sentResult.getErrorDescription().equals("not an error")){
+			throw new DataAccessException(sentResult.getErrorDescription());
+		}
+		return sentResult.getResults().size() > 0 ? Long.parseLong(sentResult.getResults().get(0).get(0)) : 0;
+	}
+	
+	/*
+	 * Returns true once a sync time has been stored by a sync or a snapshot.
+	 */
+	private boolean hasSynced() throws DataAccessException{
+		DataAccessResult lastSyncResult = storage.transact("SELECT last_sync FROM sync_info WHERE last_sync IS NOT NULL", null);
+		if(!lastSyncResult.getErrorDescription().equals("not an error")){
+			throw new DataAccessException(lastSyncResult.getErrorDescription());
+		}
+		return lastSyncResult.getResults().size() > 0;
+	}
+	
+	/*
+	 * Downloads a snapshot of the service's data and installs it with its sync time in a single transaction.  Does nothing if the 
+	 * service does not send snapshots.  If there is a payload key the snapshot is encrypted and stays encrypted in its file.
+	 */
+	private void bootstrap(File workDirectory, SecretKey payloadKey) throws ClientProtocolException, IOException, JSONException, DataAccessException, InterruptedException, QCSynchronizationException{
+		long downloadStart = System.nanoTime();
+		List <NameValuePair> nameValuePairList = new ArrayList <NameValuePair>();
+		nameValuePairList.add(new BasicNameValuePair("cmd", "snapshot"));
+		HttpEntity requestEntity = new UrlEncodedFormEntity(nameValuePairList, HTTP.UTF_8);
+		URI requestURL = session.getRemoteURL();
+		PayloadEncryption.Binding requestBinding = null;
+		if(payloadKey != null){
+			requestBinding = PayloadEncryption.Binding.request(payloadKey, "snapshot");
+			requestEntity = new EncryptedRequestEntity(requestEntity, requestBinding);
+			requestURL = session.commandURL("snapshot");
+		}
+		HttpResponse response = session.executePost(requestEntity, requestURL, metrics);
+		if(!SyncSnapshot.isSnapshot(response)){
+			if(response.getEntity() != null){
+				response.getEntity().consumeContent();
+			}
+			return;
+		}
+		File snapshotFile = SyncSnapshot.download(response, workDirectory, metrics, requestBinding);
+		try{
+			long applyStart = System.nanoTime();
+			metrics.phaseCompleted(SyncPhase.SNAPSHOT, applyStart - downloadStart);
+			SyncApplier applier = new SyncApplier(storage, registeredSQLStatements);
+			lockDatabase(true);
+			try{
+				applier.begin();
 				try{
-				DataAccessResult updateResult = DataAccessObject.transact(theActivityRef, dbName, "INSERT OR REPLACE INTO sync_info VALUES(0,?)", preparedStatementParameters);
-				
-				//execute each of the inserts for the sync data received.
-				for(HashMap<String,Object>syncDatum : dataList){
-					String sqlKey = (String)syncDatum.get("key");
-					ArrayList<String> sqlParameterList = (ArrayList<String>)syncDatum.get("syncInfo");
-					String sql = registeredSQLStatements.get(sqlKey);
-					updateResult = DataAccessObject.transact(theActivityRef, dbName, sql, sqlParameterList.toArray());
+					SyncSnapshot.install(snapshotFile, applier, requestBinding);
+					applier.commit();
 				}
+				finally{
+					applier.end();
+					invalidateQueries(applier.getAppliedKeys());
 				}
-				catch(Exception e){
-					throw new QCSynchronizationException(e.getLocalizedMessage()+" "+e.getCause());
+			}
+			finally{
+				databaseLock.writeLock().unlock();
+			}
+			metrics.phaseCompleted(SyncPhase.APPLY, System.nanoTime() - applyStart);
+			metrics.rowsApplied(applier.getRowsApplied());
+		}
+		finally{
+			snapshotFile.delete();
+		}
+	}
+	
+	/*
+	 * Returns the last sync time and the continuation token of the next page to pull, which is null if there is none.
+	 */
+	private String[] readSyncInfo() throws DataAccessException{
+		//get the data from the sync_info table
+		DataAccessResult lastSyncResult = storage.transact("SELECT last_sync, pull_token FROM sync_info WHERE last_sync IS NOT NULL", null);
+		String[] syncInfo = {"1970-01-01 00:00:00", null};
+		if(lastSyncResult.getResults().size() > 0){
+			syncInfo[0] = lastSyncResult.getResults().get(0).get(0);
+			syncInfo[1] = lastSyncResult.getResults().get(0).get(1);
+		}
+		return syncInfo;
+	}
+	
+	/*
+	 * Posts the stored values following afterRowid up to and including upToRowid in the format chosen by the sync settings 
+	 * and the encodings the service accepts.  If the service rejects a compressed request as an unsupported media type the 
+	 * batch is sent again form encoded and form encoding is used for the rest of the session.  If there is a binding the request 
+	 * is encrypted with it after it is compressed.  The sizer, if not null, is told how long the request took or that it failed.
+	 */
+	private HttpResponse postSyncBatch(long afterRowid, long upToRowid, PayloadEncryption.Binding requestBinding, UploadBatchSizer sizer) throws ClientProtocolException, IOException, DataAccessException, JSONException{
+		boolean compressed = compressedTransport && session.acceptsCompression();
+		HttpEntity requestEntity = null;
+		int rowsSent = 0;
+		URI requestURL = session.getRemoteURL();
+		String[] syncInfo = readSyncInfo();
+		if(binaryUpload){
+			requestEntity = new SyncBinaryRequestEntity(journal, databaseId, syncInfo[0], syncInfo[1], pullPageSize, afterRowid, upToRowid);
+			requestURL = session.commandURL("sync");
+		}
+		else if(compressed){
+			requestEntity = new SyncRequestEntity(journal, databaseId, syncInfo[0], syncInfo[1], pullPageSize, afterRowid, upToRowid, false);
+			requestURL = session.commandURL("sync");
+		}
+		else if(streamingCodec){
+			requestEntity = new SyncRequestEntity(journal, databaseId, syncInfo[0], syncInfo[1], pullPageSize, afterRowid, upToRowid, true);
+		}
+		else{
+			long readStart = System.nanoTime();
+			ArrayList<ArrayList<String>> syncValues = journal.readRange(afterRowid, upToRowid, 0);
+			long encodeStart = System.nanoTime();
+			metrics.phaseCompleted(SyncPhase.JOURNAL_READ, encodeStart - readStart);
+			//create a sync object from the data
+			SyncData theDataToSync = new SyncData(syncInfo[0], syncValues);
+			theDataToSync.database = databaseId;
+			theDataToSync.continuation = syncInfo[1];
+			theDataToSync.pageSize = pullPageSize;
+			List <NameValuePair> nameValuePairList = new ArrayList <NameValuePair>();
+			nameValuePairList.add(new BasicNameValuePair("cmd", "sync"));
+			nameValuePairList.add(new BasicNameValuePair("data", JSONUtilities.stringify(theDataToSync)));
+			requestEntity = new UrlEncodedFormEntity(nameValuePairList, HTTP.UTF_8);
+			metrics.phaseCompleted(SyncPhase.ENCODE, System.nanoTime() - encodeStart);
+			rowsSent = syncValues.size();
+		}
+		HttpEntity uncompressedEntity = requestEntity;
+		if(compressed){
+			requestEntity = new GzipRequestEntity(requestEntity);
+		}
+		if(requestBinding != null){
+			requestEntity = new EncryptedRequestEntity(requestEntity, requestBinding);
+			requestURL = session.commandURL("sync");
+		}
+		long networkStart = System.nanoTime();
+		HttpResponse response = null;
+		try{
+			response = session.executePost(requestEntity, requestURL, metrics, sizer == null ? 0 : sizer.getRequestTimeoutMillis());
+		}
+		catch(IOException e){
+			if(sizer != null){
+				sizer.requestFailed();
+			}
+			throw e;
+		}
+		long networkNanos = System.nanoTime() - networkStart;
+		metrics.phaseCompleted(SyncPhase.NETWORK, networkNanos);
+		if(compressed && response.getStatusLine().getStatusCode() == UNSUPPORTED_MEDIA_TYPE){
+			if(response.getEntity() != null){
+				response.getEntity().consumeContent();
+			}
+			session.compressionRejected();
+			return postSyncBatch(afterRowid, upToRowid, requestBinding, sizer);
+		}
+		if(response.getStatusLine().getStatusCode() / 200 != 1){
+			if(sizer != null){
+				sizer.requestFailed();
+			}
+			throw new IOException(response.getStatusLine().toString());
+		}
+		//streamed requests count their rows as they are written
+		if(uncompressedEntity instanceof SyncRequestEntity){
+			rowsSent = ((SyncRequestEntity)uncompressedEntity).getRowsWritten();
+		}
+		else if(uncompressedEntity instanceof SyncBinaryRequestEntity){
+			rowsSent = ((SyncBinaryRequestEntity)uncompressedEntity).getRowsWritten();
+		}
+		metrics.rowsUploaded(rowsSent);
+		if(sizer != null){
+			sizer.requestSucceeded(rowsSent, networkNanos);
+		}
+		return response;
+	}
+	
+	/*
+	 * Stores the sync time sent by the service and executes each of the statements it sent.  Returns the id of the last 
+	 * value the service acknowledged storing, or -1 if it did not acknowledge any.
+	 */
+	@SuppressWarnings("unchecked")
+	private long applySyncResult(ArrayList<Object> resultList, SyncApplier applier) throws QCSynchronizationException{
+		checkSyncResult((HashMap<String,Object>)resultList.get(0));
+		HashMap<String,Object>dataMap = (HashMap<String,Object>)resultList.get(1);
+		String lastSyncTime = (String)dataMap.get("sync_time");
+		ArrayList<HashMap<String,Object>> dataList = (ArrayList<HashMap<String,Object>>)dataMap.get("sync_data");
+		//update the time stamp for lastSyncTime and the page to pull next
+		applier.applyCheckpoint(lastSyncTime, (String)dataMap.get("sync_continuation"));
+		//execute each of the inserts for the sync data received.
+		for(HashMap<String,Object>syncDatum : dataList){
+			applier.apply((String)syncDatum.get("key"), (ArrayList<Object>)syncDatum.get("syncInfo"));
+		}
+		return acknowledgedId(dataMap.get("sync_ack"));
+	}
+	
+	/*
+	 * Reads the service's response to a sync request and executes each statement it sent as soon as the 
+	 * statement has been read.  Returns the id of the last value the service acknowledged storing, or -1 if it did not acknowledge any.
+	 */
+	@SuppressWarnings("unchecked")
+	private long applySyncResponse(SyncJSONReader responseReader, SyncApplier applier) throws IOException, JSONException, QCSynchronizationException{
+		responseReader.beginArray();
+		checkSyncResult((HashMap<String,Object>)responseReader.nextValue());
+		String lastSyncTime = null;
+		String pullToken = null;
+		long acknowledged = -1;
+		responseReader.beginObject();
+		while(responseReader.hasNext()){
+			String aName = responseReader.nextName();
+			if(aName.equals("sync_time")){
+				lastSyncTime = responseReader.nextString();
+			}
+			else if(aName.equals("sync_continuation")){
+				pullToken = (String)responseReader.nextValue();
+			}
+			else if(aName.equals("sync_ack")){
+				acknowledged = acknowledgedId(responseReader.nextValue());
+			}
+			else if(aName.equals("sync_data")){
+				responseReader.beginArray();
+				while(responseReader.hasNext()){
+					String sqlKey = null;
+					ArrayList<Object> sqlParameterList = null;
+					responseReader.beginObject();
+					while(responseReader.hasNext()){
+						String aField = responseReader.nextName();
+						if(aField.equals("key")){
+							sqlKey = responseReader.nextString();
+						}
+						else if(aField.equals("syncInfo")){
+							sqlParameterList = (ArrayList<Object>)responseReader.nextValue();
+						}
+						else{
+							responseReader.skipValue();
+						}
+					}
+					responseReader.endObject();
+					applier.apply(sqlKey, sqlParameterList);
 				}
-				
-				this.clearSync();
+				responseReader.endArray();
 			}
 			else{
-				throw new IOException(response.getStatusLine().toString());
+				responseReader.skipValue();
 			}
 		}
-		finally {
-			endTransaction();
+		responseReader.endObject();
+		applier.applyCheckpoint(lastSyncTime, pullToken);
+		return acknowledged;
+	}
+	
+	static long acknowledgedId(Object ackValue) throws QCSynchronizationException{
+		if(ackValue == null){
+			return -1;
+		}
+		if(ackValue instanceof Number){
+			return ((Number)ackValue).longValue();
+		}
+		try{
+			return Long.parseLong(ackValue.toString().trim());
+		}
+		catch(NumberFormatException e){
+			throw new QCSynchronizationException("Error: invalid sync_ack "+ackValue);
+		}
+	}
+	
+	static void checkSyncResult(HashMap<String,Object> syncResultMap) throws QCSynchronizationException{
+		if(syncResultMap.get("sync_error") != null && !syncResultMap.get("sync_response").equals("data_success")){
+			throw new QCSynchronizationException((String)syncResultMap.get("sync_error"));
 		}
 	}
 	/**
@@ -489,36 +1516,45 @@ public class SynchronizedDB{
 	 * @throws JSONException
 	 */
 	public void clearSync() throws InterruptedException, DataAccessException, JSONException{
-    	this.startTransaction();
-		this.setData("DELETE FROM sync_values", null);
-		this.endTransaction();
+		lockDatabase(true);
+		try{
+			journal.remove(journal.highWaterRowid());
+		}
+		finally{
+			databaseLock.writeLock().unlock();
+		}
 	}
 	/**
 	 * This method sends a logout command to the remote HTTP service and closes down the HTTP client on the Android device.
 	 * @throws IOException
 	 */
 	public void cleanUp() throws IOException{
+		stopSyncScheduler();
 		try {
-			HttpPost httppost = new HttpPost(remoteURL);
-
-			List <NameValuePair> nameValuePairList = new ArrayList <NameValuePair>();
-			nameValuePairList.add(new BasicNameValuePair("cmd", "logout"));
-
-			httppost.setEntity(new UrlEncodedFormEntity(nameValuePairList, HTTP.UTF_8));
-
-			System.out.println("executing logout request " + httppost.getRequestLine());
-			HttpResponse response = httpClient.execute(httppost, localContext);
-			if(response.getStatusLine().getStatusCode() / 200 != 1){
-				throw new IOException("Unable to logout");
+			//commit anything still queued by setDataAsync
+			setGroupCommit(0, 0);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		SyncCoordinator theCoordinator = coordinator;
+		if(theCoordinator != null){
+			theCoordinator.removeDatabase(this);
+		}
+		setPipelinedApply(0, 0);
+		try{
+			//a shared session is logged out by its SyncCoordinator
+			if(ownsSession){
+				try{
+					session.logout(metrics);
+				}
+				finally{
+					session.shutDown();
+				}
 			}
 		}
-		catch(Exception e){
-			throw new IOException(e);
+		finally{
+			storage.close();
 		}
-		// When HttpClient instance is no longer needed,
-		// shut down the connection manager to ensure
-		// immediate deallocation of all system resources
-		httpClient.getConnectionManager().shutdown();
 	}
 
 
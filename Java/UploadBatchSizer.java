@@ -0,0 +1,159 @@
+package org.quickconnectfamily.sync;
+
+import java.util.ArrayList;
+
+import org.quickconnectfamily.dbaccess.DataAccessException;
+import org.quickconnectfamily.dbaccess.DataAccessResult;
+
+/*
+ * Chooses how many stored values to send in each sync request from how the earlier requests to the same service went.
+ * Like a TCP congestion window, the size doubles after each request that took less than the target time until a request
+ * fails or is slow, and from then on grows by minRows at a time.  A request that fails halves the size.  A request that
+ * took longer than the target shrinks it to the number of values that would have fit in the target time.  A full request
+ * that moves clearly fewer values per second than the best smaller one returns the size to that smaller one, since a
+ * larger request is then only slower to retry.  Only requests that were filled to the size are used to grow it.
+ *
+ * The size learned for each service URL is stored in the sync_batch_sizes table so a later run starts from it.
+ */
+class UploadBatchSizer {
+	static final String BATCH_SIZES_TABLE = "CREATE TABLE IF NOT EXISTS sync_batch_sizes(endpoint TEXT PRIMARY KEY NOT NULL, batch_rows INTEGER NOT NULL)";
+	//how many times the target a request may go without receiving anything before it is treated as failed
+	private static final int TIMEOUT_TARGETS = 4;
+	//a larger request must move at least this fraction of the values per second of the best smaller one to keep growing
+	private static final double THROUGHPUT_TOLERANCE = 0.9;
+
+	private int minRows;
+	private int maxRows;
+	private long targetNanos;
+	private int batchRows;
+	private boolean slowStart = true;
+	//the size and values per second of the full request growth is measured against, or zero after a failed or slow request
+	private int bestRows;
+	private double bestRowsPerSecond;
+	private String endpoint;
+	private boolean changed;
+
+	UploadBatchSizer(int minRows, int maxRows, long targetMillis){
+		if(minRows < 1){
+			throw new IllegalArgumentException("minRows must be at least 1: "+minRows);
+		}
+		if(maxRows < minRows){
+			throw new IllegalArgumentException("maxRows must be at least minRows: "+maxRows);
+		}
+		if(targetMillis < 1){
+			throw new IllegalArgumentException("targetMillis must be at least 1: "+targetMillis);
+		}
+		this.minRows = minRows;
+		this.maxRows = maxRows;
+		this.targetNanos = targetMillis * 1000000L;
+		batchRows = minRows;
+	}
+
+	/*
+	 * Reads the size stored for the service URL, if there is one.  Does nothing if the size for the URL has already been read.
+	 * A stored size is already near the best one so it is grown one step at a time.
+	 */
+	synchronized void load(SyncStorage storage, String anEndpoint) throws DataAccessException{
+		if(anEndpoint.equals(endpoint)){
+			return;
+		}
+		endpoint = anEndpoint;
+		batchRows = minRows;
+		slowStart = true;
+		bestRows = 0;
+		changed = false;
+		DataAccessResult aResult = storage.transact("SELECT batch_rows FROM sync_batch_sizes WHERE endpoint = ?", new Object[]{endpoint});
+		if(!aResult.getErrorDescription().equals("not an error")){
+			throw new DataAccessException(aResult.getErrorDescription());
+		}
+		ArrayList<ArrayList<String>> results = aResult.getResults();
+		if(results.size() > 0){
+			try{
+				batchRows = Math.max(minRows, Math.min(maxRows, Integer.parseInt(results.get(0).get(0))));
+				slowStart = false;
+			}
+			catch(NumberFormatException e){
+				//a damaged size is learned again
+			}
+		}
+	}
+
+	/*
+	 * Stores the current size for the service URL if it has changed since it was read or last stored.
+	 */
+	synchronized void save(SyncStorage storage) throws DataAccessException{
+		if(!changed || endpoint == null){
+			return;
+		}
+		DataAccessResult aResult = storage.transact("INSERT OR REPLACE INTO sync_batch_sizes VALUES(?,?)", new Object[]{endpoint, Integer.valueOf(batchRows)});
+		if(!aResult.getErrorDescription().equals("not an error")){
+			throw new DataAccessException(aResult.getErrorDescription());
+		}
+		changed = false;
+	}
+
+	synchronized int getBatchRows(){
+		return batchRows;
+	}
+
+	/*
+	 * The socket timeout of a sync request until the start of its response, so a request stalled on a bad network fails and
+	 * the size shrinks instead of the request waiting forever.
+	 */
+	int getRequestTimeoutMillis(){
+		return (int)Math.min(Integer.MAX_VALUE, targetNanos / 1000000L * TIMEOUT_TARGETS);
+	}
+
+	/*
+	 * Called after the service accepted a request holding the number of values, with the time from sending it to receiving the
+	 * start of the response.
+	 */
+	synchronized void requestSucceeded(int rowsSent, long nanos){
+		if(rowsSent <= 0){
+			return;
+		}
+		if(nanos > targetNanos){
+			//the number of values that would have been sent in the target time
+			shrinkTo((int)Math.min(batchRows, (long)((double)rowsSent * targetNanos / nanos)));
+			return;
+		}
+		if(rowsSent < batchRows){
+			//a request that did not fill the size says nothing about a larger one
+			return;
+		}
+		double rowsPerSecond = rowsSent * 1000000000.0 / Math.max(1, nanos);
+		if(bestRows > 0 && rowsSent > bestRows && rowsPerSecond < bestRowsPerSecond * THROUGHPUT_TOLERANCE){
+			slowStart = false;
+			setBatchRows(bestRows);
+			return;
+		}
+		//a request no larger than the best one replaces it so a network that has become slower is measured again
+		if(bestRows == 0 || rowsSent <= bestRows || rowsPerSecond >= bestRowsPerSecond){
+			bestRows = rowsSent;
+			bestRowsPerSecond = rowsPerSecond;
+		}
+		int grownRows = slowStart ? batchRows * 2 : batchRows + minRows;
+		//doubling or adding can not pass maxRows, which is at most Integer.MAX_VALUE
+		setBatchRows(grownRows < batchRows ? maxRows : Math.min(maxRows, grownRows));
+	}
+
+	/*
+	 * Called after a request failed or the service rejected it.
+	 */
+	synchronized void requestFailed(){
+		shrinkTo(batchRows / 2);
+	}
+
+	private void shrinkTo(int rows){
+		slowStart = false;
+		bestRows = 0;
+		setBatchRows(Math.max(minRows, rows));
+	}
+
+	private void setBatchRows(int rows){
+		if(rows != batchRows){
+			batchRows = rows;
+			changed = true;
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package org.quickconnectfamily.sync;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.util.Random;
+
+/*
+ * Generates the setData parameters used by the benchmarks.  Each row resembles a typical synchronized record:
+ * an integer id, a name, an amount, a time, and an optional note.  The same seed always produces the same rows.
+ */
+class BenchmarkRows {
+	static final String INSERTION_TIME = "2012-03-14 15:09:26";
+	static final String SQL_KEY = "updateAccount";
+
+	static Object[][] parameters(int rowCount){
+		Random random = new Random(42);
+		Object[][] rows = new Object[rowCount][];
+		for(int i = 0; i < rowCount; i++){
+			rows[i] = new Object[]{Long.valueOf(i), 
+					"account holder "+random.nextInt(100000), 
+					Double.valueOf(random.nextInt(1000000) / 100.0), 
+					Long.valueOf(1331737766000L + random.nextInt(86400000)), 
+					random.nextBoolean() ? null : "note \"quoted\" & unicode é中"};
+		}
+		return rows;
+	}
+
+	/*
+	 * Returns the parameters as they are stored in sync_values by setData when the binary journal is off.
+	 */
+	static String[] jsonParameters(Object[][] rows) throws IOException{
+		String[] stored = new String[rows.length];
+		for(int i = 0; i < rows.length; i++){
+			StringWriter aRow = new StringWriter(96);
+			new SyncJSONWriter(aRow).value(rows[i]);
+			stored[i] = aRow.toString();
+		}
+		return stored;
+	}
+
+	/*
+	 * Returns the parameters as they are stored in sync_values by setData when the binary journal is on.
+	 */
+	static byte[][] binaryParameters(Object[][] rows){
+		byte[][] stored = new byte[rows.length][];
+		for(int i = 0; i < rows.length; i++){
+			stored[i] = SyncValueCodec.encode(rows[i]);
+		}
+		return stored;
+	}
+
+	/*
+	 * Discards what is written to it, counting the bytes as a stand in for the connection.
+	 */
+	static class CountingSink extends OutputStream{
+		long count;
+
+		public void write(int aByte) {
+			count++;
+		}
+
+		public void write(byte[] bytes, int offset, int length) {
+			count += length;
+		}
+	}
+}
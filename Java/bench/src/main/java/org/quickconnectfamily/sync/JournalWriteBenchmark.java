@@ -0,0 +1,55 @@
+package org.quickconnectfamily.sync;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * The work setData does to store one call's parameters in sync_values, as JSON and in the binary journal format,
+ * and the cost of reading a binary row back as JSON when it is sent.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JournalWriteBenchmark {
+	private Object[] parameters;
+	private byte[] encoded;
+
+	@Setup
+	public void createRow(){
+		parameters = BenchmarkRows.parameters(1)[0];
+		parameters[4] = "note \"quoted\" & unicode é中";
+		encoded = SyncValueCodec.encode(parameters);
+	}
+
+	@Benchmark
+	public String storeAsJSON() throws IOException{
+		StringWriter aRow = new StringWriter(96);
+		new SyncJSONWriter(aRow).value(parameters);
+		return aRow.toString();
+	}
+
+	@Benchmark
+	public byte[] storeAsBinary(){
+		return SyncValueCodec.encode(parameters);
+	}
+
+	@Benchmark
+	public String binaryToJSON() throws IOException{
+		return SyncValueCodec.toJSON(encoded);
+	}
+}
@@ -0,0 +1,137 @@
+package org.quickconnectfamily.sync;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.URLEncoder;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Encoding a sync request from the stored rows in each of the request formats.  Each benchmark returns the
+ * number of bytes that would be written to the connection.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SyncEncodeBenchmark {
+	//SyncBinaryRequestEntity.PARAMS_BINARY.  The entity itself needs Android so it is not part of the benchmark jar.
+	private static final int PARAMS_BINARY = 1;
+
+	@Param({"1000", "10000", "100000"})
+	public int rows;
+
+	private String[] jsonRows;
+	private byte[][] binaryRows;
+
+	@Setup
+	public void createJournal() throws IOException{
+		Object[][] parameters = BenchmarkRows.parameters(rows);
+		jsonRows = BenchmarkRows.jsonParameters(parameters);
+		binaryRows = BenchmarkRows.binaryParameters(parameters);
+	}
+
+	/*
+	 * The original request: the whole JSON request built as a String and then form encoded as the data field.
+	 */
+	@Benchmark
+	public long formEncodedString() throws IOException{
+		StringWriter json = new StringWriter();
+		writeRequest(new SyncJSONWriter(json), false);
+		String body = "cmd=sync&data="+URLEncoder.encode(json.toString(), "UTF-8");
+		return body.getBytes("US-ASCII").length;
+	}
+
+	@Benchmark
+	public long streamedJSON() throws IOException{
+		BenchmarkRows.CountingSink connection = new BenchmarkRows.CountingSink();
+		writeTo(connection, false);
+		return connection.count;
+	}
+
+	@Benchmark
+	public long streamedJSONFromBinaryJournal() throws IOException{
+		BenchmarkRows.CountingSink connection = new BenchmarkRows.CountingSink();
+		writeTo(connection, true);
+		return connection.count;
+	}
+
+	@Benchmark
+	public long gzippedJSON() throws IOException{
+		BenchmarkRows.CountingSink connection = new BenchmarkRows.CountingSink();
+		GZIPOutputStream gzip = new GZIPOutputStream(connection, 8192);
+		writeTo(gzip, false);
+		gzip.finish();
+		return connection.count;
+	}
+
+	/*
+	 * The body written by SyncBinaryRequestEntity, with the stored binary rows forwarded as they are.
+	 */
+	@Benchmark
+	public long binaryRequest() throws IOException{
+		BenchmarkRows.CountingSink connection = new BenchmarkRows.CountingSink();
+		ByteArrayOutputStream rowBuffer = new ByteArrayOutputStream(256);
+		byte[] insertionTime = SyncValueCodec.utf8(BenchmarkRows.INSERTION_TIME);
+		byte[] sqlKey = SyncValueCodec.utf8(BenchmarkRows.SQL_KEY);
+		for(int i = 0; i < binaryRows.length; i++){
+			rowBuffer.reset();
+			SyncValueCodec.writeVarint(rowBuffer, 1);
+			SyncValueCodec.writeVarint(rowBuffer, i + 1);
+			SyncValueCodec.writeBytes(rowBuffer, insertionTime);
+			SyncValueCodec.writeBytes(rowBuffer, sqlKey);
+			rowBuffer.write(PARAMS_BINARY);
+			SyncValueCodec.writeBytes(rowBuffer, binaryRows[i]);
+			rowBuffer.writeTo(connection);
+		}
+		connection.write(0);
+		return connection.count;
+	}
+
+	private void writeTo(OutputStream connection, boolean fromBinary) throws IOException{
+		Writer encoder = new OutputStreamWriter(connection, "UTF-8");
+		writeRequest(new SyncJSONWriter(encoder), fromBinary);
+		encoder.flush();
+	}
+
+	/*
+	 * Writes the same JSON as SyncRequestEntity.
+	 */
+	private void writeRequest(SyncJSONWriter json, boolean fromBinary) throws IOException{
+		json.beginObject().name("lastSyncTime").value(BenchmarkRows.INSERTION_TIME).name("syncInfo").beginArray();
+		for(int i = 0; i < jsonRows.length; i++){
+			json.beginObject()
+				.name("id").value(i + 1)
+				.name("insertionTime").value(BenchmarkRows.INSERTION_TIME)
+				.name("key").value(BenchmarkRows.SQL_KEY)
+				.name("values");
+			if(fromBinary){
+				SyncValueCodec.writeJSON(binaryRows[i], json);
+			}
+			else{
+				json.rawValue(jsonRows[i]);
+			}
+			json.endObject();
+		}
+		json.endArray().endObject();
+		json.flush();
+	}
+}
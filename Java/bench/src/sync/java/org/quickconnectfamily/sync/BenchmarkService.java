@@ -0,0 +1,61 @@
+package org.quickconnectfamily.sync;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+
+/*
+ * A ReferenceSyncServer on a free local port, and SynchronizedDB clients that store their data with JDBCSyncStorage and
+ * sync with it.  The databases of the server and the clients are temporary files deleted by close.
+ */
+class BenchmarkService {
+	static final String ACCOUNTS_TABLE = "CREATE TABLE IF NOT EXISTS accounts(id INTEGER PRIMARY KEY, holder TEXT, balance REAL, updated INTEGER, note TEXT)";
+	//BenchmarkRows generates the parameters of this statement
+	static final String UPDATE_ACCOUNT_SQL = "INSERT OR REPLACE INTO accounts VALUES(?,?,?,?,?)";
+
+	private File directory;
+	private ReferenceSyncServer server;
+	private ArrayList<SynchronizedDB> clients = new ArrayList<SynchronizedDB>();
+
+	BenchmarkService() throws Exception{
+		directory = File.createTempFile("qcdbsync-bench", "");
+		directory.delete();
+		directory.mkdir();
+		server = new ReferenceSyncServer(0, new File(directory, "server.db").getPath(), Executors.newFixedThreadPool(4), 4, 100000, null);
+		server.start();
+	}
+
+	/*
+	 * Opens the storage of a client.  Its data is stored in a file named after the client.
+	 */
+	JDBCSyncStorage openStorage(String name) throws Exception{
+		return new JDBCSyncStorage("jdbc:sqlite:"+new File(directory, name+".db").getPath(), 2, 32);
+	}
+
+	/*
+	 * Opens a client syncing the storage with the server, with the accounts table created and its statement registered.
+	 */
+	SynchronizedDB openClient(JDBCSyncStorage storage, String user) throws Exception{
+		SynchronizedDB aClient = new SynchronizedDB(storage, new URL("http://127.0.0.1:"+server.getPort()+"/sync"), server.getPort(), user, "password", 30);
+		clients.add(aClient);
+		storage.transact(ACCOUNTS_TABLE, null);
+		aClient.registerSynchedStatement(BenchmarkRows.SQL_KEY, UPDATE_ACCOUNT_SQL);
+		return aClient;
+	}
+
+	void close() throws IOException{
+		for(SynchronizedDB aClient : clients){
+			aClient.cleanUp();
+		}
+		server.stop(0);
+		File[] files = directory.listFiles();
+		if(files != null){
+			for(File aFile : files){
+				aFile.delete();
+			}
+		}
+		directory.delete();
+	}
+}
@@ -0,0 +1,118 @@
+package org.quickconnectfamily.sync;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Storing the rows of a sync response in a single transaction, as a sync does once the response has arrived.
+ * applyDecoded measures the database writes alone, with parameters that have already been converted.  applyPipelined
+ * also reads and decodes the JSON response with the InboundPipeline used by setPipelinedApply.  Each benchmark returns
+ * the number of rows stored.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InboundApplyBenchmark {
+	@Param({"1000", "10000"})
+	public int rows;
+
+	private BenchmarkService service;
+	private JDBCSyncStorage storage;
+	private HashMap<String,String> registeredStatements = new HashMap<String,String>();
+	private Object[][] parameters;
+	private String response;
+	private InboundPipeline pipeline;
+
+	@Setup
+	public void openDatabase() throws Exception{
+		service = new BenchmarkService();
+		storage = service.openStorage("client");
+		//the client creates the sync tables the applier writes to
+		service.openClient(storage, "reader");
+		registeredStatements.put(BenchmarkRows.SQL_KEY, BenchmarkService.UPDATE_ACCOUNT_SQL);
+		parameters = BenchmarkRows.parameters(rows);
+		response = response(parameters);
+		pipeline = new InboundPipeline(2, 256);
+	}
+
+	@TearDown
+	public void closeDatabase() throws Exception{
+		service.close();
+	}
+
+	@Benchmark
+	public int applyDecoded() throws Exception{
+		SyncApplier applier = new SyncApplier(storage, registeredStatements);
+		applier.begin();
+		try{
+			for(Object[] aRow : parameters){
+				applier.apply(BenchmarkRows.SQL_KEY, aRow);
+			}
+			applier.applyCheckpoint("1", null);
+			applier.commit();
+		}
+		finally{
+			applier.end();
+		}
+		return applier.getRowsApplied();
+	}
+
+	@Benchmark
+	public int applyPipelined() throws Exception{
+		StringReader responseReader = new StringReader(response);
+		InboundPipeline.Run aRun = pipeline.start(new SyncJSONReader(responseReader), registeredStatements);
+		SyncApplier applier = new SyncApplier(storage, registeredStatements);
+		try{
+			applier.begin();
+			try{
+				aRun.applyTo(applier);
+				applier.commit();
+			}
+			finally{
+				applier.end();
+			}
+		}
+		finally{
+			aRun.finish();
+			responseReader.close();
+		}
+		return applier.getRowsApplied();
+	}
+
+	/*
+	 * Returns the JSON sync response holding the rows, as the service sends it.
+	 */
+	private static String response(Object[][] rows) throws IOException{
+		StringWriter aResponse = new StringWriter(rows.length * 128);
+		aResponse.write("[{\"sync_response\":\"data_success\"},{\"sync_time\":\"1\",\"sync_data\":[");
+		String[] jsonRows = BenchmarkRows.jsonParameters(rows);
+		for(int i = 0; i < jsonRows.length; i++){
+			aResponse.write(i == 0 ? "{\"key\":\"" : ",{\"key\":\"");
+			aResponse.write(BenchmarkRows.SQL_KEY);
+			aResponse.write("\",\"syncInfo\":");
+			aResponse.write(jsonRows[i]);
+			aResponse.write("}");
+		}
+		aResponse.write("]}]");
+		return aResponse.toString();
+	}
+}
@@ -0,0 +1,84 @@
+package org.quickconnectfamily.sync;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Storing rows with setData, each call in its own transaction and all of them in one transaction.  Each benchmark stores
+ * the same rows, so the score is the time for rows calls.  The stored data is cleared after each iteration so the journal
+ * does not grow from one iteration to the next.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SetDataBenchmark {
+	@Param({"100"})
+	public int rows;
+
+	@Param({"false", "true"})
+	public boolean binaryJournal;
+
+	private BenchmarkService service;
+	private SynchronizedDB db;
+	private Object[][] parameters;
+
+	@Setup
+	public void openDatabase() throws Exception{
+		service = new BenchmarkService();
+		db = service.openClient(service.openStorage("client"), "writer");
+		db.setBinaryJournal(binaryJournal);
+		parameters = BenchmarkRows.parameters(rows);
+	}
+
+	@TearDown(Level.Iteration)
+	public void clearJournal() throws Exception{
+		db.clearSync();
+	}
+
+	@TearDown
+	public void closeDatabase() throws Exception{
+		service.close();
+	}
+
+	@Benchmark
+	public int singleTransactions() throws Exception{
+		int stored = 0;
+		for(Object[] aRow : parameters){
+			db.setData(BenchmarkRows.SQL_KEY, aRow);
+			stored++;
+		}
+		return stored;
+	}
+
+	@Benchmark
+	public int oneTransaction() throws Exception{
+		int stored = 0;
+		db.startTransaction();
+		try{
+			for(Object[] aRow : parameters){
+				db.setData(BenchmarkRows.SQL_KEY, aRow);
+				stored++;
+			}
+		}
+		finally{
+			db.endTransaction();
+		}
+		return stored;
+	}
+}
@@ -0,0 +1,79 @@
+package org.quickconnectfamily.sync;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Complete sync() calls against a ReferenceSyncServer on the loopback interface.  Before each call the writer stores rows
+ * with setData.  pushAndPull measures the writer sending them and a second client receiving and storing them, so every
+ * step of a sync in both directions is included: login once, journal reads, encoding, HTTP, the service's storage,
+ * decoding, applying, and clearing the journal.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SyncRoundTripBenchmark {
+	@Param({"100", "1000"})
+	public int rows;
+
+	//true for the streaming codec and the compressed transport, false for the form encoded requests of older services
+	@Param({"false", "true"})
+	public boolean compressed;
+
+	private BenchmarkService service;
+	private SynchronizedDB writer;
+	private SynchronizedDB reader;
+	private Object[][] parameters;
+
+	@Setup
+	public void openDatabases() throws Exception{
+		service = new BenchmarkService();
+		writer = service.openClient(service.openStorage("writer"), "writer");
+		reader = service.openClient(service.openStorage("reader"), "reader");
+		for(SynchronizedDB aClient : new SynchronizedDB[]{writer, reader}){
+			aClient.setStreamingCodec(compressed);
+			aClient.setCompressedTransport(compressed);
+		}
+		parameters = BenchmarkRows.parameters(rows);
+	}
+
+	@Setup(Level.Invocation)
+	public void storeRows() throws Exception{
+		writer.startTransaction();
+		try{
+			for(Object[] aRow : parameters){
+				writer.setData(BenchmarkRows.SQL_KEY, aRow);
+			}
+		}
+		finally{
+			writer.endTransaction();
+		}
+	}
+
+	@TearDown
+	public void closeDatabases() throws Exception{
+		service.close();
+	}
+
+	@Benchmark
+	public void pushAndPull() throws Exception{
+		writer.sync();
+		reader.sync();
+	}
+}
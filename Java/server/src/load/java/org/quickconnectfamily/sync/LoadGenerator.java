@@ -0,0 +1,379 @@
+package org.quickconnectfamily.sync;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.quickconnectfamily.dbaccess.DataAccessException;
+import org.quickconnectfamily.dbaccess.DataAccessResult;
+
+/**
+ * Drives a sync service with any number of clients and reports sync latency and throughput.  Each client is a
+ * SyncCoordinator, logged in with its own user name, whose databases are SynchronizedDB instances storing their data with
+ * JDBCSyncStorage in SQLite files.  Before each sync every database of a client stores new readings with setData and updates
+ * each of them, and then the client syncs all of its databases with syncAll.  The requests are sent, batched, acknowledged,
+ * and compacted, and the responses applied, by the library itself.  The clients are shared among a pool of threads so
+ * many clients can be run by a single process.
+ *
+ * @author Lee S. Barney
+ *
+ */
+public class LoadGenerator {
+	private static final String READINGS_TABLE = "CREATE TABLE IF NOT EXISTS readings(client TEXT NOT NULL, db INTEGER NOT NULL, "
+			+"id INTEGER NOT NULL, value REAL, label TEXT, PRIMARY KEY(client, db, id))";
+
+	private URL serviceURL;
+	private File workDirectory;
+	private String format;
+	private boolean gzip;
+	private int databasesPerClient;
+	private int rowsPerSync;
+	private int updatesPerRow;
+	private int pageSize;
+	private int uploadBatchRows;
+	//null unless sync requests are encrypted
+	private SecretKey payloadKey;
+	private HistogramSyncMetrics metrics = new HistogramSyncMetrics();
+	private LatencyHistogram clientSyncLatency = new LatencyHistogram();
+	private AtomicLong failures = new AtomicLong();
+	private volatile Exception firstFailure;
+
+	/**
+	 * @param serviceURL - the URL of the sync service.
+	 * @param workDirectory - the directory the clients' SQLite files are created in.  They are deleted when the run ends.
+	 * @param format - the request format: form, json, or binary, sent with the SynchronizedDB streaming codec, compressed
+	 * transport, or binary upload on.
+	 * @param gzip - true to gzip binary requests.  json requests are always gzip compressed by the compressed transport.
+	 * @param databasesPerClient - the number of databases each client syncs.
+	 * @param rowsPerSync - the number of new readings each database stores before each sync.
+	 * @param updatesPerRow - the number of times each new reading is updated before the sync.  Compaction sends only the last update.
+	 * @param pageSize - the pull page size each database asks for.  Zero asks for no limit.
+	 */
+	public LoadGenerator(URL serviceURL, File workDirectory, String format, boolean gzip, int databasesPerClient, int rowsPerSync, int updatesPerRow, int pageSize){
+		if(!format.equals("form") && !format.equals("json") && !format.equals("binary")){
+			throw new IllegalArgumentException("Unknown format "+format);
+		}
+		if(databasesPerClient < 1){
+			throw new IllegalArgumentException("databasesPerClient must be at least 1: "+databasesPerClient);
+		}
+		this.serviceURL = serviceURL;
+		this.workDirectory = workDirectory;
+		this.format = format;
+		this.gzip = gzip || format.equals("json");
+		this.databasesPerClient = databasesPerClient;
+		this.rowsPerSync = rowsPerSync;
+		this.updatesPerRow = updatesPerRow;
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * Sets the key sync requests are encrypted with, as the SynchronizedDB payload encryption does.  Logins are not encrypted.
+	 * @param aPayloadKey - an AES key the service has for every user, or null to send unencrypted requests.
+	 */
+	public void setPayloadKey(SecretKey aPayloadKey){
+		payloadKey = aPayloadKey;
+	}
+
+	/**
+	 * Sets the largest number of stored values each database sends in one request.  See SynchronizedDB setUploadBatchSize.
+	 * @param maxRows - the largest number of values in a request.  Zero sends every stored value in one request.
+	 */
+	public void setUploadBatchRows(int maxRows){
+		uploadBatchRows = maxRows;
+	}
+
+	/**
+	 * Opens every client's databases and then has each client sync the given number of times, interleaving the clients on
+	 * the threads.  Each client logs in during its first sync.  The clients log out and their files are deleted at the end.
+	 * @param clientCount - the number of clients.
+	 * @param syncsPerClient - the number of syncs each client does.
+	 * @param threads - the number of threads the clients share.
+	 * @throws InterruptedException
+	 */
+	public void run(int clientCount, final int syncsPerClient, int threads) throws InterruptedException{
+		final List<List<LoadClient>> clientsByThread = new ArrayList<List<LoadClient>>();
+		for(int i = 0; i < threads; i++){
+			clientsByThread.add(new ArrayList<LoadClient>());
+		}
+		String runId = Long.toString(System.currentTimeMillis(), 36);
+		for(int i = 0; i < clientCount; i++){
+			clientsByThread.get(i % threads).add(new LoadClient("load-"+runId+"-"+i));
+		}
+		ExecutorService clientThreads = Executors.newFixedThreadPool(threads);
+		for(final List<LoadClient> someClients : clientsByThread){
+			clientThreads.execute(new Runnable(){
+				public void run() {
+					ArrayList<LoadClient> openClients = new ArrayList<LoadClient>();
+					try{
+						for(LoadClient aClient : someClients){
+							try{
+								aClient.open();
+								openClients.add(aClient);
+							}
+							catch(Exception e){
+								failed(e);
+								aClient.close();
+							}
+						}
+						for(int i = 0; i < syncsPerClient; i++){
+							for(LoadClient aClient : openClients){
+								try{
+									aClient.sync();
+								}
+								catch(InterruptedException e){
+									return;
+								}
+								catch(Exception e){
+									failed(e);
+								}
+							}
+						}
+					}
+					finally{
+						for(LoadClient aClient : openClients){
+							aClient.close();
+						}
+					}
+				}
+			});
+		}
+		clientThreads.shutdown();
+		clientThreads.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+	}
+
+	private void failed(Exception e){
+		failures.incrementAndGet();
+		if(firstFailure == null){
+			firstFailure = e;
+		}
+	}
+
+	/**
+	 * Prints the latency percentiles, throughput, and failures of the last run.
+	 * @param elapsedNanos - the length of the run.
+	 */
+	public void report(long elapsedNanos){
+		double seconds = elapsedNanos / 1e9;
+		LatencyHistogram requestLatency = metrics.getPhaseHistogram(SyncPhase.NETWORK);
+		System.out.printf("elapsed %.1f s, %d client syncs (%.0f/s), %d database syncs, %d requests (%.0f/s), %d failures%n", seconds,
+				clientSyncLatency.getCount(), clientSyncLatency.getCount() / seconds, metrics.getSyncHistogram().getCount(),
+				requestLatency.getCount(), requestLatency.getCount() / seconds, failures.get());
+		System.out.printf("rows uploaded %d (%.0f/s), rows applied %d (%.0f/s), request bytes sent %d, response bytes received %d%n",
+				metrics.getRowsUploaded(), metrics.getRowsUploaded() / seconds, metrics.getRowsApplied(), metrics.getRowsApplied() / seconds,
+				metrics.getBytesSent(), metrics.getBytesReceived());
+		printLatency("login", metrics.getPhaseHistogram(SyncPhase.LOGIN));
+		printLatency("request", requestLatency);
+		printLatency("apply", metrics.getPhaseHistogram(SyncPhase.APPLY));
+		printLatency("database sync", metrics.getSyncHistogram());
+		printLatency("client sync", clientSyncLatency);
+		if(firstFailure != null){
+			System.out.println("first failure: "+firstFailure);
+		}
+	}
+
+	private static void printLatency(String name, LatencyHistogram aHistogram){
+		System.out.printf("%s latency ms: mean %.2f p50 %.2f p90 %.2f p99 %.2f p99.9 %.2f max %.2f%n", name,
+				aHistogram.getMeanNanos() / 1e6, aHistogram.getPercentileNanos(50) / 1e6, aHistogram.getPercentileNanos(90) / 1e6,
+				aHistogram.getPercentileNanos(99) / 1e6, aHistogram.getPercentileNanos(99.9) / 1e6, aHistogram.getMaxNanos() / 1e6);
+	}
+
+	/*
+	 * A SyncCoordinator and its databases.
+	 */
+	private class LoadClient{
+		private String uname;
+		private SyncCoordinator coordinator;
+		private ArrayList<SynchronizedDB> databases = new ArrayList<SynchronizedDB>();
+		private long nextId = 1;
+
+		LoadClient(String uname){
+			this.uname = uname;
+		}
+
+		void open() throws Exception{
+			int port = serviceURL.getPort() < 0 ? serviceURL.getDefaultPort() : serviceURL.getPort();
+			coordinator = new SyncCoordinator(serviceURL, port, uname, "load", databasesPerClient);
+			for(int i = 0; i < databasesPerClient; i++){
+				JDBCSyncStorage storage = new JDBCSyncStorage("jdbc:sqlite:"+databaseFile(i).getAbsolutePath(), 0, 16);
+				SynchronizedDB aDB = coordinator.addDatabase(storage);
+				databases.add(aDB);
+				DataAccessResult aResult = storage.transact(READINGS_TABLE, null);
+				if(!aResult.getErrorDescription().equals("not an error")){
+					throw new DataAccessException("Error: unable to create the readings table. "+aResult.getErrorDescription());
+				}
+				aDB.registerSynchedStatement("insertReading", "INSERT OR REPLACE INTO readings VALUES(?,?,?,?,?)", "readings",
+						SynchronizedDB.OPERATION_INSERT, 0, 1, 2);
+				aDB.registerSynchedStatement("updateReading", "UPDATE readings SET value = ?, label = ? WHERE client = ? AND db = ? AND id = ?",
+						"readings", SynchronizedDB.OPERATION_UPDATE, 2, 3, 4);
+				aDB.setSyncMetrics(metrics);
+				aDB.setPullPageSize(pageSize);
+				aDB.setUploadBatchSize(uploadBatchRows, 0);
+				aDB.setPayloadEncryption(payloadKey);
+				if(format.equals("form")){
+					aDB.setStreamingCodec(true);
+				}
+				else{
+					aDB.setBinaryUpload(format.equals("binary"));
+					aDB.setCompressedTransport(gzip);
+				}
+			}
+		}
+
+		/*
+		 * Stores new readings in every database, updates each of them, and then syncs all of the databases.
+		 */
+		void sync() throws Exception{
+			for(int i = 0; i < databases.size(); i++){
+				SynchronizedDB aDB = databases.get(i);
+				Integer db = Integer.valueOf(i);
+				aDB.startTransaction();
+				try{
+					for(int j = 0; j < rowsPerSync; j++){
+						Long id = Long.valueOf(nextId + j);
+						aDB.setData("insertReading", new Object[]{uname, db, id, Double.valueOf(id.longValue() * 0.5), "reading "+id});
+						for(int k = 1; k <= updatesPerRow; k++){
+							aDB.setData("updateReading", new Object[]{Double.valueOf(id.longValue() * 0.5 + k), "reading "+id+" update "+k, uname, db, id});
+						}
+					}
+				}
+				finally{
+					aDB.endTransaction();
+				}
+			}
+			nextId += rowsPerSync;
+			long syncStart = System.nanoTime();
+			coordinator.syncAll();
+			clientSyncLatency.record(System.nanoTime() - syncStart);
+		}
+
+		/*
+		 * Logs out and deletes the client's files.
+		 */
+		void close(){
+			if(coordinator != null){
+				try{
+					coordinator.cleanUp();
+				}
+				catch(IOException e){
+					failed(e);
+				}
+			}
+			for(int i = 0; i < databasesPerClient; i++){
+				File aFile = databaseFile(i);
+				new File(aFile.getPath()+"-wal").delete();
+				new File(aFile.getPath()+"-shm").delete();
+				aFile.delete();
+			}
+		}
+
+		private File databaseFile(int index){
+			return new File(workDirectory, uname+"-"+index+".db");
+		}
+	}
+
+	/**
+	 * Runs a load test.  Options: -url service URL (default http://localhost:8080/), -clients n (default 100),
+	 * -databases n databases per client (default 2), -syncs n syncs per client (default 10), -rows n new readings per
+	 * database per sync (default 10), -updates n updates of each new reading (default 2), -threads n (default 16),
+	 * -format form, json, or binary (default form), -gzip to compress binary requests, -pageSize n (default 0),
+	 * -batchRows n largest number of values in a request (default 0, no limit), -key base64 AES key to encrypt sync
+	 * requests with, -dir directory for the clients' SQLite files (default a new temporary directory).
+	 * @param args - the options.
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception{
+		String url = "http://localhost:8080/";
+		int clients = 100;
+		int databases = 2;
+		int syncs = 10;
+		int rows = 10;
+		int updates = 2;
+		int threads = 16;
+		String format = "form";
+		boolean gzip = false;
+		int pageSize = 0;
+		int batchRows = 0;
+		SecretKey payloadKey = null;
+		File directory = null;
+		for(int i = 0; i < args.length; i++){
+			String anOption = args[i];
+			if(anOption.equals("-gzip")){
+				gzip = true;
+				continue;
+			}
+			if(i + 1 >= args.length){
+				throw new IllegalArgumentException("Missing value for "+anOption);
+			}
+			String aValue = args[++i];
+			if(anOption.equals("-url")){
+				url = aValue;
+			}
+			else if(anOption.equals("-clients")){
+				clients = Integer.parseInt(aValue);
+			}
+			else if(anOption.equals("-databases")){
+				databases = Integer.parseInt(aValue);
+			}
+			else if(anOption.equals("-syncs")){
+				syncs = Integer.parseInt(aValue);
+			}
+			else if(anOption.equals("-rows")){
+				rows = Integer.parseInt(aValue);
+			}
+			else if(anOption.equals("-updates")){
+				updates = Integer.parseInt(aValue);
+			}
+			else if(anOption.equals("-threads")){
+				threads = Integer.parseInt(aValue);
+			}
+			else if(anOption.equals("-format")){
+				format = aValue;
+			}
+			else if(anOption.equals("-pageSize")){
+				pageSize = Integer.parseInt(aValue);
+			}
+			else if(anOption.equals("-batchRows")){
+				batchRows = Integer.parseInt(aValue);
+			}
+			else if(anOption.equals("-key")){
+				payloadKey = new SecretKeySpec(Base64.getDecoder().decode(aValue), "AES");
+			}
+			else if(anOption.equals("-dir")){
+				directory = new File(aValue);
+			}
+			else{
+				throw new IllegalArgumentException("Unknown option "+anOption);
+			}
+		}
+		boolean temporaryDirectory = directory == null;
+		if(temporaryDirectory){
+			directory = Files.createTempDirectory("sync-load").toFile();
+		}
+		LoadGenerator generator = new LoadGenerator(new URL(url), directory, format, gzip, databases, rows, updates, pageSize);
+		generator.setPayloadKey(payloadKey);
+		generator.setUploadBatchRows(batchRows);
+		System.out.println("Running "+clients+" clients of "+databases+" databases for "+syncs+" syncs of "+rows+" readings updated "
+				+updates+" times on "+threads+" threads sending "+format+(generator.gzip ? " gzip" : "")+(payloadKey != null ? " encrypted" : ""));
+		long runStart = System.nanoTime();
+		try{
+			generator.run(clients, syncs, Math.min(threads, clients));
+		}
+		finally{
+			if(temporaryDirectory){
+				directory.delete();
+			}
+		}
+		generator.report(System.nanoTime() - runStart);
+	}
+}
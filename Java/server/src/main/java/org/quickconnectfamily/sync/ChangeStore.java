@@ -0,0 +1,207 @@
+package org.quickconnectfamily.sync;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/*
+ * The changes stored by the ReferenceSyncServer in an embedded SQLite file.  Every change sent by a client is given a
+ * sequence number that orders it among the changes of all clients.  A client's position in the sequence is the sync_time
+ * the server sends it, so each sync returns the changes of other clients stored since the client's last sync.
+ * <br/>
+ * All changes are stored through a single writer connection so sequence numbers are assigned in commit order and a
+ * reader never sees a gap that is later filled.  Reads use a pool of connections and run concurrently with the writer
+ * since the file is in write ahead logging mode.
+ */
+class ChangeStore {
+	private static final int BUSY_TIMEOUT_MILLIS = 10000;
+
+	private Connection writer;
+	private PreparedStatement insertChange;
+	private LinkedBlockingQueue<Connection> readers = new LinkedBlockingQueue<Connection>();
+	private ArrayList<Connection> allConnections = new ArrayList<Connection>();
+
+	ChangeStore(String dbPath, int readConnections) throws SQLException{
+		String jdbcURL = "jdbc:sqlite:"+dbPath;
+		writer = open(jdbcURL);
+		Statement schema = writer.createStatement();
+		try{
+			ResultSet existing = schema.executeQuery("SELECT sql FROM sqlite_master WHERE type = 'table' AND name = 'changes'");
+			boolean upgrade = existing.next() && existing.getString(1).indexOf("client_database") < 0;
+			existing.close();
+			if(upgrade){
+				schema.execute("ALTER TABLE changes RENAME TO changes_previous");
+			}
+			//a change sent again because its acknowledgement was lost is recognized by its client, the client's database, 
+			//and the id the database gave it.  The ids of databases sharing a client overlap.
+			schema.execute("CREATE TABLE IF NOT EXISTS changes(seq INTEGER PRIMARY KEY AUTOINCREMENT, client TEXT NOT NULL, "
+					+"client_database TEXT NOT NULL DEFAULT '', client_id INTEGER NOT NULL, insertion_time TEXT, sql_key TEXT NOT NULL, "
+					+"params TEXT, UNIQUE(client, client_database, client_id))");
+			if(upgrade){
+				schema.execute("INSERT INTO changes (seq, client, client_id, insertion_time, sql_key, params) "
+						+"SELECT seq, client, client_id, insertion_time, sql_key, params FROM changes_previous");
+				schema.execute("DROP TABLE changes_previous");
+			}
+		}
+		finally{
+			schema.close();
+		}
+		insertChange = writer.prepareStatement("INSERT OR IGNORE INTO changes (client, client_database, client_id, insertion_time, sql_key, params) VALUES(?,?,?,?,?,?)");
+		for(int i = 0; i < Math.max(readConnections, 1); i++){
+			readers.add(open(jdbcURL));
+		}
+	}
+
+	/*
+	 * Stores the rows sent by a client's database in a single transaction and returns the largest client id among them, or 
+	 * -1 if there were none.  Rows already stored are ignored.
+	 */
+	synchronized long store(String client, String database, List<SyncServerRequest.Row> rows) throws SQLException{
+		long acknowledged = -1;
+		if(rows.isEmpty()){
+			return acknowledged;
+		}
+		writer.setAutoCommit(false);
+		boolean committed = false;
+		try{
+			for(SyncServerRequest.Row aRow : rows){
+				insertChange.setString(1, client);
+				insertChange.setString(2, database);
+				insertChange.setLong(3, aRow.id);
+				insertChange.setString(4, aRow.insertionTime);
+				insertChange.setString(5, aRow.key);
+				insertChange.setString(6, aRow.valuesJSON);
+				insertChange.addBatch();
+				acknowledged = Math.max(acknowledged, aRow.id);
+			}
+			insertChange.executeBatch();
+			writer.commit();
+			committed = true;
+		}
+		finally{
+			if(!committed){
+				writer.rollback();
+			}
+			writer.setAutoCommit(true);
+		}
+		return acknowledged;
+	}
+
+	/*
+	 * Reads up to maxRows changes made by other clients after the sequence number.  The page's position is the sequence
+	 * number the client continues from.  It is past every change that has been committed, including the client's own, once
+	 * the client has received every change.
+	 */
+	Page readChanges(String client, long afterSeq, int maxRows) throws SQLException, InterruptedException{
+		return readChanges(client, afterSeq, -1, maxRows);
+	}
+
+	/*
+	 * Reads changes in the same way as readChanges(String, long, int) but none after upToSeq.  A negative upToSeq reads
+	 * up to every change that has been committed.
+	 */
+	Page readChanges(String client, long afterSeq, long upToSeq, int maxRows) throws SQLException, InterruptedException{
+		Connection reader = readers.take();
+		try{
+			long highWater = Math.max(afterSeq, upToSeq < 0 ? highWater(reader) : upToSeq);
+			Page aPage = new Page();
+			aPage.position = highWater;
+			PreparedStatement changeQuery = reader.prepareStatement("SELECT seq, sql_key, params FROM changes WHERE seq > ? AND seq <= ? AND client <> ? ORDER BY seq LIMIT ?");
+			try{
+				changeQuery.setLong(1, afterSeq);
+				changeQuery.setLong(2, highWater);
+				changeQuery.setString(3, client);
+				//one more than a page is read to find out whether there is another page
+				changeQuery.setInt(4, maxRows + 1);
+				ResultSet changes = changeQuery.executeQuery();
+				while(changes.next()){
+					if(aPage.keys.size() == maxRows){
+						aPage.more = true;
+						aPage.position = aPage.lastSeq;
+						break;
+					}
+					aPage.lastSeq = changes.getLong(1);
+					aPage.keys.add(changes.getString(2));
+					aPage.valuesJSON.add(changes.getString(3));
+				}
+				changes.close();
+			}
+			finally{
+				changeQuery.close();
+			}
+			return aPage;
+		}
+		finally{
+			readers.add(reader);
+		}
+	}
+
+	/*
+	 * Returns the sequence number of the last change committed.
+	 */
+	long highWater() throws SQLException, InterruptedException{
+		Connection reader = readers.take();
+		try{
+			return highWater(reader);
+		}
+		finally{
+			readers.add(reader);
+		}
+	}
+
+	private static long highWater(Connection reader) throws SQLException{
+		Statement maxStatement = reader.createStatement();
+		try{
+			ResultSet maxResult = maxStatement.executeQuery("SELECT ifnull(max(seq),0) FROM changes");
+			long highWater = maxResult.next() ? maxResult.getLong(1) : 0;
+			maxResult.close();
+			return highWater;
+		}
+		finally{
+			maxStatement.close();
+		}
+	}
+
+	synchronized void close(){
+		for(Connection aConnection : allConnections){
+			try{
+				aConnection.close();
+			}
+			catch(SQLException e){
+				//the connection is being discarded so there is nothing more to do
+			}
+		}
+	}
+
+	private Connection open(String jdbcURL) throws SQLException{
+		Connection aConnection = DriverManager.getConnection(jdbcURL);
+		allConnections.add(aConnection);
+		Statement configuration = aConnection.createStatement();
+		try{
+			configuration.execute("PRAGMA journal_mode=WAL");
+			configuration.execute("PRAGMA synchronous=NORMAL");
+			configuration.execute("PRAGMA busy_timeout="+BUSY_TIMEOUT_MILLIS);
+		}
+		finally{
+			configuration.close();
+		}
+		return aConnection;
+	}
+
+	/*
+	 * A page of changes for a client.
+	 */
+	static class Page{
+		ArrayList<String> keys = new ArrayList<String>();
+		ArrayList<String> valuesJSON = new ArrayList<String>();
+		long lastSeq;
+		long position;
+		boolean more;
+	}
+}
@@ -0,0 +1,625 @@
+package org.quickconnectfamily.sync;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.security.SecureRandom;
+import java.sql.SQLException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A reference implementation of the HTTP service SynchronizedDB syncs with.  Changes sent by every client are stored in an
+ * embedded SQLite file and sent on to every other client.  The server is meant for testing clients and measuring sync
+ * latency and capacity, not as a production service.
+ * <br/>
+ * Connections are accepted and requests read by the JDK's selector based HTTP server.  Requests are handled by a fixed
+ * pool of threads or, on Java 21 and later with the -virtual option, by a virtual thread per request.
+ * <br/>
+ * <b>Protocol</b><br/>
+ * Every request is a POST to the service URL.  The command is the cmd parameter of the URL's query string or of a form
+ * encoded body.  A request body may be gzip or deflate compressed, as named by its Content-Encoding header.  Responses are
+ * JSON arrays, gzip compressed if the request's Accept-Encoding header lists gzip.  The sync and snapshot requests of a user
+ * with a key set by setPayloadKeys may be encrypted with the qc-aes-gcm content coding of PayloadEncryption, after any compression.
+ * An encrypted request must also have the cmd parameter in its URL's query string, since its body is bound to the command.
+ * Responses to them are encrypted with the same key and bound to the request's exchange nonce.
+ * <ul>
+ * <li>cmd=login with the form fields uname, pword, and optionally sync_encodings, the request encodings the client can send.
+ * The response is [{"sync_response":"login_success","sync_encodings":"form,json,binary,gzip"}] and a session cookie.
+ * A bad user name or password gets a 401 status.</li>
+ * <li>cmd=sync with the sync request as the JSON of the form field data, as an application/json body, or as an
+ * application/x-qc-sync body in the binary format of SyncBinaryRequestEntity.  The JSON request is
+ * {"database":..., "lastSyncTime":..., "continuation":..., "pageSize":..., "syncInfo":[{"id":..., "insertionTime":..., "key":..., "values":[...]}]}.
+ * database, continuation, and pageSize are optional.  A row is stored once for each user name, database, and id, so a row
+ * sent again is recognized while the rows of databases sharing a user name are all kept.  The response is
+ * [{"sync_response":"data_success"}, {"sync_time":..., "sync_ack":..., "sync_continuation":..., "sync_data":[{"key":..., "syncInfo":[...]}]}].
+ * sync_ack is the largest id stored and is left out if no rows were sent.  sync_continuation is only sent if there are
+ * more changes to pull, in which case the client sends the next request with it.  A request that can not be handled
+ * gets [{"sync_response":"data_failure","sync_error":...}].</li>
+ * <li>cmd=snapshot gets every change stored so far as an application/x-qc-snapshot body in the gzip compressed format of
+ * SyncSnapshot.  Its sync time is the position after the last of the changes.</li>
+ * <li>cmd=logout ends the session.</li>
+ * </ul>
+ * A client's sync_time is its position among the changes of all clients.  Its first sync, with any lastSyncTime that is
+ * not a position such as the default of 1970-01-01 00:00:00, receives every change.
+ *
+ * @author Lee S. Barney
+ *
+ */
+public class ReferenceSyncServer {
+	private static final String SESSION_COOKIE = "QCSYNCSESSION";
+	private static final String SERVER_ENCODINGS = "form,json,binary,gzip";
+	private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+	private static final String JSON_CONTENT_TYPE = "application/json";
+	private static final int UNSUPPORTED_MEDIA_TYPE = 415;
+	//the constants of SyncSnapshot, which can not be compiled without the Android HTTP classes
+	private static final String SNAPSHOT_CONTENT_TYPE = "application/x-qc-snapshot";
+	private static final int SNAPSHOT_VERSION = 1;
+
+	private HttpServer server;
+	private ChangeStore store;
+	private ExecutorService handlers;
+	private int maxPageRows;
+	//null if any user name and password is accepted
+	private Properties users;
+	//the base64 AES key of each user whose requests may be encrypted.  Null if no requests may be.
+	private volatile Properties payloadKeys;
+	private ConcurrentHashMap<String,String> sessions = new ConcurrentHashMap<String,String>();
+	private SecureRandom random = new SecureRandom();
+	private AtomicLong requestCount = new AtomicLong();
+	private AtomicLong rowsStored = new AtomicLong();
+	private AtomicLong rowsSent = new AtomicLong();
+
+	/**
+	 * Creates a server.  It does not accept requests until start is called.
+	 * @param port - the port to listen on.
+	 * @param dbPath - the path of the SQLite file the changes are stored in.  It is created if it does not exist.
+	 * @param handlers - runs the requests.  It is shut down when the server stops.
+	 * @param readConnections - the number of database connections used to read changes.
+	 * @param maxPageRows - the largest number of changes sent in one response, whatever page size the client asks for.
+	 * @param users - the password of each user name, or null to accept any user name and password.
+	 * @throws IOException
+	 * @throws SQLException
+	 */
+	public ReferenceSyncServer(int port, String dbPath, ExecutorService handlers, int readConnections, int maxPageRows, Properties users) throws IOException, SQLException{
+		this.handlers = handlers;
+		this.maxPageRows = maxPageRows;
+		this.users = users;
+		store = new ChangeStore(dbPath, readConnections);
+		server = HttpServer.create(new InetSocketAddress(port), 1024);
+		server.setExecutor(handlers);
+		server.createContext("/", new HttpHandler(){
+			public void handle(HttpExchange exchange) throws IOException {
+				handleRequest(exchange);
+			}
+		});
+	}
+
+	/**
+	 * Sets the keys users' sync and snapshot requests may be encrypted with.  The responses to encrypted requests are encrypted
+	 * with the same key.  Encrypted requests from users without a key get a 415 status.
+	 * @param keys - the base64 encoded AES key of each user name, or null if no requests may be encrypted.  The key of the
+	 * user name * is used for users without a key of their own.
+	 */
+	public void setPayloadKeys(Properties keys){
+		payloadKeys = keys;
+	}
+
+	public void start(){
+		server.start();
+	}
+
+	/**
+	 * Stops accepting requests, waits up to delaySeconds for the requests being handled, and closes the database.
+	 * @param delaySeconds - the longest time to wait.
+	 */
+	public void stop(int delaySeconds){
+		server.stop(delaySeconds);
+		handlers.shutdown();
+		store.close();
+	}
+
+	/**
+	 * @return the port the server listens on.
+	 */
+	public int getPort(){
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * @return the number of requests handled since the server started.
+	 */
+	public long getRequestCount(){
+		return requestCount.get();
+	}
+
+	/**
+	 * @return the number of changes clients have sent, including any that were sent again.
+	 */
+	public long getRowsStored(){
+		return rowsStored.get();
+	}
+
+	/**
+	 * @return the number of changes sent to clients.
+	 */
+	public long getRowsSent(){
+		return rowsSent.get();
+	}
+
+	private void handleRequest(HttpExchange exchange) throws IOException{
+		requestCount.incrementAndGet();
+		//the response to an encrypted request is encrypted with the same key and bound to the request
+		PayloadEncryption.Binding responseBinding = null;
+		try{
+			if(!exchange.getRequestMethod().equalsIgnoreCase("POST")){
+				sendStatus(exchange, 405);
+				return;
+			}
+			Map<String,String> form = parseForm(exchange.getRequestURI().getRawQuery());
+			PayloadEncryption.DecryptingInputStream decrypter = null;
+			//an encrypted request names its command in the query string since the body is bound to it
+			String boundCommand = form.get("cmd");
+			if(PayloadEncryption.isEncrypted(exchange.getRequestHeaders().getFirst("Content-Encoding"))){
+				SecretKey payloadKey = payloadKey(exchange);
+				if(payloadKey == null){
+					sendStatus(exchange, UNSUPPORTED_MEDIA_TYPE);
+					return;
+				}
+				if(boundCommand == null){
+					sendStatus(exchange, 400);
+					return;
+				}
+				decrypter = new PayloadEncryption.DecryptingInputStream(exchange.getRequestBody(), payloadKey, boundCommand);
+				responseBinding = decrypter.getBinding().response();
+			}
+			InputStream body = openRequestBody(exchange, decrypter);
+			if(body == null){
+				sendStatus(exchange, UNSUPPORTED_MEDIA_TYPE);
+				return;
+			}
+			String contentType = contentType(exchange);
+			if(contentType == null || contentType.equals(FORM_CONTENT_TYPE)){
+				form.putAll(parseForm(new String(SyncServerRequest.readAll(body), "UTF-8")));
+			}
+			String command = form.get("cmd");
+			if(decrypter != null && !boundCommand.equals(command)){
+				sendStatus(exchange, 400);
+				return;
+			}
+			if("login".equals(command)){
+				login(exchange, form);
+			}
+			else if("sync".equals(command)){
+				sync(exchange, form, contentType, body, responseBinding);
+			}
+			else if("snapshot".equals(command)){
+				snapshot(exchange, responseBinding);
+			}
+			else if("logout".equals(command)){
+				String session = sessionId(exchange);
+				if(session != null){
+					sessions.remove(session);
+				}
+				sendJSON(exchange, 200, "[{\"sync_response\":\"logout_success\"}]", responseBinding);
+			}
+			else{
+				sendStatus(exchange, 400);
+			}
+		}
+		catch(Exception e){
+			try{
+				sendError(exchange, 500, e.toString(), responseBinding);
+			}
+			catch(IOException responseStarted){
+				//the client sees the response end early
+			}
+		}
+		finally{
+			exchange.close();
+		}
+	}
+
+	private void login(HttpExchange exchange, Map<String,String> form) throws IOException{
+		String uname = form.get("uname");
+		String pword = form.get("pword");
+		boolean authenticated = uname != null && uname.length() > 0 && pword != null
+				&& (users == null || pword.equals(users.getProperty(uname)));
+		if(!authenticated){
+			sendError(exchange, 401, "Invalid user name or password", null);
+			return;
+		}
+		byte[] tokenBytes = new byte[18];
+		random.nextBytes(tokenBytes);
+		StringBuilder token = new StringBuilder();
+		for(byte aByte : tokenBytes){
+			token.append(Character.forDigit((aByte >> 4) & 0xF, 16)).append(Character.forDigit(aByte & 0xF, 16));
+		}
+		sessions.put(token.toString(), uname);
+		exchange.getResponseHeaders().add("Set-Cookie", SESSION_COOKIE+"="+token+"; Path=/; HttpOnly");
+		sendJSON(exchange, 200, "[{\"sync_response\":\"login_success\",\"sync_encodings\":\""+SERVER_ENCODINGS+"\"}]", null);
+	}
+
+	private void sync(HttpExchange exchange, Map<String,String> form, String contentType, InputStream body, PayloadEncryption.Binding responseBinding) throws IOException, SQLException, InterruptedException{
+		String session = sessionId(exchange);
+		String client = session == null ? null : sessions.get(session);
+		if(client == null){
+			sendError(exchange, 200, "not logged in", responseBinding);
+			return;
+		}
+		SyncServerRequest request = null;
+		if(contentType == null || contentType.equals(FORM_CONTENT_TYPE)){
+			String data = form.get("data");
+			if(data == null){
+				sendError(exchange, 200, "no sync data", responseBinding);
+				return;
+			}
+			request = SyncServerRequest.readJSON(SyncServerRequest.JSON.createParser(new StringReader(data)));
+		}
+		else if(contentType.equals(JSON_CONTENT_TYPE)){
+			request = SyncServerRequest.readJSON(SyncServerRequest.JSON.createParser(body));
+		}
+		else if(contentType.equals(SyncServerRequest.BINARY_CONTENT_TYPE)){
+			request = SyncServerRequest.readBinary(body);
+		}
+		else{
+			sendStatus(exchange, UNSUPPORTED_MEDIA_TYPE);
+			return;
+		}
+		long acknowledged = store.store(client, request.database, request.rows);
+		rowsStored.addAndGet(request.rows.size());
+		long position = parsePosition(request.continuation != null ? request.continuation : request.lastSyncTime);
+		int pageRows = request.pageSize > 0 ? Math.min(request.pageSize, maxPageRows) : maxPageRows;
+		ChangeStore.Page aPage = store.readChanges(client, position, pageRows);
+		rowsSent.addAndGet(aPage.keys.size());
+
+		Writer responseWriter = openResponse(exchange, 200, JSON_CONTENT_TYPE, responseBinding);
+		SyncJSONWriter json = new SyncJSONWriter(responseWriter);
+		json.beginArray()
+			.beginObject().name("sync_response").value("data_success").endObject()
+			.beginObject().name("sync_time").value(String.valueOf(aPage.position));
+		if(acknowledged >= 0){
+			json.name("sync_ack").value(acknowledged);
+		}
+		if(aPage.more){
+			json.name("sync_continuation").value(String.valueOf(aPage.position));
+		}
+		json.name("sync_data").beginArray();
+		for(int i = 0; i < aPage.keys.size(); i++){
+			json.beginObject().name("key").value(aPage.keys.get(i)).name("syncInfo");
+			String values = aPage.valuesJSON.get(i);
+			if(values == null){
+				json.nullValue();
+			}
+			else{
+				json.rawValue(values);
+			}
+			json.endObject();
+		}
+		json.endArray().endObject().endArray();
+		responseWriter.close();
+	}
+
+	/*
+	 * Sends every change committed before the request, whichever client made it, a page of changes at a time.  The snapshot
+	 * format is always compressed so it has no gzip content coding, only qc-aes-gcm if it is encrypted.
+	 */
+	private void snapshot(HttpExchange exchange, PayloadEncryption.Binding responseBinding) throws IOException, SQLException, InterruptedException{
+		String session = sessionId(exchange);
+		if(session == null || sessions.get(session) == null){
+			sendError(exchange, 200, "not logged in", responseBinding);
+			return;
+		}
+		long snapshotPosition = store.highWater();
+		exchange.getResponseHeaders().set("Content-Type", SNAPSHOT_CONTENT_TYPE);
+		if(responseBinding != null){
+			exchange.getResponseHeaders().set("Content-Encoding", PayloadEncryption.CONTENT_CODING);
+		}
+		exchange.sendResponseHeaders(200, 0);
+		OutputStream out = exchange.getResponseBody();
+		if(responseBinding != null){
+			out = new PayloadEncryption.EncryptingOutputStream(out, responseBinding);
+		}
+		out = new GZIPOutputStream(out, 65536);
+		ByteArrayOutputStream rowBuffer = new ByteArrayOutputStream(256);
+		rowBuffer.write('Q');
+		rowBuffer.write('C');
+		rowBuffer.write('N');
+		rowBuffer.write(SNAPSHOT_VERSION);
+		SyncValueCodec.writeBytes(rowBuffer, SyncValueCodec.utf8(String.valueOf(snapshotPosition)));
+		long position = 0;
+		ChangeStore.Page aPage = null;
+		do{
+			//no client has an empty user name so the changes of every client are read
+			aPage = store.readChanges("", position, snapshotPosition, maxPageRows);
+			for(int i = 0; i < aPage.keys.size(); i++){
+				SyncValueCodec.writeVarint(rowBuffer, 1);
+				SyncValueCodec.writeBytes(rowBuffer, SyncValueCodec.utf8(aPage.keys.get(i)));
+				String values = aPage.valuesJSON.get(i);
+				if(values == null){
+					rowBuffer.write(SyncServerRequest.PARAMS_NULL);
+				}
+				else{
+					rowBuffer.write(SyncServerRequest.PARAMS_JSON);
+					SyncValueCodec.writeBytes(rowBuffer, SyncValueCodec.utf8(values));
+				}
+				rowBuffer.writeTo(out);
+				rowBuffer.reset();
+			}
+			rowsSent.addAndGet(aPage.keys.size());
+			position = aPage.position;
+		}while(aPage.more);
+		SyncValueCodec.writeVarint(rowBuffer, 0);
+		rowBuffer.writeTo(out);
+		out.close();
+	}
+
+	/*
+	 * Returns the position a client continues from.  Anything that is not a position starts from the beginning.
+	 */
+	private static long parsePosition(String aPosition){
+		if(aPosition == null){
+			return 0;
+		}
+		try{
+			return Math.max(Long.parseLong(aPosition.trim()), 0);
+		}
+		catch(NumberFormatException e){
+			return 0;
+		}
+	}
+
+	/*
+	 * Returns the key the logged in user's requests are encrypted with, or null if the request has no session or the user has no key.
+	 */
+	private SecretKey payloadKey(HttpExchange exchange){
+		String session = sessionId(exchange);
+		String client = session == null ? null : sessions.get(session);
+		Properties keys = payloadKeys;
+		if(client == null || keys == null){
+			return null;
+		}
+		String encodedKey = keys.getProperty(client, keys.getProperty("*"));
+		return encodedKey == null ? null : new SecretKeySpec(Base64.getDecoder().decode(encodedKey.trim()), "AES");
+	}
+
+	/*
+	 * Returns the request body, decrypting it with the decrypter if it is not null and decompressing it if needed, or null if 
+	 * its encoding is not supported.
+	 */
+	private static InputStream openRequestBody(HttpExchange exchange, PayloadEncryption.DecryptingInputStream decrypter) throws IOException{
+		String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+		InputStream body = exchange.getRequestBody();
+		if(decrypter != null){
+			body = decrypter;
+			encoding = PayloadEncryption.innerCodings(encoding);
+		}
+		if(encoding == null || encoding.trim().length() == 0 || encoding.trim().equalsIgnoreCase("identity")){
+			return body;
+		}
+		encoding = encoding.trim().toLowerCase(Locale.US);
+		if(encoding.equals("gzip") || encoding.equals("x-gzip")){
+			return new GZIPInputStream(body);
+		}
+		else if(encoding.equals("deflate")){
+			return new InflaterInputStream(body);
+		}
+		return null;
+	}
+
+	private static String contentType(HttpExchange exchange){
+		String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+		if(contentType == null){
+			return null;
+		}
+		int parameterStart = contentType.indexOf(';');
+		if(parameterStart >= 0){
+			contentType = contentType.substring(0, parameterStart);
+		}
+		return contentType.trim().toLowerCase(Locale.US);
+	}
+
+	private static String sessionId(HttpExchange exchange){
+		List<String> cookieHeaders = exchange.getRequestHeaders().get("Cookie");
+		if(cookieHeaders == null){
+			return null;
+		}
+		for(String aHeader : cookieHeaders){
+			for(String aCookie : aHeader.split(";")){
+				int separator = aCookie.indexOf('=');
+				if(separator > 0 && aCookie.substring(0, separator).trim().equals(SESSION_COOKIE)){
+					return aCookie.substring(separator + 1).trim();
+				}
+			}
+		}
+		return null;
+	}
+
+	private static Map<String,String> parseForm(String encodedForm) throws IOException{
+		HashMap<String,String> form = new HashMap<String,String>();
+		if(encodedForm == null || encodedForm.length() == 0){
+			return form;
+		}
+		for(String aField : encodedForm.split("&")){
+			int separator = aField.indexOf('=');
+			if(separator < 0){
+				form.put(URLDecoder.decode(aField, "UTF-8"), "");
+			}
+			else{
+				form.put(URLDecoder.decode(aField.substring(0, separator), "UTF-8"), URLDecoder.decode(aField.substring(separator + 1), "UTF-8"));
+			}
+		}
+		return form;
+	}
+
+	/*
+	 * Sends the response headers and returns a writer for the body, which is gzipped if the client accepts it and then
+	 * encrypted if the request was.
+	 */
+	private static Writer openResponse(HttpExchange exchange, int status, String contentType, PayloadEncryption.Binding responseBinding) throws IOException{
+		exchange.getResponseHeaders().set("Content-Type", contentType+"; charset=UTF-8");
+		String accepted = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+		boolean gzip = accepted != null && accepted.toLowerCase(Locale.US).indexOf("gzip") >= 0;
+		String codings = gzip ? "gzip" : null;
+		if(responseBinding != null){
+			codings = PayloadEncryption.outerCodings(codings);
+		}
+		if(codings != null){
+			exchange.getResponseHeaders().set("Content-Encoding", codings);
+		}
+		//a length of zero sends the body chunked
+		exchange.sendResponseHeaders(status, 0);
+		OutputStream out = exchange.getResponseBody();
+		if(responseBinding != null){
+			out = new PayloadEncryption.EncryptingOutputStream(out, responseBinding);
+		}
+		if(gzip){
+			out = new GZIPOutputStream(out, 8192);
+		}
+		return new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), 8192);
+	}
+
+	private static void sendJSON(HttpExchange exchange, int status, String someJSON, PayloadEncryption.Binding responseBinding) throws IOException{
+		Writer responseWriter = openResponse(exchange, status, JSON_CONTENT_TYPE, responseBinding);
+		responseWriter.write(someJSON);
+		responseWriter.close();
+	}
+
+	private static void sendError(HttpExchange exchange, int status, String error, PayloadEncryption.Binding responseBinding) throws IOException{
+		Writer responseWriter = openResponse(exchange, status, JSON_CONTENT_TYPE, responseBinding);
+		SyncJSONWriter json = new SyncJSONWriter(responseWriter);
+		json.beginArray().beginObject().name("sync_response").value("data_failure").name("sync_error").value(error).endObject().endArray();
+		responseWriter.close();
+	}
+
+	private static void sendStatus(HttpExchange exchange, int status) throws IOException{
+		exchange.sendResponseHeaders(status, -1);
+	}
+
+	/**
+	 * Runs a server until the process is stopped.  Options:
+	 * -port n (default 8080), -db path (default sync-server.db), -threads n (default 4 per processor), -virtual to handle
+	 * each request on a virtual thread, -readers n (default the number of processors), -maxPage n (default 1000),
+	 * -users file, a properties file of user names and passwords, -keys file, a properties file of user names and the base64
+	 * AES keys their requests may be encrypted with, and -stats seconds to print the request and row
+	 * counts at that interval.
+	 * @param args - the options.
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception{
+		int processors = Runtime.getRuntime().availableProcessors();
+		int port = 8080;
+		String dbPath = "sync-server.db";
+		int threads = 4 * processors;
+		boolean virtual = false;
+		int readers = processors;
+		int maxPage = 1000;
+		Properties users = null;
+		Properties payloadKeys = null;
+		int statsSeconds = 0;
+		for(int i = 0; i < args.length; i++){
+			String anOption = args[i];
+			if(anOption.equals("-virtual")){
+				virtual = true;
+				continue;
+			}
+			if(i + 1 >= args.length){
+				throw new IllegalArgumentException("Missing value for "+anOption);
+			}
+			String aValue = args[++i];
+			if(anOption.equals("-port")){
+				port = Integer.parseInt(aValue);
+			}
+			else if(anOption.equals("-db")){
+				dbPath = aValue;
+			}
+			else if(anOption.equals("-threads")){
+				threads = Integer.parseInt(aValue);
+			}
+			else if(anOption.equals("-readers")){
+				readers = Integer.parseInt(aValue);
+			}
+			else if(anOption.equals("-maxPage")){
+				maxPage = Integer.parseInt(aValue);
+			}
+			else if(anOption.equals("-keys")){
+				payloadKeys = loadProperties(aValue);
+			}
+			else if(anOption.equals("-users")){
+				users = loadProperties(aValue);
+			}
+			else if(anOption.equals("-stats")){
+				statsSeconds = Integer.parseInt(aValue);
+			}
+			else{
+				throw new IllegalArgumentException("Unknown option "+anOption);
+			}
+		}
+		ExecutorService handlers = virtual ? newVirtualThreadExecutor() : Executors.newFixedThreadPool(threads);
+		final ReferenceSyncServer syncServer = new ReferenceSyncServer(port, dbPath, handlers, readers, maxPage, users);
+		syncServer.setPayloadKeys(payloadKeys);
+		syncServer.start();
+		System.out.println("Sync server listening on port "+syncServer.getPort()+" using "+dbPath
+				+(virtual ? " with virtual threads" : " with "+threads+" threads"));
+		if(statsSeconds > 0){
+			ScheduledExecutorService statsPrinter = Executors.newSingleThreadScheduledExecutor();
+			statsPrinter.scheduleAtFixedRate(new Runnable(){
+				public void run() {
+					System.out.println("requests="+syncServer.getRequestCount()+" rowsStored="+syncServer.getRowsStored()+" rowsSent="+syncServer.getRowsSent());
+				}
+			}, statsSeconds, statsSeconds, TimeUnit.SECONDS);
+		}
+	}
+
+	private static Properties loadProperties(String path) throws IOException{
+		Properties loaded = new Properties();
+		FileInputStream propertiesFile = new FileInputStream(path);
+		try{
+			loaded.load(propertiesFile);
+		}
+		finally{
+			propertiesFile.close();
+		}
+		return loaded;
+	}
+
+	/*
+	 * Virtual threads were added in Java 21.  They are found by reflection so the server still runs on older JVMs.
+	 */
+	private static ExecutorService newVirtualThreadExecutor(){
+		try{
+			return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}
+		catch(Exception e){
+			throw new UnsupportedOperationException("Virtual threads need Java 21 or later", e);
+		}
+	}
+}
@@ -0,0 +1,190 @@
+package org.quickconnectfamily.sync;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/*
+ * A sync request read by the ReferenceSyncServer from any of the formats SynchronizedDB sends: the JSON of the data form
+ * field or of an application/json body, or the binary format written by SyncBinaryRequestEntity.  The values of each
+ * row are kept as JSON text so they can be stored and sent on to other clients without being parsed again.
+ */
+class SyncServerRequest {
+	static final JsonFactory JSON = new JsonFactory();
+	//the constants of SyncBinaryRequestEntity, which can not be compiled without the Android HTTP classes
+	static final String BINARY_CONTENT_TYPE = "application/x-qc-sync";
+	static final int WIRE_VERSION = 4;
+	static final int PARAMS_NULL = 0;
+	static final int PARAMS_BINARY = 1;
+	static final int PARAMS_JSON = 2;
+
+	//the id of the client's database, or an empty string if the client did not send one
+	String database = "";
+	String lastSyncTime;
+	String continuation;
+	int pageSize;
+	ArrayList<Row> rows = new ArrayList<Row>();
+
+	static class Row{
+		long id;
+		String insertionTime;
+		String key;
+		//null if the client stored no values
+		String valuesJSON;
+	}
+
+	/*
+	 * Reads the JSON request.  Members that are not part of the protocol are skipped.
+	 */
+	static SyncServerRequest readJSON(JsonParser parser) throws IOException{
+		SyncServerRequest request = new SyncServerRequest();
+		expect(parser.nextToken(), JsonToken.START_OBJECT);
+		while(parser.nextToken() == JsonToken.FIELD_NAME){
+			String aName = parser.getCurrentName();
+			JsonToken aToken = parser.nextToken();
+			if(aName.equals("database")){
+				request.database = parser.getValueAsString("");
+			}
+			else if(aName.equals("lastSyncTime")){
+				request.lastSyncTime = parser.getValueAsString();
+			}
+			else if(aName.equals("continuation")){
+				request.continuation = parser.getValueAsString();
+			}
+			else if(aName.equals("pageSize")){
+				request.pageSize = parser.getValueAsInt();
+			}
+			else if(aName.equals("syncInfo") && aToken == JsonToken.START_ARRAY){
+				while(parser.nextToken() == JsonToken.START_OBJECT){
+					request.rows.add(readRow(parser));
+				}
+			}
+			else{
+				parser.skipChildren();
+			}
+		}
+		return request;
+	}
+
+	private static Row readRow(JsonParser parser) throws IOException{
+		Row aRow = new Row();
+		while(parser.nextToken() == JsonToken.FIELD_NAME){
+			String aName = parser.getCurrentName();
+			JsonToken aToken = parser.nextToken();
+			if(aName.equals("id")){
+				aRow.id = parser.getValueAsLong();
+			}
+			else if(aName.equals("insertionTime")){
+				aRow.insertionTime = parser.getValueAsString();
+			}
+			else if(aName.equals("key")){
+				aRow.key = parser.getValueAsString();
+			}
+			else if(aName.equals("values") && aToken != JsonToken.VALUE_NULL){
+				StringWriter valuesText = new StringWriter();
+				JsonGenerator copier = JSON.createGenerator(valuesText);
+				copier.copyCurrentStructure(parser);
+				copier.close();
+				aRow.valuesJSON = valuesText.toString();
+			}
+			else{
+				parser.skipChildren();
+			}
+		}
+		return aRow;
+	}
+
+	/*
+	 * Reads a request in the binary sync format.  See SyncBinaryRequestEntity.
+	 */
+	static SyncServerRequest readBinary(InputStream in) throws IOException{
+		DataInputStream binary = new DataInputStream(in);
+		if(binary.read() != 'Q' || binary.read() != 'C' || binary.read() != 'S'){
+			throw new IOException("Not a binary sync request");
+		}
+		int version = binary.read();
+		if(version != WIRE_VERSION){
+			throw new IOException("Unsupported binary sync version "+version);
+		}
+		SyncServerRequest request = new SyncServerRequest();
+		request.database = readString(binary);
+		request.lastSyncTime = readString(binary);
+		request.continuation = readString(binary);
+		if(request.continuation.length() == 0){
+			request.continuation = null;
+		}
+		request.pageSize = (int)readVarint(binary);
+		while(readVarint(binary) == 1){
+			Row aRow = new Row();
+			aRow.id = readVarint(binary);
+			aRow.insertionTime = readString(binary);
+			aRow.key = readString(binary);
+			int kind = binary.readUnsignedByte();
+			if(kind == PARAMS_BINARY){
+				aRow.valuesJSON = SyncValueCodec.toJSON(readBytes(binary));
+			}
+			else if(kind == PARAMS_JSON){
+				aRow.valuesJSON = new String(readBytes(binary), "UTF-8");
+			}
+			else if(kind != PARAMS_NULL){
+				throw new IOException("Unknown sync params kind "+kind);
+			}
+			request.rows.add(aRow);
+		}
+		return request;
+	}
+
+	private static String readString(DataInputStream binary) throws IOException{
+		return new String(readBytes(binary), "UTF-8");
+	}
+
+	private static byte[] readBytes(DataInputStream binary) throws IOException{
+		long length = readVarint(binary);
+		if(length > Integer.MAX_VALUE){
+			throw new IOException("Invalid length "+length);
+		}
+		byte[] bytes = new byte[(int)length];
+		binary.readFully(bytes);
+		return bytes;
+	}
+
+	static long readVarint(InputStream in) throws IOException{
+		long value = 0;
+		for(int shift = 0; shift < 64; shift += 7){
+			int aByte = in.read();
+			if(aByte < 0){
+				throw new EOFException("Truncated varint");
+			}
+			value |= (long)(aByte & 0x7F) << shift;
+			if((aByte & 0x80) == 0){
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	static byte[] readAll(InputStream in) throws IOException{
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int count = 0;
+		while((count = in.read(buffer)) != -1){
+			content.write(buffer, 0, count);
+		}
+		return content.toByteArray();
+	}
+
+	private static void expect(JsonToken actual, JsonToken expected) throws IOException{
+		if(actual != expected){
+			throw new IOException("Expected "+expected+" but found "+actual);
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package org.quickconnectfamily.sync;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * Writes made with setData to tables whose changes are captured by triggers, without change capture mode turned on.
+ */
+public class ChangeCaptureTest {
+	private File dbFile;
+	private StubSyncService service;
+	private SynchronizedDB db;
+	//the keys of every value the service has received
+	private List<String> received = Collections.synchronizedList(new ArrayList<String>());
+
+	@Before
+	public void setUp() throws Exception{
+		dbFile = File.createTempFile("capture", ".db");
+		service = new StubSyncService(new StubSyncService.Responder(){
+			@SuppressWarnings("unchecked")
+			public String respond(HashMap<String,Object> request) throws Exception {
+				long acknowledged = -1;
+				for(HashMap<String,Object> aValue : (ArrayList<HashMap<String,Object>>)request.get("syncInfo")){
+					received.add((String)aValue.get("key"));
+					acknowledged = Math.max(acknowledged, ((Number)aValue.get("id")).longValue());
+				}
+				return StubSyncService.response("2026-01-01 00:00:00", acknowledged, "[]");
+			}
+		});
+		db = open();
+	}
+
+	@After
+	public void tearDown() throws Exception{
+		db.cleanUp();
+		service.stop();
+		dbFile.delete();
+	}
+
+	@Test
+	public void capturedWriteIsStoredOnce() throws Exception{
+		db.captureTableChanges("insertItem", "items", SynchronizedDB.OPERATION_INSERT, "id", "name");
+		db.setData("insertItem", new Object[]{Integer.valueOf(1), "item 1"});
+		db.sync();
+		assertEquals(Arrays.asList("insertItem"), received);
+	}
+
+	@Test
+	public void writeOfUncapturedOperationIsStored() throws Exception{
+		db.captureTableChanges("insertItem", "items", SynchronizedDB.OPERATION_INSERT, "id", "name");
+		db.setData("insertItem", new Object[]{Integer.valueOf(1), "item 1"});
+		db.setData("deleteItem", new Object[]{Integer.valueOf(1)});
+		db.sync();
+		assertEquals(Arrays.asList("insertItem", "deleteItem"), received);
+	}
+
+	@Test
+	public void triggersOfEarlierRunAreFound() throws Exception{
+		db.captureTableChanges("insertItem", "items", SynchronizedDB.OPERATION_INSERT, "id", "name");
+		db.cleanUp();
+		db = open();
+		db.setData("insertItem", new Object[]{Integer.valueOf(1), "item 1"});
+		db.sync();
+		assertEquals(Arrays.asList("insertItem"), received);
+	}
+
+	@Test
+	public void writeAfterCaptureStopsIsStored() throws Exception{
+		db.captureTableChanges("insertItem", "items", SynchronizedDB.OPERATION_INSERT, "id", "name");
+		db.stopCapturingTableChanges("items");
+		db.setData("insertItem", new Object[]{Integer.valueOf(1), "item 1"});
+		db.sync();
+		assertEquals(Arrays.asList("insertItem"), received);
+	}
+
+	private SynchronizedDB open() throws Exception{
+		JDBCSyncStorage storage = new JDBCSyncStorage("jdbc:sqlite:"+dbFile.getAbsolutePath(), 1, 16);
+		SynchronizedDB aDB = new SynchronizedDB(storage, service.getURL(), service.getPort(), "user", "password", 30);
+		storage.transact("CREATE TABLE IF NOT EXISTS items(id INTEGER PRIMARY KEY, name TEXT)", null);
+		aDB.registerSynchedStatement("insertItem", "INSERT INTO items VALUES(?,?)");
+		aDB.registerSynchedStatement("deleteItem", "DELETE FROM items WHERE id = ?");
+		return aDB;
+	}
+}
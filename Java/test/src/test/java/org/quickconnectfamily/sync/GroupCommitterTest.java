@@ -0,0 +1,60 @@
+package org.quickconnectfamily.sync;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.quickconnectfamily.dbaccess.DataAccessResult;
+
+/*
+ * Turning group commit off while writes are queued, and while a group is being committed, commits every queued write.
+ */
+public class GroupCommitterTest {
+	private static final int WRITES = 2000;
+
+	private File dbFile;
+	private StubSyncService service;
+	private SynchronizedDB db;
+
+	@Before
+	public void setUp() throws Exception{
+		dbFile = File.createTempFile("groupcommit", ".db");
+		service = new StubSyncService(new StubSyncService.Responder(){
+			public String respond(HashMap<String,Object> request) throws Exception {
+				return StubSyncService.response("2026-01-01 00:00:00", -1, "[]");
+			}
+		});
+		JDBCSyncStorage storage = new JDBCSyncStorage("jdbc:sqlite:"+dbFile.getAbsolutePath(), 1, 16);
+		db = new SynchronizedDB(storage, service.getURL(), service.getPort(), "user", "password", 30);
+		storage.transact("CREATE TABLE items(id INTEGER PRIMARY KEY, name TEXT)", null);
+		db.registerSynchedStatement("insertItem", "INSERT INTO items VALUES(?,?)");
+		db.registerSynchedStatement("countItems", "SELECT count(*) FROM items");
+	}
+
+	@After
+	public void tearDown() throws Exception{
+		db.cleanUp();
+		service.stop();
+		dbFile.delete();
+	}
+
+	@Test
+	public void shutDownCommitsQueuedWrites() throws Exception{
+		db.setGroupCommit(5, 50);
+		ArrayList<CompletableFuture<DataAccessResult>> results = new ArrayList<CompletableFuture<DataAccessResult>>();
+		for(int i = 0; i < WRITES; i++){
+			results.add(db.setDataAsync("insertItem", new Object[]{Integer.valueOf(i), "item "+i}));
+		}
+		db.setGroupCommit(0, 0);
+		for(CompletableFuture<DataAccessResult> aResult : results){
+			assertEquals("not an error", aResult.getNow(null).getErrorDescription());
+		}
+		assertEquals(String.valueOf(WRITES), db.getData("countItems", null).getResults().get(0).get(0));
+	}
+}
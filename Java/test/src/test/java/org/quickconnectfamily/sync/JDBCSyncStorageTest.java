@@ -0,0 +1,91 @@
+package org.quickconnectfamily.sync;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.quickconnectfamily.dbaccess.DataAccessResult;
+
+/*
+ * The DataAccessResults built by JDBCSyncStorage.transact, checked through the QCDBAccess jar the module is built with.
+ * Statements return rows whatever their text starts with, and statements that change data run once, on the writer.
+ */
+public class JDBCSyncStorageTest {
+	private File dbFile;
+	private JDBCSyncStorage storage;
+
+	@Before
+	public void setUp() throws Exception{
+		dbFile = File.createTempFile("storage", ".db");
+		storage = new JDBCSyncStorage("jdbc:sqlite:"+dbFile.getAbsolutePath(), 2, 16);
+		assertSucceeded(storage.transact("CREATE TABLE items(id INTEGER PRIMARY KEY, name TEXT)", null));
+	}
+
+	@After
+	public void tearDown() throws Exception{
+		storage.close();
+		dbFile.delete();
+	}
+
+	@Test
+	public void statementWithoutRowsSucceedsWithNoRows() throws Exception{
+		DataAccessResult aResult = storage.transact("INSERT INTO items VALUES(?,?)", new Object[]{Integer.valueOf(1), "one"});
+		assertSucceeded(aResult);
+		assertEquals(0, aResult.getResults().size());
+		assertEquals(0, aResult.getFieldNames().length);
+	}
+
+	@Test
+	public void queryAfterCommentReturnsRows() throws Exception{
+		storage.transact("INSERT INTO items VALUES(?,?)", new Object[]{Integer.valueOf(1), "one"});
+		DataAccessResult aResult = storage.transact("/* every item */ SELECT id, name FROM items", null);
+		assertSucceeded(aResult);
+		assertArrayEquals(new String[]{"id", "name"}, aResult.getFieldNames());
+		assertEquals(Arrays.asList(rows("1", "one")), aResult.getResults());
+	}
+
+	@Test
+	public void insertReturningRunsOnceAndReturnsRows() throws Exception{
+		DataAccessResult aResult = storage.transact("INSERT INTO items(name) VALUES(?) RETURNING id", new Object[]{"one"});
+		assertSucceeded(aResult);
+		assertEquals(Arrays.asList(rows("1")), aResult.getResults());
+		assertEquals(Arrays.asList(rows("1")), storage.transact("SELECT count(*) FROM items", null).getResults());
+	}
+
+	@Test
+	public void insertReturningInTransactionIsRolledBack() throws Exception{
+		storage.startTransaction();
+		assertEquals(Arrays.asList(rows("1")), storage.transact("INSERT INTO items(name) VALUES(?) RETURNING id", new Object[]{"one"}).getResults());
+		storage.endTransaction(false);
+		assertEquals(Arrays.asList(rows("0")), storage.transact("SELECT count(*) FROM items", null).getResults());
+	}
+
+	@Test
+	public void failedStatementRunsAgain() throws Exception{
+		assertSucceeded(storage.transact("INSERT INTO items VALUES(?,?)", new Object[]{Integer.valueOf(1), "one"}));
+		assertFalse(storage.transact("INSERT INTO items VALUES(?,?)", new Object[]{Integer.valueOf(1), "one"}).getErrorDescription().equals("not an error"));
+		assertSucceeded(storage.transact("INSERT INTO items VALUES(?,?)", new Object[]{Integer.valueOf(2), "two"}));
+	}
+
+	@Test
+	public void failureDescribesError() throws Exception{
+		DataAccessResult aResult = storage.transact("SELECT * FROM missing", null);
+		assertFalse(aResult.getErrorDescription().equals("not an error"));
+		assertEquals(0, aResult.getResults().size());
+	}
+
+	private static void assertSucceeded(DataAccessResult aResult){
+		assertEquals("not an error", aResult.getErrorDescription());
+	}
+
+	private static ArrayList<String> rows(String... values){
+		return new ArrayList<String>(Arrays.asList(values));
+	}
+}
@@ -0,0 +1,98 @@
+package org.quickconnectfamily.sync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * Compaction of the stored values against a service that stores each value once, recognizing values sent again by their ids.
+ */
+public class JournalCompactionTest {
+	private File dbFile;
+	private StubSyncService service;
+	private SynchronizedDB db;
+	//the ids of the items the service has stored and not deleted
+	private Set<String> serviceItems = Collections.synchronizedSet(new HashSet<String>());
+	//the keys of every value the service has received, including values sent again
+	private List<String> received = Collections.synchronizedList(new ArrayList<String>());
+
+	@Before
+	public void setUp() throws Exception{
+		dbFile = File.createTempFile("compaction", ".db");
+		service = new StubSyncService(new StubSyncService.Responder(){
+			private HashSet<Long> storedIds = new HashSet<Long>();
+
+			@SuppressWarnings("unchecked")
+			public String respond(HashMap<String,Object> request) throws Exception {
+				long acknowledged = -1;
+				for(HashMap<String,Object> aValue : (ArrayList<HashMap<String,Object>>)request.get("syncInfo")){
+					Long id = Long.valueOf(((Number)aValue.get("id")).longValue());
+					String key = (String)aValue.get("key");
+					String itemId = String.valueOf(((ArrayList<Object>)aValue.get("values")).get(0));
+					received.add(key);
+					acknowledged = Math.max(acknowledged, id.longValue());
+					if(!storedIds.add(id)){
+						continue;
+					}
+					if(key.equals("insertItem")){
+						serviceItems.add(itemId);
+					}
+					else if(key.equals("deleteItem")){
+						serviceItems.remove(itemId);
+					}
+				}
+				return StubSyncService.response("2026-01-01 00:00:00", acknowledged, "[]");
+			}
+		});
+		JDBCSyncStorage storage = new JDBCSyncStorage("jdbc:sqlite:"+dbFile.getAbsolutePath(), 1, 16);
+		db = new SynchronizedDB(storage, service.getURL(), service.getPort(), "user", "password", 30);
+		storage.transact("CREATE TABLE items(id INTEGER PRIMARY KEY, name TEXT)", null);
+		db.registerSynchedStatement("insertItem", "INSERT INTO items VALUES(?,?)", "items", SynchronizedDB.OPERATION_INSERT, 0);
+		db.registerSynchedStatement("deleteItem", "DELETE FROM items WHERE id = ?", "items", SynchronizedDB.OPERATION_DELETE, 0);
+	}
+
+	@After
+	public void tearDown() throws Exception{
+		db.cleanUp();
+		service.stop();
+		dbFile.delete();
+	}
+
+	@Test
+	public void unsentInsertAndDeleteAreNotSent() throws Exception{
+		db.setData("insertItem", new Object[]{Integer.valueOf(1), "item 1"});
+		db.setData("deleteItem", new Object[]{Integer.valueOf(1)});
+		db.sync();
+		assertEquals(Collections.emptyList(), received);
+		assertEquals(Collections.emptySet(), serviceItems);
+	}
+
+	@Test
+	public void deleteOfInsertSentByFailedSyncIsSent() throws Exception{
+		db.setData("insertItem", new Object[]{Integer.valueOf(1), "item 1"});
+		service.failNextSyncs(1);
+		try{
+			db.sync();
+			fail("the sync should have failed");
+		}
+		catch(IOException e){
+			//the service stored the insert but the client never received its response
+		}
+		assertEquals(Collections.singleton("1"), serviceItems);
+		db.setData("deleteItem", new Object[]{Integer.valueOf(1)});
+		db.sync();
+		assertEquals(Collections.emptySet(), serviceItems);
+	}
+}
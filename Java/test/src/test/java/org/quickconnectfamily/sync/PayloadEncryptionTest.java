@@ -0,0 +1,83 @@
+package org.quickconnectfamily.sync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Test;
+
+/*
+ * Encrypted bodies only decrypt as the body of the exchange, direction, and command they were sent as.
+ */
+public class PayloadEncryptionTest {
+	private SecretKey key = new SecretKeySpec(new byte[16], "AES");
+
+	@Test
+	public void responseDecryptsForItsRequest() throws Exception{
+		PayloadEncryption.Binding request = PayloadEncryption.Binding.request(key, "sync");
+		//the service learns the exchange nonce from the request
+		PayloadEncryption.DecryptingInputStream requestIn = new PayloadEncryption.DecryptingInputStream(
+				new ByteArrayInputStream(encrypt(request, "request")), key, "sync");
+		assertEquals("request", read(requestIn));
+		byte[] response = encrypt(requestIn.getBinding().response(), "response");
+		assertEquals("response", read(new PayloadEncryption.DecryptingInputStream(new ByteArrayInputStream(response), request.response())));
+	}
+
+	@Test
+	public void responseDoesNotDecryptForLaterRequest() throws Exception{
+		PayloadEncryption.Binding recorded = PayloadEncryption.Binding.request(key, "sync");
+		byte[] response = encrypt(recorded.response(), "response");
+		assertRejected(response, PayloadEncryption.Binding.request(key, "sync").response());
+	}
+
+	@Test
+	public void requestDoesNotDecryptAsResponse() throws Exception{
+		PayloadEncryption.Binding request = PayloadEncryption.Binding.request(key, "sync");
+		assertRejected(encrypt(request, "request"), request.response());
+	}
+
+	@Test
+	public void requestDoesNotDecryptForOtherCommand() throws Exception{
+		byte[] request = encrypt(PayloadEncryption.Binding.request(key, "snapshot"), "request");
+		try{
+			read(new PayloadEncryption.DecryptingInputStream(new ByteArrayInputStream(request), key, "sync"));
+			fail("the request decrypted for another command");
+		}
+		catch(IOException e){
+			//the command is part of the additional data
+		}
+	}
+
+	private static byte[] encrypt(PayloadEncryption.Binding binding, String text) throws IOException{
+		ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+		PayloadEncryption.EncryptingOutputStream out = new PayloadEncryption.EncryptingOutputStream(encrypted, binding);
+		out.write(text.getBytes("UTF-8"));
+		out.close();
+		return encrypted.toByteArray();
+	}
+
+	private static String read(PayloadEncryption.DecryptingInputStream in) throws IOException{
+		ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+		int aByte = 0;
+		while((aByte = in.read()) != -1){
+			decrypted.write(aByte);
+		}
+		return decrypted.toString("UTF-8");
+	}
+
+	private static void assertRejected(byte[] body, PayloadEncryption.Binding binding){
+		try{
+			read(new PayloadEncryption.DecryptingInputStream(new ByteArrayInputStream(body), binding));
+			fail("the body decrypted for another exchange");
+		}
+		catch(IOException e){
+			//expected
+		}
+	}
+}
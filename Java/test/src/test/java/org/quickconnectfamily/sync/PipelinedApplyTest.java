@@ -0,0 +1,96 @@
+package org.quickconnectfamily.sync;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * Syncs with pipelined apply whose responses arrive slowly or can not be stored while the service is still sending them.
+ */
+public class PipelinedApplyTest {
+	private static final long STALL_MILLIS = 30000;
+
+	private File dbFile;
+	private StubSyncService service;
+	private JDBCSyncStorage storage;
+	private SynchronizedDB db;
+	private volatile String responseJSON;
+
+	@Before
+	public void setUp() throws Exception{
+		dbFile = File.createTempFile("pipelined", ".db");
+		service = new StubSyncService(new StubSyncService.Responder(){
+			public String respond(HashMap<String,Object> request) throws Exception {
+				return responseJSON;
+			}
+		});
+		storage = new JDBCSyncStorage("jdbc:sqlite:"+dbFile.getAbsolutePath(), 1, 16);
+		db = new SynchronizedDB(storage, service.getURL(), service.getPort(), "user", "password", 30);
+		db.setPipelinedApply(2, 16);
+	}
+
+	@After
+	public void tearDown() throws Exception{
+		db.cleanUp();
+		service.stop();
+		dbFile.delete();
+	}
+
+	@Test
+	public void failedApplyDoesNotWaitForRestOfResponse() throws Exception{
+		//the start of a response whose first statement has a key the client never registered.  Only the start of the next is held back.
+		responseJSON = "[{\"sync_response\":\"data_success\"},{\"sync_time\":\"1\",\"sync_data\":[{\"key\":\"unknownKey\",\"syncInfo\":[1]},{";
+		service.stallResponses(STALL_MILLIS);
+		long start = System.nanoTime();
+		try{
+			db.sync();
+			fail("the sync should have failed");
+		}
+		catch(QCSynchronizationException e){
+			//the key is not registered
+		}
+		long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertTrue("the sync waited "+elapsedMillis+" ms for the response to end", elapsedMillis < STALL_MILLIS / 3);
+	}
+
+	@Test
+	public void replacedPipelineStopsItsDecodeThreads() throws Exception{
+		storage.transact("CREATE TABLE items(id INTEGER PRIMARY KEY)", null);
+		db.registerSynchedStatement("insertItem", "INSERT OR REPLACE INTO items VALUES(?)");
+		responseJSON = StubSyncService.response("1", -1, "[{\"key\":\"insertItem\",\"syncInfo\":[1]}]");
+		db.sync();
+		assertTrue("no decode thread ran", decodeThreadsRunning());
+		db.setPipelinedApply(0, 0);
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while(decodeThreadsRunning() && System.nanoTime() < deadline){
+			Thread.sleep(20);
+		}
+		assertFalse("the decode threads of the replaced pipeline are still running", decodeThreadsRunning());
+	}
+
+	@Test
+	public void slowResponseBodyIsNotHeldToAdaptiveTimeout() throws Exception{
+		//requests are timed out after four times the target
+		db.setAdaptiveUploadBatchSize(1, 100, 50);
+		responseJSON = StubSyncService.response("1", -1, "[]");
+		service.stallResponses(1000);
+		db.sync();
+	}
+
+	private static boolean decodeThreadsRunning(){
+		for(Thread aThread : Thread.getAllStackTraces().keySet()){
+			if(aThread.getName().equals("SynchronizedDB decode") && aThread.isAlive()){
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,188 @@
+package org.quickconnectfamily.sync;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import org.quickconnectfamily.json.JSONUtilities;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/*
+ * An HTTP sync service whose responses to sync requests are chosen by each test.  Any user name and password log in.
+ * Sync requests may be form encoded or JSON bodies, gzip compressed or not.  Payload encryption is not understood.
+ */
+class StubSyncService {
+	interface Responder{
+		/*
+		 * Returns the JSON response to a sync request.  The request is the parsed JSON the client sent.
+		 */
+		String respond(HashMap<String,Object> request) throws Exception;
+	}
+
+	private HttpServer server;
+	//a stalled response must not keep other requests waiting
+	private ExecutorService handlers = Executors.newCachedThreadPool();
+	private Responder responder;
+	private AtomicInteger failuresLeft = new AtomicInteger();
+	private volatile long stallMillis;
+
+	StubSyncService(Responder aResponder) throws IOException{
+		responder = aResponder;
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(handlers);
+		server.createContext("/sync", new HttpHandler(){
+			public void handle(HttpExchange exchange) throws IOException {
+				try{
+					handleRequest(exchange);
+				}
+				catch(IOException e){
+					//the client closed the connection, as it does after logging out without reading the response
+				}
+				catch(Exception e){
+					e.printStackTrace();
+					send(exchange, 500, "[{\"sync_response\":\"data_failure\",\"sync_error\":\"stub failure\"}]");
+				}
+				finally{
+					exchange.close();
+				}
+			}
+		});
+		server.start();
+	}
+
+	URL getURL() throws IOException{
+		return new URL("http://127.0.0.1:"+getPort()+"/sync");
+	}
+
+	int getPort(){
+		return server.getAddress().getPort();
+	}
+
+	/*
+	 * The next count sync requests are passed to the responder, as if the service stored them, and then answered with a
+	 * 500 status, as if the connection failed before the client read the response.
+	 */
+	void failNextSyncs(int count){
+		failuresLeft.set(count);
+	}
+
+	/*
+	 * The responses to later sync requests are sent without a length and without their last character, which is sent once 
+	 * the number of milliseconds has passed, as by a service that pauses partway through a response.
+	 */
+	void stallResponses(long millis){
+		stallMillis = millis;
+	}
+
+	void stop(){
+		server.stop(0);
+		handlers.shutdownNow();
+	}
+
+	/*
+	 * Builds a successful sync response.  syncDataJSON is the JSON array of the statements sent to the client.
+	 */
+	static String response(String syncTime, long acknowledged, String syncDataJSON){
+		return "[{\"sync_response\":\"data_success\"},{\"sync_time\":\""+syncTime+"\""
+				+(acknowledged < 0 ? "" : ",\"sync_ack\":"+acknowledged)+",\"sync_data\":"+syncDataJSON+"}]";
+	}
+
+	@SuppressWarnings("unchecked")
+	private void handleRequest(HttpExchange exchange) throws Exception{
+		String body = readBody(exchange);
+		String command = parameter(exchange.getRequestURI().getRawQuery(), "cmd");
+		String data = body;
+		if(command == null){
+			command = parameter(body, "cmd");
+			data = parameter(body, "data");
+		}
+		if("login".equals(command)){
+			send(exchange, 200, "[{\"sync_response\":\"login_success\",\"sync_encodings\":\"form,json,gzip\"}]");
+		}
+		else if("logout".equals(command)){
+			send(exchange, 200, "[{\"sync_response\":\"logout_success\"}]");
+		}
+		else if("sync".equals(command)){
+			String responseJSON = responder.respond((HashMap<String,Object>)JSONUtilities.parse(data));
+			if(failuresLeft.getAndDecrement() > 0){
+				send(exchange, 500, "[{\"sync_response\":\"data_failure\",\"sync_error\":\"connection lost\"}]");
+			}
+			else if(stallMillis > 0){
+				exchange.getResponseHeaders().set("Content-Type", "application/json");
+				exchange.sendResponseHeaders(200, 0);
+				OutputStream out = exchange.getResponseBody();
+				byte[] responseBytes = responseJSON.getBytes("UTF-8");
+				out.write(responseBytes, 0, responseBytes.length - 1);
+				out.flush();
+				try{
+					Thread.sleep(stallMillis);
+				}
+				catch(InterruptedException e){
+					//the service was stopped
+					return;
+				}
+				out.write(responseBytes, responseBytes.length - 1, 1);
+				out.close();
+			}
+			else{
+				send(exchange, 200, responseJSON);
+			}
+		}
+		else{
+			send(exchange, 404, "[{\"sync_response\":\"data_failure\",\"sync_error\":\"unknown command\"}]");
+		}
+	}
+
+	private static String readBody(HttpExchange exchange) throws IOException{
+		InputStream in = exchange.getRequestBody();
+		String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+		if(encoding != null && encoding.trim().toLowerCase(Locale.US).equals("gzip")){
+			in = new GZIPInputStream(in);
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int count = 0;
+		while((count = in.read(buffer)) != -1){
+			bytes.write(buffer, 0, count);
+		}
+		return bytes.toString("UTF-8");
+	}
+
+	/*
+	 * Returns the value of a parameter of a URL encoded query string or form, or null if it is not there.
+	 */
+	private static String parameter(String encoded, String name) throws IOException{
+		if(encoded == null){
+			return null;
+		}
+		for(String aPair : encoded.split("&")){
+			int equals = aPair.indexOf('=');
+			if(equals > 0 && URLDecoder.decode(aPair.substring(0, equals), "UTF-8").equals(name)){
+				return URLDecoder.decode(aPair.substring(equals + 1), "UTF-8");
+			}
+		}
+		return null;
+	}
+
+	private static void send(HttpExchange exchange, int status, String json) throws IOException{
+		byte[] body = json.getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+	}
+}
@@ -0,0 +1,85 @@
+package org.quickconnectfamily.sync;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.quickconnectfamily.dbaccess.DataAccessResult;
+
+/*
+ * Databases syncing through one SyncCoordinator, and so one login, with the ReferenceSyncServer.
+ */
+public class SyncCoordinatorTest {
+	private List<File> files = new ArrayList<File>();
+	private ReferenceSyncServer server;
+	private URL serverURL;
+	private SyncCoordinator coordinator;
+
+	@Before
+	public void setUp() throws Exception{
+		server = new ReferenceSyncServer(0, tempFile("server").getAbsolutePath(), Executors.newFixedThreadPool(4), 2, 1000, null);
+		server.start();
+		serverURL = new URL("http://127.0.0.1:"+server.getPort()+"/");
+		coordinator = new SyncCoordinator(serverURL, server.getPort(), "user", "password", 2);
+	}
+
+	@After
+	public void tearDown() throws Exception{
+		coordinator.cleanUp();
+		server.stop(0);
+		for(File aFile : files){
+			aFile.delete();
+		}
+	}
+
+	@Test
+	public void valuesOfDatabasesWithOverlappingIdsAreAllStored() throws Exception{
+		SyncStorage firstStorage = storage("first");
+		SyncStorage secondStorage = storage("second");
+		SynchronizedDB first = register(coordinator.addDatabase(firstStorage), firstStorage);
+		SynchronizedDB second = register(coordinator.addDatabase(secondStorage), secondStorage);
+		//each is the first value its database stores, so both have an id of 1
+		first.setData("insertItem", new Object[]{Integer.valueOf(1), "first"});
+		second.setData("insertItem", new Object[]{Integer.valueOf(2), "second"});
+		coordinator.syncAll();
+
+		SyncStorage readerStorage = storage("reader");
+		SynchronizedDB reader = register(new SynchronizedDB(readerStorage, serverURL, server.getPort(), "reader", "password", 30), readerStorage);
+		try{
+			reader.sync();
+			DataAccessResult items = readerStorage.transact("SELECT name FROM items ORDER BY id", null);
+			ArrayList<String> names = new ArrayList<String>();
+			for(ArrayList<String> aRow : items.getResults()){
+				names.add(aRow.get(0));
+			}
+			assertEquals(Arrays.asList("first", "second"), names);
+		}
+		finally{
+			reader.cleanUp();
+		}
+	}
+
+	private SyncStorage storage(String name) throws Exception{
+		return new JDBCSyncStorage("jdbc:sqlite:"+tempFile(name).getAbsolutePath(), 1, 16);
+	}
+
+	private File tempFile(String name) throws Exception{
+		File aFile = File.createTempFile(name, ".db");
+		files.add(aFile);
+		return aFile;
+	}
+
+	private static SynchronizedDB register(SynchronizedDB aDB, SyncStorage aStorage) throws Exception{
+		aStorage.transact("CREATE TABLE IF NOT EXISTS items(id INTEGER PRIMARY KEY, name TEXT)", null);
+		aDB.registerSynchedStatement("insertItem", "INSERT INTO items VALUES(?,?)");
+		return aDB;
+	}
+}
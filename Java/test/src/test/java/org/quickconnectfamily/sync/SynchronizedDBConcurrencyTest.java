@@ -0,0 +1,145 @@
+package org.quickconnectfamily.sync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.quickconnectfamily.dbaccess.DataAccessResult;
+
+/*
+ * Runs getData on several threads while syncs receive rows from a service.  The service does not answer a sync until
+ * the readers have completed more reads, so a sync that held the database lock while on the network would never finish.
+ * Each sync inserts ROWS_PER_SYNC rows in one transaction, so a reader that ever counts a number of rows that is not a
+ * multiple of it has seen a partly stored response.
+ */
+public class SynchronizedDBConcurrencyTest {
+	private static final int ROWS_PER_SYNC = 500;
+	private static final int SYNCS = 5;
+	private static final int READERS = 4;
+	//the reads the readers must complete while the service holds each response
+	private static final int READS_DURING_REQUEST = 50;
+	private static final long REQUEST_WAIT_MILLIS = 10000;
+
+	private File dbFile;
+	private StubSyncService service;
+	private SynchronizedDB db;
+	private AtomicLong readsCompleted = new AtomicLong();
+	private List<String> readerFailures = Collections.synchronizedList(new ArrayList<String>());
+	private List<Long> readsDuringRequests = Collections.synchronizedList(new ArrayList<Long>());
+	private volatile boolean reading;
+
+	@Before
+	public void setUp() throws Exception{
+		dbFile = File.createTempFile("concurrency", ".db");
+		service = new StubSyncService(new StubSyncService.Responder(){
+			private int syncCount;
+
+			public String respond(HashMap<String,Object> request) throws Exception {
+				long before = readsCompleted.get();
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(REQUEST_WAIT_MILLIS);
+				while(readsCompleted.get() < before + READS_DURING_REQUEST && System.nanoTime() < deadline){
+					Thread.sleep(1);
+				}
+				readsDuringRequests.add(Long.valueOf(readsCompleted.get() - before));
+				StringBuilder syncData = new StringBuilder("[");
+				for(int i = 0; i < ROWS_PER_SYNC; i++){
+					int id = syncCount * ROWS_PER_SYNC + i;
+					syncData.append(i == 0 ? "" : ",").append("{\"key\":\"insertItem\",\"syncInfo\":[").append(id).append(",\"item ").append(id).append("\"]}");
+				}
+				syncData.append("]");
+				syncCount++;
+				return StubSyncService.response("2026-01-01 00:00:0"+syncCount, -1, syncData.toString());
+			}
+		});
+		JDBCSyncStorage storage = new JDBCSyncStorage("jdbc:sqlite:"+dbFile.getAbsolutePath(), READERS, 16);
+		db = new SynchronizedDB(storage, service.getURL(), service.getPort(), "user", "password", 30);
+		storage.transact("CREATE TABLE items(id INTEGER PRIMARY KEY, name TEXT)", null);
+		db.registerSynchedStatement("insertItem", "INSERT INTO items VALUES(?,?)");
+		db.registerSynchedStatement("countItems", "SELECT count(*) FROM items");
+	}
+
+	@After
+	public void tearDown() throws Exception{
+		reading = false;
+		db.cleanUp();
+		service.stop();
+		dbFile.delete();
+		new File(dbFile.getPath()+"-wal").delete();
+		new File(dbFile.getPath()+"-shm").delete();
+	}
+
+	@Test
+	public void readersRunDuringSync() throws Exception{
+		syncWhileReading();
+	}
+
+	@Test
+	public void readersRunDuringStreamingSync() throws Exception{
+		db.setStreamingCodec(true);
+		syncWhileReading();
+	}
+
+	@Test
+	public void readersRunDuringPipelinedSync() throws Exception{
+		db.setPipelinedApply(2, 64);
+		syncWhileReading();
+	}
+
+	private void syncWhileReading() throws Exception{
+		reading = true;
+		ArrayList<Thread> readers = new ArrayList<Thread>();
+		for(int i = 0; i < READERS; i++){
+			Thread aReader = new Thread(new Runnable(){
+				public void run() {
+					try{
+						while(reading){
+							long count = countItems();
+							if(count % ROWS_PER_SYNC != 0){
+								readerFailures.add("read "+count+" rows");
+							}
+							readsCompleted.incrementAndGet();
+						}
+					}
+					catch(Exception e){
+						readerFailures.add(e.toString());
+					}
+				}
+			});
+			aReader.start();
+			readers.add(aReader);
+		}
+		try{
+			for(int i = 1; i <= SYNCS; i++){
+				db.sync();
+				assertEquals(i * ROWS_PER_SYNC, countItems());
+			}
+		}
+		finally{
+			reading = false;
+			for(Thread aReader : readers){
+				aReader.join();
+			}
+		}
+		assertEquals(Collections.emptyList(), readerFailures);
+		assertEquals(SYNCS, readsDuringRequests.size());
+		for(Long reads : readsDuringRequests){
+			assertTrue("readers were blocked while a sync was on the network", reads.longValue() >= READS_DURING_REQUEST);
+		}
+	}
+
+	private long countItems() throws Exception{
+		DataAccessResult aResult = db.getData("countItems", null);
+		assertEquals("not an error", aResult.getErrorDescription());
+		return Long.parseLong(aResult.getResults().get(0).get(0));
+	}
+}